@@ -14,8 +14,6 @@
  */
 package com.ceco.q.gravitybox;
 
-import android.annotation.SuppressLint;
-import android.content.Context;
 import android.graphics.Bitmap;
 import android.graphics.BitmapFactory;
 import android.graphics.Canvas;
@@ -27,13 +25,17 @@ import android.graphics.Rect;
 import android.graphics.RectF;
 import android.graphics.drawable.BitmapDrawable;
 import android.graphics.drawable.Drawable;
-import android.renderscript.Allocation;
-import android.renderscript.Element;
-import android.renderscript.RenderScript;
-import android.renderscript.ScriptIntrinsicBlur;
+import android.system.ErrnoException;
+import android.system.Os;
+import android.util.AtomicFile;
 
-import java.util.HashMap;
-import java.util.Map;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
 
 public class BitmapUtils {
 
@@ -57,57 +59,88 @@ public class BitmapUtils {
         return bitmap;
     }
 
-    public static Bitmap blurBitmap(Context context, Bitmap bmp) {
-        return blurBitmap(context, bmp, 14);
+    public static Bitmap blurBitmap(Bitmap bmp) {
+        return blurBitmap(bmp, 14);
     }
 
-    public static Bitmap blurBitmap(Context context, Bitmap bmp, float radius) {
-        Bitmap out = Bitmap.createBitmap(bmp);
-        RenderScript rs = RenderScript.create(context);
-        radius = Math.min(Math.max(radius, 0), 25);
+    // radius to blur with on downsampled bitmap; source is downsampled by radius / this value
+    private static final float BLUR_SAMPLED_RADIUS = 4f;
 
-        Allocation input = Allocation.createFromBitmap(
-                rs, bmp, Allocation.MipmapControl.MIPMAP_NONE, Allocation.USAGE_SCRIPT);
-        Allocation output = Allocation.createTyped(rs, input.getType());
+    /**
+     * Blurs bitmap using {@link StackBlur}
+     * @param radius - blur radius in pixels of source bitmap; not limited to 25 unlike RenderScript
+     * @return new bitmap of the same size as source
+     */
+    public static Bitmap blurBitmap(Bitmap bmp, float radius) {
+        final int width = bmp.getWidth();
+        final int height = bmp.getHeight();
+        final int sample = Math.max(1, Math.min(Math.round(radius / BLUR_SAMPLED_RADIUS),
+                Math.min(width, height)));
+        final int sampledWidth = Math.max(1, width / sample);
+        final int sampledHeight = Math.max(1, height / sample);
 
-        ScriptIntrinsicBlur script = ScriptIntrinsicBlur.create(rs, Element.U8_4(rs));
-        script.setInput(input);
-        script.setRadius(radius);
-        script.forEach(output);
+        Bitmap src = bmp;
+        if (sample > 1) {
+            src = Bitmap.createScaledBitmap(bmp, sampledWidth, sampledHeight, true);
+        }
+        if (src.getConfig() == Bitmap.Config.HARDWARE) {
+            Bitmap copy = src.copy(Bitmap.Config.ARGB_8888, false);
+            if (src != bmp) src.recycle();
+            src = copy;
+        }
 
-        output.copyTo(out);
+        int[] pixels = new int[sampledWidth * sampledHeight];
+        src.getPixels(pixels, 0, sampledWidth, 0, 0, sampledWidth, sampledHeight);
+        if (src != bmp) src.recycle();
+        StackBlur.blur(pixels, sampledWidth, sampledHeight, Math.round(radius / sample));
 
-        rs.destroy();
+        Bitmap out = Bitmap.createBitmap(sampledWidth, sampledHeight, Bitmap.Config.ARGB_8888);
+        out.setPixels(pixels, 0, sampledWidth, 0, 0, sampledWidth, sampledHeight);
+        if (sample > 1) {
+            Bitmap scaled = Bitmap.createScaledBitmap(out, width, height, true);
+            if (scaled != out) out.recycle();
+            out = scaled;
+        }
         return out;
     }
 
-    @SuppressLint("UseSparseArrays")
+    private static final int PREDOMINANT_COLOR_MAX_SIZE = 128;
+    private static final int PREDOMINANT_COLOR_QUANTIZE_BITS = 5;
+    private static final ThreadLocal<ColorHistogram> sColorHistogram =
+            ThreadLocal.withInitial(ColorHistogram::new);
+
     public static int getBitmapPredominantColor(Bitmap bmp) {
-        int width = bmp.getWidth();
-        int height = bmp.getHeight();
-        int[] pixels = new int[width * height];
-
-        bmp.getPixels(pixels, 0, width, 0, 0, width, height);
-
-        Map<Integer, Integer> tmpMap = new HashMap<>();
-        for (int pixel : pixels) {
-            Integer counter = tmpMap.get(pixel);
-            if (counter == null) counter = 0;
-            counter++;
-            tmpMap.put(pixel, counter);
-        }
+        return getBitmapPredominantColor(bmp, PREDOMINANT_COLOR_MAX_SIZE,
+                PREDOMINANT_COLOR_QUANTIZE_BITS);
+    }
 
-        Map.Entry<Integer, Integer> maxEntry = null;
-        for (Map.Entry<Integer, Integer> entry : tmpMap.entrySet()) {
-            // discard transparent pixels
-            if (entry.getKey() == Color.TRANSPARENT) continue;
+    /**
+     * Finds the most frequent color of the bitmap ignoring transparent pixels
+     * @param bmp - source bitmap
+     * @param maxSize - longer side of the sampling grid or 0 to use all pixels
+     * @param quantizeBits - significant bits kept per channel (1-8); 8 disables quantization
+     * @return average color of the most populated color bucket or Color.TRANSPARENT
+     *         if bitmap has no opaque pixels
+     */
+    public static int getBitmapPredominantColor(Bitmap bmp, int maxSize, int quantizeBits) {
+        final int width = bmp.getWidth();
+        final int height = bmp.getHeight();
+        final int step = (maxSize > 0 ?
+                Math.max(1, (Math.max(width, height) + maxSize - 1) / maxSize) : 1);
+        final int[] row = new int[width];
+        final ColorHistogram histogram = sColorHistogram.get().reset(quantizeBits);
 
-            if (maxEntry == null || entry.getValue() > maxEntry.getValue()) {
-                maxEntry = entry;
+        for (int y = 0; y < height; y += step) {
+            bmp.getPixels(row, 0, width, 0, y, width, 1);
+            for (int x = 0; x < width; x += step) {
+                // discard transparent pixels
+                if (row[x] != Color.TRANSPARENT) {
+                    histogram.add(row[x]);
+                }
             }
         }
 
-        return maxEntry.getKey();
+        return histogram.getPredominantColor();
     }
 
     public static Bitmap getCircleBitmap(Bitmap bitmap) {
@@ -152,4 +185,80 @@ public class BitmapUtils {
 
         return inSampleSize;
     }
+
+    // raw bitmap file: magic, width, height followed by ARGB_8888 pixels as stored in Bitmap
+    private static final int RAW_BITMAP_MAGIC = 0x47424b49;
+    private static final int RAW_BITMAP_HEADER_SIZE = 12;
+
+    /**
+     * Writes ARGB_8888 pixels into raw bitmap file that can be read back with {@link #readRawBitmap(File)}
+     * The file is replaced atomically and made world readable so that other processes
+     * never see it partially written.
+     * @param pixels - pixel data as produced by {@link Bitmap#copyPixelsToBuffer(java.nio.Buffer)}
+     */
+    public static void writeRawBitmap(File file, int width, int height, ByteBuffer pixels) throws IOException {
+        if (pixels.remaining() != width * height * 4) {
+            throw new IOException("Unexpected pixel data size: " + pixels.remaining());
+        }
+        ByteBuffer header = ByteBuffer.allocate(RAW_BITMAP_HEADER_SIZE).order(ByteOrder.BIG_ENDIAN);
+        header.putInt(RAW_BITMAP_MAGIC).putInt(width).putInt(height).flip();
+        AtomicFile atomicFile = new AtomicFile(file);
+        FileOutputStream fos = null;
+        try {
+            fos = atomicFile.startWrite();
+            FileChannel channel = fos.getChannel();
+            while (header.hasRemaining()) channel.write(header);
+            while (pixels.hasRemaining()) channel.write(pixels);
+            Os.fchmod(fos.getFD(), 0644);
+            atomicFile.finishWrite(fos);
+        } catch (IOException | ErrnoException e) {
+            if (fos != null) {
+                atomicFile.failWrite(fos);
+            }
+            throw (e instanceof IOException ? (IOException) e : new IOException(e));
+        }
+    }
+
+    public static void writeRawBitmap(Bitmap bmp, File file) throws IOException {
+        if (bmp.getConfig() != Bitmap.Config.ARGB_8888) {
+            throw new IOException("Unsupported bitmap config: " + bmp.getConfig());
+        }
+        ByteBuffer pixels = ByteBuffer.allocateDirect(bmp.getByteCount());
+        bmp.copyPixelsToBuffer(pixels);
+        pixels.flip();
+        writeRawBitmap(file, bmp.getWidth(), bmp.getHeight(), pixels);
+    }
+
+    /**
+     * @return bitmap read from raw bitmap file or null if file is missing or invalid
+     */
+    public static Bitmap readRawBitmap(File file) throws IOException {
+        if (!file.exists()) return null;
+        try (FileChannel channel = new FileInputStream(file).getChannel()) {
+            ByteBuffer header = ByteBuffer.allocate(RAW_BITMAP_HEADER_SIZE).order(ByteOrder.BIG_ENDIAN);
+            while (header.hasRemaining()) {
+                if (channel.read(header) < 0) break;
+            }
+            header.flip();
+            if (header.remaining() != RAW_BITMAP_HEADER_SIZE ||
+                    header.getInt() != RAW_BITMAP_MAGIC) {
+                return null;
+            }
+            final int width = header.getInt();
+            final int height = header.getInt();
+            if (width <= 0 || height <= 0 ||
+                    channel.size() != RAW_BITMAP_HEADER_SIZE + (long) width * height * 4) {
+                return null;
+            }
+            // read into memory; mapping could fault when the file gets replaced meanwhile
+            ByteBuffer pixels = ByteBuffer.allocateDirect(width * height * 4);
+            while (pixels.hasRemaining()) {
+                if (channel.read(pixels) < 0) return null;
+            }
+            pixels.flip();
+            Bitmap bmp = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
+            bmp.copyPixelsFromBuffer(pixels);
+            return bmp;
+        }
+    }
 }
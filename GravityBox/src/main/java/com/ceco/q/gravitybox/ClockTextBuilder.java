@@ -0,0 +1,216 @@
+/*
+ * Copyright (C) 2019 Peter Gregus for GravityBox Project (C3C076@xda)
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ceco.q.gravitybox;
+
+import java.text.DateFormat;
+import java.text.DateFormatSymbols;
+import java.text.DecimalFormatSymbols;
+import java.text.FieldPosition;
+import java.text.SimpleDateFormat;
+import java.util.Calendar;
+import java.util.Locale;
+import java.util.TimeZone;
+
+/**
+ * Builds status bar clock text into a reused buffer.
+ * Formatting state is valid for one locale, time zone and set of clock settings;
+ * create a new instance whenever any of them changes.
+ * Besides the text it provides ranges of day of week/date prefix and AM/PM
+ * so that caller can apply size spans.
+ */
+class ClockTextBuilder {
+    final Locale locale;
+    final boolean is24;
+    private final boolean mAmPmHide;
+    private final Calendar mCalendar;
+    private final SimpleDateFormat mSecondsFormat;
+    private final FieldPosition mSecondsPosition = new FieldPosition(DateFormat.SECOND_FIELD);
+    private final StringBuffer mSecondsBuffer = new StringBuffer();
+    private final char mZeroDigit;
+    private final String[] mAmPmStrings;
+    private final boolean mAmPmFirst;
+    private final SimpleDateFormat mDateFormat;
+    private final String[] mDowPrefixes;
+    private final StringBuilder mText = new StringBuilder();
+    private int mPrefixEnd;
+    private int mAmPmStart = -1;
+    private int mAmPmEnd = -1;
+    // time text of current minute and position of seconds digits within it
+    private long mMinute = Long.MIN_VALUE;
+    private String mMinuteText;
+    private int mSecondsIndex = -1;
+    private int mDay = -1;
+    private String mDatePrefix;
+
+    /**
+     * @param secondsPattern - pattern of time with seconds
+     * @param dateMode - "disabled", "localized" or custom date pattern
+     * @param dowMode - one of GravityBoxSettings.DOW_* constants
+     */
+    ClockTextBuilder(Locale locale, TimeZone timeZone, boolean is24, String secondsPattern,
+                     String dateMode, int dowMode, boolean amPmHide) {
+        this.locale = locale;
+        this.is24 = is24;
+        mAmPmHide = amPmHide;
+        mCalendar = Calendar.getInstance(timeZone, locale);
+        mSecondsFormat = new SimpleDateFormat(secondsPattern, locale);
+        mSecondsFormat.setTimeZone(timeZone);
+        DateFormatSymbols symbols = DateFormatSymbols.getInstance(locale);
+        mAmPmStrings = symbols.getAmPmStrings();
+        mAmPmFirst = locale.equals(Locale.TAIWAN) || locale.equals(Locale.CHINA);
+        mZeroDigit = DecimalFormatSymbols.getInstance(locale).getZeroDigit();
+
+        if (!"disabled".equals(dateMode)) {
+            SimpleDateFormat df = (SimpleDateFormat) SimpleDateFormat.getDateInstance(SimpleDateFormat.SHORT);
+            String pattern = "localized".equals(dateMode) ?
+                    df.toLocalizedPattern().replaceAll(".?[Yy].?", "") : dateMode;
+            mDateFormat = new SimpleDateFormat(pattern, locale);
+            mDateFormat.setTimeZone(timeZone);
+        } else {
+            mDateFormat = null;
+        }
+
+        if (dowMode != GravityBoxSettings.DOW_DISABLED) {
+            String[] weekdays = symbols.getShortWeekdays();
+            mDowPrefixes = new String[weekdays.length];
+            for (int i = 0; i < weekdays.length; i++) {
+                mDowPrefixes[i] = getFormattedDow(weekdays[i], dowMode) + " ";
+            }
+        } else {
+            mDowPrefixes = null;
+        }
+    }
+
+    private String getFormattedDow(String inDow, int dowMode) {
+        switch (dowMode) {
+            case GravityBoxSettings.DOW_LOWERCASE:
+                return inDow.toLowerCase(locale);
+            case GravityBoxSettings.DOW_UPPERCASE:
+                return inDow.toUpperCase(locale);
+            case GravityBoxSettings.DOW_STANDARD:
+            default: return inDow;
+        }
+    }
+
+    /**
+     * Builds clock text for given time
+     * @param timeMs - current time
+     * @param original - time text provided by the clock
+     * @param withPrefix - true to prepend day of week and date
+     * @param withSeconds - true to replace original time with time including seconds
+     * @return built text; valid until next call
+     */
+    CharSequence build(long timeMs, CharSequence original, boolean withPrefix, boolean withSeconds) {
+        final StringBuilder sb = mText;
+        final Calendar calendar = mCalendar;
+        calendar.setTimeInMillis(timeMs);
+        sb.setLength(0);
+        mAmPmStart = mAmPmEnd = -1;
+
+        if (withPrefix) {
+            if (mDowPrefixes != null) {
+                sb.append(mDowPrefixes[calendar.get(Calendar.DAY_OF_WEEK)]);
+            }
+            if (mDateFormat != null) {
+                final int day = calendar.get(Calendar.YEAR) * 400 + calendar.get(Calendar.DAY_OF_YEAR);
+                if (day != mDay) {
+                    mDatePrefix = mDateFormat.format(calendar.getTime()) + " ";
+                    mDay = day;
+                }
+                sb.append(mDatePrefix);
+            }
+        }
+        final int timeStart = sb.length();
+        mPrefixEnd = timeStart;
+
+        if (withSeconds) {
+            appendTimeWithSeconds(sb);
+        } else {
+            sb.append(original);
+        }
+
+        String amPm = mAmPmStrings[calendar.get(Calendar.AM_PM)];
+        int amPmIndex = sb.indexOf(amPm, timeStart);
+        if (mAmPmHide && amPmIndex != -1) {
+            sb.delete(amPmIndex, amPmIndex + amPm.length());
+            while (sb.length() > timeStart && Character.isWhitespace(sb.charAt(sb.length() - 1))) {
+                sb.setLength(sb.length() - 1);
+            }
+            while (sb.length() > timeStart && Character.isWhitespace(sb.charAt(timeStart))) {
+                sb.deleteCharAt(timeStart);
+            }
+            amPmIndex = -1;
+        } else if (!mAmPmHide && !is24 && amPmIndex == -1) {
+            // insert AM/PM if missing
+            if (mAmPmFirst) {
+                sb.insert(timeStart, ' ');
+                sb.insert(timeStart, amPm);
+                amPmIndex = timeStart;
+            } else {
+                sb.append(' ');
+                amPmIndex = sb.length();
+                sb.append(amPm);
+            }
+        }
+        if (amPmIndex > -1) {
+            int offset = !mAmPmFirst && amPmIndex > 0 &&
+                    Character.isWhitespace(sb.charAt(amPmIndex - 1)) ? 1 : 0;
+            mAmPmStart = amPmIndex - offset;
+            mAmPmEnd = amPmIndex + amPm.length();
+        }
+        return sb;
+    }
+
+    void appendTimeWithSeconds(StringBuilder sb) {
+        final long minute = mCalendar.getTimeInMillis() / 60000;
+        if (minute != mMinute || mSecondsIndex < 0) {
+            mSecondsBuffer.setLength(0);
+            mMinuteText = mSecondsFormat.format(mCalendar.getTime(),
+                    mSecondsBuffer, mSecondsPosition).toString();
+            // only two digit seconds can be patched in place
+            mSecondsIndex = mSecondsPosition.getEndIndex() - mSecondsPosition.getBeginIndex() == 2 ?
+                    mSecondsPosition.getBeginIndex() : -1;
+            mMinute = minute;
+            if (mSecondsIndex < 0) {
+                sb.append(mMinuteText);
+                return;
+            }
+        }
+
+        final int seconds = mCalendar.get(Calendar.SECOND);
+        sb.append(mMinuteText, 0, mSecondsIndex);
+        sb.append((char) (mZeroDigit + seconds / 10));
+        sb.append((char) (mZeroDigit + seconds % 10));
+        sb.append(mMinuteText, mSecondsIndex + 2, mMinuteText.length());
+    }
+
+    /**
+     * @return end of day of week and date prefix or 0 if there is none
+     */
+    int getPrefixEnd() {
+        return mPrefixEnd;
+    }
+
+    /**
+     * @return start of AM/PM including preceding space or -1 if there is none
+     */
+    int getAmPmStart() {
+        return mAmPmStart;
+    }
+
+    int getAmPmEnd() {
+        return mAmPmEnd;
+    }
+}
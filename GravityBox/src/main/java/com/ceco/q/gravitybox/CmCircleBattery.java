@@ -24,6 +24,7 @@ import com.ceco.q.gravitybox.managers.SysUiBatteryInfoManager.BatteryStatusListe
 import com.ceco.q.gravitybox.managers.SysUiStatusBarIconManager.ColorInfo;
 import com.ceco.q.gravitybox.managers.SysUiStatusBarIconManager.IconManagerListener;
 
+import android.animation.ValueAnimator;
 import android.annotation.SuppressLint;
 import android.content.Context;
 import android.content.res.Resources;
@@ -33,9 +34,11 @@ import android.graphics.DashPathEffect;
 import android.graphics.Paint;
 import android.graphics.Paint.Align;
 import android.graphics.Rect;
+import android.graphics.RecordingCanvas;
 import android.graphics.RectF;
-import android.os.Handler;
+import android.graphics.RenderNode;
 import android.util.TypedValue;
+import android.view.animation.LinearInterpolator;
 import android.widget.ImageView;
 import de.robv.android.xposed.XposedBridge;
 
@@ -46,7 +49,17 @@ public class CmCircleBattery extends ImageView implements IconManagerListener, B
 
     public enum Style { SOLID, DASHED }
 
-    private Handler mHandler;
+    // duration of one revolution of charging animation
+    private static final long ANIM_DURATION = 6000;
+    private static final long ANIM_DURATION_FAST = 1800;
+    // animation offset granularity in degrees
+    private static final int ANIM_STEP = 3;
+    private static final int ANIM_STEP_FAST = 6;
+    // step interval used while animators are disabled system-wide
+    private static final long ANIM_STEP_DELAY = 50;
+    private static final long ANIM_STEP_DELAY_FAST = 30;
+
+    private ValueAnimator mChargeAnimator;
 
     // state variables
     private boolean mAttached;      // whether or not attached to a window
@@ -54,7 +67,8 @@ public class CmCircleBattery extends ImageView implements IconManagerListener, B
     private boolean mIsFastCharging; // whether or not device is currently fast charging
     private int     mLevel;         // current battery level
     private int     mAnimOffset;    // current level of charging animation
-    private boolean mIsAnimating;   // stores charge-animation status to reliably remove callbacks
+    private boolean mVisible = true; // whether or not visible to the user
+    private boolean mScreenOn = true; // whether or not screen is on
     private boolean mPercentage;    // whether to show percentage
     private BatteryStyleController mController;
 
@@ -64,6 +78,11 @@ public class CmCircleBattery extends ImageView implements IconManagerListener, B
     private RectF   mRectLeft;      // contains the precalculated rect used in drawArc(), derived from mCircleSize
     private Float   mTextLeftX;     // precalculated x position for drawText() to appear centered
     private Float   mTextY;         // precalculated y position for drawText() to appear vertical-centered
+    private Paint   mLevelPaint;    // paint used for level arc, derived from mLevel
+    private float   mLevelSweep;    // sweep angle of level arc, derived from mLevel
+    private String  mLevelText;     // percentage text, derived from mLevel
+    private RenderNode mStaticNode; // recorded gray ring and percentage text
+    private RenderNode mLevelNode;  // recorded level arc; animation frames only rotate it
 
     // quiet a lot of paint variables. helps to move cpu-usage from actual drawing to initialization
     private Paint   mPaintFont;
@@ -79,22 +98,32 @@ public class CmCircleBattery extends ImageView implements IconManagerListener, B
         XposedBridge.log(TAG + ": " + message);
     }
 
-    // runnable to invalidate view via mHandler.postDelayed() call
-    private final Runnable mInvalidate = new Runnable() {
+    // advances charging animation while animators are disabled (e.g. animator duration scale 0)
+    private final Runnable mAnimStep = new Runnable() {
+        @Override
         public void run() {
-            if(mAttached) {
-                invalidate();
-            }
+            mAnimOffset = (mAnimOffset + (mIsFastCharging ? ANIM_STEP_FAST : ANIM_STEP)) % 360;
+            invalidate();
+            updateChargeAnim();
         }
     };
 
     // keeps track of current battery level and charger-plugged-state
     @Override
     public void onBatteryStatusChanged(BatteryData batteryData) {
-        mLevel = batteryData.level;
-        mIsCharging = batteryData.charging;
+        boolean changed = false;
+        if (mLevel != batteryData.level || mLevelText == null) {
+            mLevel = batteryData.level;
+            updateLevelGeometry();
+            changed = true;
+        }
+        if (mIsCharging != batteryData.charging) {
+            mIsCharging = batteryData.charging;
+            changed = true;
+        }
         mIsFastCharging = batteryData.fastCharging;
-        if (mAttached) {
+        updateChargeAnim();
+        if (changed && mAttached) {
             invalidate();
         }
     }
@@ -106,7 +135,6 @@ public class CmCircleBattery extends ImageView implements IconManagerListener, B
         super(context);
 
         mController = controller;
-        mHandler = new Handler();
 
         // initialize and setup all paint variables
         // stroke width is later set in initSizeBasedStuff()
@@ -145,11 +173,16 @@ public class CmCircleBattery extends ImageView implements IconManagerListener, B
 
         mPercentage = false;
 
+        mStaticNode = new RenderNode(TAG);
+        mLevelNode = new RenderNode(TAG);
+
         setStyle(Style.SOLID);
+        updateLevelGeometry();
     }
 
     public void setPercentage(boolean enable) {
         mPercentage = enable;
+        mStaticNode.discardDisplayList();
         if (mAttached) {
             invalidate();
         }
@@ -167,6 +200,10 @@ public class CmCircleBattery extends ImageView implements IconManagerListener, B
                 break;
         }
         mRectLeft = null;
+        if (mLevelPaint != null) {
+            mLevelPaint.setPathEffect(mPathEffect);
+        }
+        mLevelNode.discardDisplayList();
         if (mAttached) {
             invalidate();
         }
@@ -183,7 +220,8 @@ public class CmCircleBattery extends ImageView implements IconManagerListener, B
             if (SysUiManagers.BatteryInfoManager != null) {
                 SysUiManagers.BatteryInfoManager.registerListener(this);
             }
-            mHandler.postDelayed(mInvalidate, 250);
+            updateChargeAnim();
+            postInvalidateDelayed(250);
         }
     }
 
@@ -198,6 +236,7 @@ public class CmCircleBattery extends ImageView implements IconManagerListener, B
             if (SysUiManagers.BatteryInfoManager != null) {
                 SysUiManagers.BatteryInfoManager.unregisterListener(this);
             }
+            updateChargeAnim();
             mRectLeft = null; // makes sure, size based variables get
                                 // recalculated on next attach
             mCircleSize = 0;    // makes sure, mCircleSize is reread from icons on
@@ -205,6 +244,22 @@ public class CmCircleBattery extends ImageView implements IconManagerListener, B
         }
     }
 
+    @Override
+    public void onVisibilityAggregated(boolean isVisible) {
+        super.onVisibilityAggregated(isVisible);
+        if (mVisible != isVisible) {
+            mVisible = isVisible;
+            updateChargeAnim();
+        }
+    }
+
+    @Override
+    public void onScreenStateChanged(int screenState) {
+        super.onScreenStateChanged(screenState);
+        mScreenOn = screenState == SCREEN_STATE_ON;
+        updateChargeAnim();
+    }
+
     @Override
     protected void onMeasure(int widthMeasureSpec, int heightMeasureSpec) {
         if (mCircleSize == 0) {
@@ -219,33 +274,38 @@ public class CmCircleBattery extends ImageView implements IconManagerListener, B
         initSizeBasedStuff();
     }
 
-    private void drawCircle(Canvas canvas, int level, int animOffset, float textX, RectF drawRect) {
-        final Paint usePaint = level <= 15 ? mPaintRed : mPaintSystem;
-        usePaint.setAntiAlias(true);
-        usePaint.setPathEffect(mPathEffect);
+    /***
+     * precalculates level dependent drawing state
+     * so that animation frames only move the start of level arc
+     */
+    private void updateLevelGeometry() {
+        mLevelPaint = mLevel <= 15 ? mPaintRed : mPaintSystem;
+        mLevelPaint.setPathEffect(mPathEffect);
 
         // pad circle percentage to 100% once it reaches 97%
         // for one, the circle looks odd with a too small gap,
         // for another, some phones never reach 100% due to hardware design
-        int padLevel = level;
-        if (padLevel >= 97) {
-            padLevel = 100;
-        }
+        mLevelSweep = 3.6f * (mLevel >= 97 ? 100 : mLevel);
+        mLevelText = Integer.toString(mLevel);
+        mStaticNode.discardDisplayList();
+        mLevelNode.discardDisplayList();
+    }
 
+    /***
+     * draws parts of the circle which don't move with charging animation
+     */
+    private void drawStatic(Canvas canvas, int level, float textX, RectF drawRect) {
         // draw thin gray ring first
         canvas.drawArc(drawRect, 270, 360, false, mPaintGray);
-        // draw colored arc representing charge level
-        canvas.drawArc(drawRect, 270 + animOffset, 3.6f * padLevel, false, usePaint);
         // if chosen by options, draw percentage text in the middle
         // always skip percentage when 100, so layout doesnt break
         if (level < 100 && mPercentage) {
-            mPaintFont.setColor(usePaint.getColor());
+            mPaintFont.setColor(mLevelPaint.getColor());
             // Workarround for drawing bug on Samsung Roms
             if (Utils.isSamsungRom()) mPaintFont.setStyle(Paint.Style.FILL);
-            canvas.drawText(Integer.toString(level), textX, mTextY, mPaintFont);
+            canvas.drawText(mLevelText, textX, mTextY, mPaintFont);
             if (Utils.isSamsungRom()) mPaintFont.setStyle(Paint.Style.STROKE);
         }
-
     }
 
     @Override
@@ -254,36 +314,113 @@ public class CmCircleBattery extends ImageView implements IconManagerListener, B
             initSizeBasedStuff();
         }
 
-        updateChargeAnim();
+        final int offset = mIsCharging ? mAnimOffset : 0;
+
+        // invalidate(Rect) is ignored by hardware rendering, so instead of a dirty region
+        // both parts are kept recorded and animation frames only rotate the level arc
+        if (canvas.isHardwareAccelerated()) {
+            if (!mStaticNode.hasDisplayList()) {
+                mStaticNode.setPosition(0, 0, getWidth(), getHeight());
+                RecordingCanvas c = mStaticNode.beginRecording(getWidth(), getHeight());
+                try {
+                    drawStatic(c, mLevel, mTextLeftX, mRectLeft);
+                } finally {
+                    mStaticNode.endRecording();
+                }
+            }
+            if (!mLevelNode.hasDisplayList()) {
+                mLevelNode.setPosition(0, 0, getWidth(), getHeight());
+                mLevelNode.setPivotX(mRectLeft.centerX());
+                mLevelNode.setPivotY(mRectLeft.centerY());
+                RecordingCanvas c = mLevelNode.beginRecording(getWidth(), getHeight());
+                try {
+                    drawLevel(c, 0);
+                } finally {
+                    mLevelNode.endRecording();
+                }
+            }
+            mLevelNode.setRotationZ(offset);
+            canvas.drawRenderNode(mStaticNode);
+            canvas.drawRenderNode(mLevelNode);
+        } else {
+            drawStatic(canvas, mLevel, mTextLeftX, mRectLeft);
+            drawLevel(canvas, offset);
+        }
+    }
 
-        drawCircle(canvas, mLevel, (mIsCharging ? mAnimOffset : 0), mTextLeftX, mRectLeft);
+    /***
+     * draws colored arc representing charge level
+     */
+    private void drawLevel(Canvas canvas, int offset) {
+        canvas.drawArc(mRectLeft, 270 + offset, mLevelSweep, false, mLevelPaint);
     }
 
     /***
-     * updates the animation counter
-     * cares for timed callbacks to continue animation cycles
-     * uses mInvalidate for delayed invalidate() callbacks
+     * starts, pauses or stops charging animation
+     * animation runs only while charging and visible to the user
+     * offset is derived from animation play time and synchronized with display frames
+     * while animators are disabled system-wide, offset is stepped by a delayed runnable instead
      */
     private void updateChargeAnim() {
+        removeCallbacks(mAnimStep);
         if (!mIsCharging || mLevel >= 97) {
-            if (mIsAnimating) {
-                mIsAnimating = false;
+            if (mChargeAnimator != null) {
+                mChargeAnimator.cancel();
+                mChargeAnimator = null;
+            }
+            if (mAnimOffset != 0) {
                 mAnimOffset = 0;
-                mHandler.removeCallbacks(mInvalidate);
+                invalidate();
             }
             return;
         }
 
-        mIsAnimating = true;
+        // disabled animators jump to their end value and would freeze the arc
+        if (!ValueAnimator.areAnimatorsEnabled()) {
+            if (mChargeAnimator != null) {
+                mChargeAnimator.cancel();
+                mChargeAnimator = null;
+            }
+            if (mAttached && mVisible && mScreenOn) {
+                postDelayed(mAnimStep, mIsFastCharging ? ANIM_STEP_DELAY_FAST : ANIM_STEP_DELAY);
+            }
+            return;
+        }
 
-        if (mAnimOffset >= 360) {
-            mAnimOffset = 0;
-        } else {
-            mAnimOffset += mIsFastCharging ? 6 : 3;
+        final long duration = mIsFastCharging ? ANIM_DURATION_FAST : ANIM_DURATION;
+        if (mChargeAnimator == null || mChargeAnimator.getDuration() != duration) {
+            if (mChargeAnimator != null) {
+                mChargeAnimator.cancel();
+            }
+            final int step = mIsFastCharging ? ANIM_STEP_FAST : ANIM_STEP;
+            mChargeAnimator = ValueAnimator.ofInt(0, 360);
+            mChargeAnimator.setDuration(duration);
+            mChargeAnimator.setInterpolator(new LinearInterpolator());
+            mChargeAnimator.setRepeatCount(ValueAnimator.INFINITE);
+            mChargeAnimator.addUpdateListener(animation -> {
+                if (!ValueAnimator.areAnimatorsEnabled()) {
+                    // disabled while running; continue with stepping runnable
+                    updateChargeAnim();
+                    return;
+                }
+                int offset = (int) animation.getAnimatedValue() / step * step;
+                // redraw only when arc moves
+                if (offset != mAnimOffset) {
+                    mAnimOffset = offset;
+                    invalidate();
+                }
+            });
         }
 
-        mHandler.removeCallbacks(mInvalidate);
-        mHandler.postDelayed(mInvalidate, mIsFastCharging ? 30 : 50);
+        if (mAttached && mVisible && mScreenOn) {
+            if (!mChargeAnimator.isStarted()) {
+                mChargeAnimator.start();
+            } else if (mChargeAnimator.isPaused()) {
+                mChargeAnimator.resume();
+            }
+        } else if (mChargeAnimator.isStarted()) {
+            mChargeAnimator.pause();
+        }
     }
 
     /***
@@ -302,6 +439,8 @@ public class CmCircleBattery extends ImageView implements IconManagerListener, B
         mPaintRed.setStrokeWidth(strokeWidth);
         mPaintSystem.setStrokeWidth(strokeWidth);
         mPaintGray.setStrokeWidth(strokeWidth);
+        mStaticNode.discardDisplayList();
+        mLevelNode.discardDisplayList();
 
         // calculate rectangle for drawArc calls
         int pLeft = getPaddingLeft();
@@ -335,6 +474,8 @@ public class CmCircleBattery extends ImageView implements IconManagerListener, B
     public void setColor(int color) {
         mPaintSystem.setColor(color);
         mPaintFont.setColor(color);
+        mStaticNode.discardDisplayList();
+        mLevelNode.discardDisplayList();
         invalidate();
     }
 
@@ -0,0 +1,153 @@
+/*
+ * Copyright (C) 2019 Peter Gregus for GravityBox Project (C3C076@xda)
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ceco.q.gravitybox;
+
+import java.util.Arrays;
+
+/**
+ * Color counter backed by open addressing primitive hash table.
+ * Table grows with the number of distinct colors; instance is meant to be reused
+ * by calling {@link #reset(int)} before each use.
+ */
+class ColorHistogram {
+    private static final int INITIAL_CAPACITY = 256;
+    // larger tables are dropped on reset so that a single huge input does not pin memory
+    private static final int MAX_RETAINED_CAPACITY = 1 << 16;
+
+    private int[] mKeys;
+    private int[] mCounts;
+    // per-channel sums are kept only for quantized colors to average buckets
+    private long[] mSums;
+    private int mMask;
+    private int mSize;
+    private int mQuantizeMask;
+    private boolean mQuantized;
+
+    ColorHistogram() {
+        allocate(INITIAL_CAPACITY);
+    }
+
+    private void allocate(int capacity) {
+        mKeys = new int[capacity];
+        mCounts = new int[capacity];
+        mSums = (mQuantized ? new long[capacity * 4] : null);
+        mMask = capacity - 1;
+        mSize = 0;
+    }
+
+    /**
+     * Clears the histogram
+     * @param quantizeBits - significant bits kept per channel (1-8); 8 disables quantization
+     */
+    ColorHistogram reset(int quantizeBits) {
+        quantizeBits = Math.min(Math.max(quantizeBits, 1), 8);
+        final boolean quantized = quantizeBits < 8;
+        int channelMask = (0xFF << (8 - quantizeBits)) & 0xFF;
+        mQuantizeMask = channelMask << 24 | channelMask << 16 | channelMask << 8 | channelMask;
+        if (mKeys.length > MAX_RETAINED_CAPACITY || quantized != mQuantized) {
+            mQuantized = quantized;
+            allocate(Math.min(mKeys.length, MAX_RETAINED_CAPACITY));
+        } else {
+            Arrays.fill(mCounts, 0);
+            if (mSums != null) {
+                Arrays.fill(mSums, 0);
+            }
+            mSize = 0;
+        }
+        return this;
+    }
+
+    void add(int color) {
+        final int key = color & mQuantizeMask;
+        int i = find(key);
+        if (mCounts[i] == 0) {
+            if ((mSize + 1) * 2 > mKeys.length) {
+                grow();
+                i = find(key);
+            }
+            mKeys[i] = key;
+            mSize++;
+        }
+        mCounts[i]++;
+        if (mSums == null) return;
+        mSums[i * 4] += color >>> 24;
+        mSums[i * 4 + 1] += (color >> 16) & 0xFF;
+        mSums[i * 4 + 2] += (color >> 8) & 0xFF;
+        mSums[i * 4 + 3] += color & 0xFF;
+    }
+
+    private int find(int key) {
+        int i = mix(key) & mMask;
+        while (mCounts[i] != 0 && mKeys[i] != key) {
+            i = (i + 1) & mMask;
+        }
+        return i;
+    }
+
+    private void grow() {
+        final int[] keys = mKeys;
+        final int[] counts = mCounts;
+        final long[] sums = mSums;
+        mKeys = new int[keys.length * 2];
+        mCounts = new int[keys.length * 2];
+        mSums = (sums != null ? new long[keys.length * 8] : null);
+        mMask = mKeys.length - 1;
+        for (int j = 0; j < keys.length; j++) {
+            if (counts[j] == 0) continue;
+            final int i = find(keys[j]);
+            mKeys[i] = keys[j];
+            mCounts[i] = counts[j];
+            if (sums != null) {
+                System.arraycopy(sums, j * 4, mSums, i * 4, 4);
+            }
+        }
+    }
+
+    /**
+     * @return number of distinct (quantized) colors
+     */
+    int size() {
+        return mSize;
+    }
+
+    /**
+     * @return most frequent color, average color of the most populated bucket when quantized
+     *         or 0 (transparent) if histogram is empty
+     */
+    int getPredominantColor() {
+        int max = -1;
+        for (int i = 0; i < mCounts.length; i++) {
+            if (mCounts[i] != 0 && (max < 0 || mCounts[i] > mCounts[max])) {
+                max = i;
+            }
+        }
+        if (max < 0) {
+            return 0;
+        }
+        if (mSums == null) {
+            return mKeys[max];
+        }
+        final long n = mCounts[max];
+        return (int) (mSums[max * 4] / n) << 24 |
+                (int) (mSums[max * 4 + 1] / n) << 16 |
+                (int) (mSums[max * 4 + 2] / n) << 8 |
+                (int) (mSums[max * 4 + 3] / n);
+    }
+
+    private static int mix(int key) {
+        int h = key * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+}
@@ -0,0 +1,105 @@
+/*
+ * Copyright (C) 2019 Peter Gregus for GravityBox Project (C3C076@xda)
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ceco.q.gravitybox;
+
+import java.io.File;
+import java.util.Locale;
+
+import android.os.Build;
+import android.os.Process;
+
+/**
+ * Snapshot of ROM and hardware traits evaluated once per process.
+ * Snapshot taken in Zygote is discarded in forked processes as AOSP forced flag
+ * cannot be read from Zygote. Use {@link #refresh()} when the flag changes.
+ */
+public final class DeviceProfile {
+    private static volatile DeviceProfile sProfile;
+
+    private final int mPid;
+
+    public final boolean isAospForced;
+    public final boolean isGpeDevice;
+    public final boolean isMotoXtDevice;
+    public final boolean isMtkDevice;
+    public final boolean isXperiaDevice;
+    public final boolean isExynosDevice;
+    public final boolean isSamsungRom;
+    public final boolean isOxygenOs7Rom;
+    public final boolean isOxygenOs7ProRom;
+    public final boolean isOxygenOsRom;
+    public final boolean isParanoidRom;
+    public final boolean isTablet;
+    public final String deviceCharacteristics;
+
+    public static DeviceProfile get() {
+        DeviceProfile profile = sProfile;
+        if (profile == null || profile.mPid != Process.myPid()) {
+            profile = refresh();
+        }
+        return profile;
+    }
+
+    /**
+     * Re-evaluates all traits
+     * @return new snapshot
+     */
+    public static DeviceProfile refresh() {
+        DeviceProfile profile = new DeviceProfile();
+        sProfile = profile;
+        return profile;
+    }
+
+    private DeviceProfile() {
+        mPid = Process.myPid();
+
+        // NOTE: always false when evaluated in Zygote
+        isAospForced = new File(Utils.AOSP_FORCED_FILE_PATH).exists();
+
+        String productName = Build.PRODUCT.toLowerCase(Locale.US);
+        isGpeDevice = Build.DEVICE.toLowerCase(Locale.US).contains("gpe") || productName.contains("google")
+                || productName.contains("ged") || productName.contains("gpe") ||
+                productName.contains("aosp");
+
+        String model = Build.MODEL.toLowerCase(Locale.US);
+        isMotoXtDevice = Build.MANUFACTURER.equalsIgnoreCase("motorola") &&
+                (model.startsWith("xt") ||
+                 model.contains("razr") ||
+                 model.contains("moto")) &&
+                !isGpeDevice && !isAospForced;
+
+        isMtkDevice = Build.HARDWARE.toLowerCase(Locale.US).matches("^mt[68][1-9][1-9][1-9]$") &&
+                !isMotoXtDevice && !isAospForced;
+
+        isXperiaDevice = Build.MANUFACTURER.equalsIgnoreCase("sony") &&
+                !isMtkDevice && !isGpeDevice && !isAospForced;
+
+        isExynosDevice = Build.HARDWARE.toLowerCase(Locale.US).contains("smdk");
+        isSamsungRom = new File("/system/framework/com.samsung.device.jar").isFile();
+
+        isOxygenOs7Rom = "OnePlus".equals(Build.MANUFACTURER) &&
+                Build.DISPLAY != null && Build.DISPLAY.startsWith("GM190");
+        isOxygenOs7ProRom = "OnePlus".equals(Build.MANUFACTURER) &&
+                Build.DISPLAY != null && Build.DISPLAY.startsWith("GM191");
+        String version = SystemPropertyProvider.get("ro.oxygen.version", "0");
+        isOxygenOsRom = (version != null && !version.isEmpty() && !"0".equals(version)) ||
+                isOxygenOs7Rom || isOxygenOs7ProRom;
+
+        isParanoidRom = Build.DISPLAY != null && Build.DISPLAY.startsWith("pa_");
+
+        deviceCharacteristics = SystemPropertyProvider.get("ro.build.characteristics");
+        isTablet = deviceCharacteristics != null && deviceCharacteristics.contains("tablet");
+    }
+}
@@ -0,0 +1,181 @@
+/*
+ * Copyright (C) 2019 Peter Gregus for GravityBox Project (C3C076@xda)
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ceco.q.gravitybox;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+
+import de.robv.android.xposed.XposedHelpers;
+
+/**
+ * Reflection accessors for hot paths.
+ * Each accessor resolves its field or method once per receiver class and keeps
+ * the accessible Field/Method so that repeated calls skip name based lookups
+ * XposedHelpers performs on every getObjectField/callMethod.
+ * Only the most recently used receiver class is remembered, so an accessor must not
+ * be shared across unrelated receiver classes; alternating between them would resolve
+ * the member again on every call. Create separate accessors per hooked class instead.
+ * Failures are reported the same way as by XposedHelpers.
+ */
+public class FastReflect {
+
+    /**
+     * @param name - name of instance field declared by receiver class or any of its superclasses
+     */
+    public static FieldAccessor field(String name) {
+        return new FieldAccessor(name);
+    }
+
+    /**
+     * Method accessor resolved using types of arguments of the first call
+     * @param name - name of instance method
+     */
+    public static MethodAccessor method(String name) {
+        return new MethodAccessor(name, null);
+    }
+
+    /**
+     * @param name - name of instance method
+     * @param parameterTypes - parameter types of the method
+     */
+    public static MethodAccessor method(String name, Class<?>... parameterTypes) {
+        return new MethodAccessor(name, parameterTypes);
+    }
+
+    // immutable so that it can be swapped atomically
+    private static final class Resolved<T> {
+        final Class<?> clazz;
+        final T member;
+        Resolved(Class<?> clazz, T member) {
+            this.clazz = clazz;
+            this.member = member;
+        }
+    }
+
+    public static final class FieldAccessor {
+        private final String mName;
+        private volatile Resolved<Field> mResolved;
+
+        private FieldAccessor(String name) {
+            mName = name;
+        }
+
+        private Field resolve(Object obj) {
+            Resolved<Field> r = mResolved;
+            if (r == null || r.clazz != obj.getClass()) {
+                r = new Resolved<>(obj.getClass(), XposedHelpers.findField(obj.getClass(), mName));
+                mResolved = r;
+            }
+            return r.member;
+        }
+
+        public Object get(Object obj) {
+            try {
+                return resolve(obj).get(obj);
+            } catch (IllegalAccessException e) {
+                throw new IllegalAccessError(e.getMessage());
+            }
+        }
+
+        public boolean getBoolean(Object obj) {
+            try {
+                return resolve(obj).getBoolean(obj);
+            } catch (IllegalAccessException e) {
+                throw new IllegalAccessError(e.getMessage());
+            }
+        }
+
+        public int getInt(Object obj) {
+            try {
+                return resolve(obj).getInt(obj);
+            } catch (IllegalAccessException e) {
+                throw new IllegalAccessError(e.getMessage());
+            }
+        }
+
+        public long getLong(Object obj) {
+            try {
+                return resolve(obj).getLong(obj);
+            } catch (IllegalAccessException e) {
+                throw new IllegalAccessError(e.getMessage());
+            }
+        }
+
+        public float getFloat(Object obj) {
+            try {
+                return resolve(obj).getFloat(obj);
+            } catch (IllegalAccessException e) {
+                throw new IllegalAccessError(e.getMessage());
+            }
+        }
+
+        public void set(Object obj, Object value) {
+            try {
+                resolve(obj).set(obj, value);
+            } catch (IllegalAccessException e) {
+                throw new IllegalAccessError(e.getMessage());
+            }
+        }
+
+        public void setBoolean(Object obj, boolean value) {
+            try {
+                resolve(obj).setBoolean(obj, value);
+            } catch (IllegalAccessException e) {
+                throw new IllegalAccessError(e.getMessage());
+            }
+        }
+
+        public void setInt(Object obj, int value) {
+            try {
+                resolve(obj).setInt(obj, value);
+            } catch (IllegalAccessException e) {
+                throw new IllegalAccessError(e.getMessage());
+            }
+        }
+    }
+
+    public static final class MethodAccessor {
+        private final String mName;
+        private final Class<?>[] mParameterTypes;
+        private volatile Resolved<Method> mResolved;
+
+        private MethodAccessor(String name, Class<?>[] parameterTypes) {
+            mName = name;
+            mParameterTypes = parameterTypes;
+        }
+
+        private Method resolve(Object obj, Object[] args) {
+            Resolved<Method> r = mResolved;
+            if (r == null || r.clazz != obj.getClass()) {
+                r = new Resolved<>(obj.getClass(), mParameterTypes == null ?
+                        XposedHelpers.findMethodBestMatch(obj.getClass(), mName, args) :
+                        XposedHelpers.findMethodBestMatch(obj.getClass(), mName, mParameterTypes));
+                mResolved = r;
+            }
+            return r.member;
+        }
+
+        public Object invoke(Object obj, Object... args) {
+            try {
+                return resolve(obj, args).invoke(obj, args);
+            } catch (IllegalAccessException e) {
+                throw new IllegalAccessError(e.getMessage());
+            } catch (InvocationTargetException e) {
+                throw new XposedHelpers.InvocationTargetError(e.getCause());
+            }
+        }
+    }
+}
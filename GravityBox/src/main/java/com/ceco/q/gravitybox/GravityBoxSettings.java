@@ -3624,6 +3624,7 @@ public class GravityBoxSettings extends GravityBoxActivity implements GravityBox
                 } else if (file.exists()) {
                     file.delete();
                 }
+                DeviceProfile.refresh();
             } else if (PREF_KEY_FINGERPRINT_LAUNCHER_PAUSE.equals(pref.getKey())) {
                 Intent fplPauseIntent = new Intent(ACTION_FPL_SETTINGS_CHANGED);
                 fplPauseIntent.putExtra(EXTRA_FPL_PAUSE, true);
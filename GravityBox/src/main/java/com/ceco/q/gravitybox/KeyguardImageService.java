@@ -14,35 +14,54 @@
  */
 package com.ceco.q.gravitybox;
 
-import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
 import java.io.File;
-import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.zip.CRC32;
+
 import android.annotation.SuppressLint;
 import android.app.Service;
 import android.content.Intent;
 import android.content.SharedPreferences;
 import android.graphics.Bitmap;
-import android.graphics.BitmapFactory;
+import android.os.Bundle;
 import android.os.Handler;
+import android.os.HandlerThread;
 import android.os.IBinder;
 import android.os.Message;
 import android.os.Messenger;
+import android.os.Process;
 import android.os.RemoteException;
+import android.os.SharedMemory;
+import android.os.SystemClock;
+import android.system.ErrnoException;
 
 public class KeyguardImageService extends Service {
-    public static final int MSG_BEGIN_OUTPUT = 1;
-    public static final int MSG_WRITE_OUTPUT = 2;
-    public static final int MSG_FINISH_OUTPUT = 3;
-    public static final int MSG_GET_NEXT_CHUNK = 4;
+    public static final int MSG_SET_IMAGE = 1;
+    public static final int MSG_IMAGE_SAVED = 2;
     public static final int MSG_ERROR = -1;
+    // arg2 of MSG_SET_IMAGE is a transfer sequence number echoed back in arg2 of the reply
+
+    // MSG_SET_IMAGE data: ARGB_8888 pixels in shared memory, dimensions and capture time (elapsedRealtime)
+    public static final String EXTRA_IMAGE = "image";
+    public static final String EXTRA_WIDTH = "width";
+    public static final String EXTRA_HEIGHT = "height";
+    public static final String EXTRA_CAPTURE_TIME = "captureTime";
+    // time from capture until image was saved in ms
+    public static final String EXTRA_LATENCY = "latency";
+
+    public static final String IMAGE_FILE_NAME = "kis_image.raw";
+    private static final String IMAGE_FILE_NAME_LEGACY = "kis_image.png";
 
     public static final String ACTION_KEYGUARD_IMAGE_UPDATED = "gravitybox.intent.action.KEYGUARD_IMAGE_UPDATED";
 
+    // checksum of pixels and blur settings of the image last written; kept while process lives
+    private static long sSavedImageChecksum = -1;
+
     private File mKisImageFile;
-    private boolean mWriteInProgress;
-    private ByteArrayOutputStream mOutputStream;
     private SharedPreferences mPrefs;
+    private HandlerThread mWorkerThread;
+    private Handler mWorkerHandler;
 
     final Messenger mMessenger = new Messenger(new ClientHandler());
 
@@ -50,53 +69,53 @@ public class KeyguardImageService extends Service {
     class ClientHandler extends Handler {
         @Override
         public void handleMessage(Message msg) {
-            switch (msg.what) {
-                case MSG_BEGIN_OUTPUT:
-                    if (mWriteInProgress) return;
-                    try {
-                        mOutputStream = new ByteArrayOutputStream();
-                        mWriteInProgress = true;
-                        msg.replyTo.send(Message.obtain(null, MSG_GET_NEXT_CHUNK));
-                    } catch (Throwable t) {
-                        try {
-                            msg.replyTo.send(Message.obtain(null, MSG_ERROR));
-                        } catch (RemoteException ignored) { }
-                        t.printStackTrace();
-                    }
-                    break;
-                case MSG_WRITE_OUTPUT:
-                    try {
-                        byte[] data = msg.getData().getByteArray("data");
-                        mOutputStream.write(data);
-                        data = null;
-                        msg.replyTo.send(Message.obtain(null, MSG_GET_NEXT_CHUNK));
-                    } catch (Throwable t) {
-                        try {
-                            msg.replyTo.send(Message.obtain(null, MSG_ERROR));
-                        } catch (RemoteException ignored) { }
-                        t.printStackTrace();
-                    }
-                    break;
-                case MSG_FINISH_OUTPUT:
-                    try {
-                        if (saveImage()) {
-                            Intent intent = new Intent(ACTION_KEYGUARD_IMAGE_UPDATED);
-                            sendBroadcast(intent);
-                        }
-                        mOutputStream.close();
-                    } catch (Throwable t) {
-                        t.printStackTrace();
-                    }
-                    break;
-            }
+            if (msg.what != MSG_SET_IMAGE) return;
+            // message is recycled once handled; keep what the worker needs
+            final Bundle data = msg.getData();
+            final Messenger replyTo = msg.replyTo;
+            final int sequence = msg.arg2;
+            mWorkerHandler.post(() -> processImage(data, replyTo, sequence));
         }
     }
 
     @Override
     public void onCreate() {
         super.onCreate();
-        mKisImageFile = new File(Utils.getFilesDir(this) + "/kis_image.png");
+        mKisImageFile = new File(Utils.getFilesDir(this) + "/" + IMAGE_FILE_NAME);
         mPrefs = SettingsManager.getInstance(this).getMainPrefs();
+        mWorkerThread = new HandlerThread("GB:KeyguardImageService", Process.THREAD_PRIORITY_BACKGROUND);
+        mWorkerThread.start();
+        mWorkerHandler = new Handler(mWorkerThread.getLooper());
+    }
+
+    @Override
+    public void onDestroy() {
+        mWorkerThread.quitSafely();
+        super.onDestroy();
+    }
+
+    // called on worker thread
+    private void processImage(Bundle data, Messenger replyTo, int sequence) {
+        Message reply;
+        try {
+            SharedMemory image = data.getParcelable(EXTRA_IMAGE);
+            boolean saved = saveImage(image, data.getInt(EXTRA_WIDTH), data.getInt(EXTRA_HEIGHT));
+            long latency = SystemClock.elapsedRealtime() - data.getLong(EXTRA_CAPTURE_TIME);
+            if (saved) {
+                Intent intent = new Intent(ACTION_KEYGUARD_IMAGE_UPDATED);
+                intent.putExtra(EXTRA_LATENCY, latency);
+                sendBroadcast(intent);
+            }
+            reply = Message.obtain(null, MSG_IMAGE_SAVED, (int) latency, sequence);
+        } catch (Throwable t) {
+            t.printStackTrace();
+            reply = Message.obtain(null, MSG_ERROR, 0, sequence);
+        }
+        if (replyTo != null) {
+            try {
+                replyTo.send(reply);
+            } catch (RemoteException ignored) { }
+        }
     }
 
     @Override
@@ -104,26 +123,56 @@ public class KeyguardImageService extends Service {
         return mMessenger.getBinder();
     }
 
+    /**
+     * @return true if image file was written, false if it already contained the same image
+     */
     @SuppressWarnings("ResultOfMethodCallIgnored")
-    @SuppressLint("SetWorldReadable")
-    private boolean saveImage() {
+    private boolean saveImage(SharedMemory image, int width, int height) throws IOException, ErrnoException {
+        if (image == null) {
+            throw new IOException("No image data");
+        }
+        ByteBuffer pixels = image.mapReadOnly();
         try {
-            Bitmap tmpBmp = BitmapFactory.decodeStream(
-                    new ByteArrayInputStream(mOutputStream.toByteArray()));
-            if (tmpBmp != null) {
-                if (mPrefs.getBoolean(GravityBoxSettings.PREF_KEY_LOCKSCREEN_BACKGROUND_BLUR_EFFECT, false)) {
-                    tmpBmp = BitmapUtils.blurBitmap(this, tmpBmp, mPrefs.getInt(
-                            GravityBoxSettings.PREF_KEY_LOCKSCREEN_BACKGROUND_BLUR_INTENSITY, 14));
-                }
-                tmpBmp.compress(Bitmap.CompressFormat.PNG, 100, new FileOutputStream(mKisImageFile));
-                mKisImageFile.setReadable(true, false);
-                tmpBmp.recycle();
-                return true;
+            final boolean blur = mPrefs.getBoolean(
+                    GravityBoxSettings.PREF_KEY_LOCKSCREEN_BACKGROUND_BLUR_EFFECT, false);
+            final int blurRadius = mPrefs.getInt(
+                    GravityBoxSettings.PREF_KEY_LOCKSCREEN_BACKGROUND_BLUR_INTENSITY, 14);
+            CRC32 crc = new CRC32();
+            crc.update(pixels);
+            pixels.rewind();
+            updateCrc(crc, width);
+            updateCrc(crc, height);
+            updateCrc(crc, blur ? blurRadius : -1);
+            final long checksum = crc.getValue();
+            if (checksum == sSavedImageChecksum && mKisImageFile.exists()) {
+                return false;
             }
-            return false;
-        } catch (Exception e) {
-            e.printStackTrace();
-            return false;
+            // invalid until new file is complete
+            sSavedImageChecksum = -1;
+
+            if (blur) {
+                Bitmap bmp = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
+                bmp.copyPixelsFromBuffer(pixels);
+                Bitmap blurred = BitmapUtils.blurBitmap(bmp, blurRadius);
+                BitmapUtils.writeRawBitmap(blurred, mKisImageFile);
+                blurred.recycle();
+                bmp.recycle();
+            } else {
+                BitmapUtils.writeRawBitmap(mKisImageFile, width, height, pixels);
+            }
+            sSavedImageChecksum = checksum;
+        } finally {
+            SharedMemory.unmap(pixels);
+            image.close();
         }
+        new File(Utils.getFilesDir(this) + "/" + IMAGE_FILE_NAME_LEGACY).delete();
+        return true;
+    }
+
+    private static void updateCrc(CRC32 crc, int value) {
+        crc.update(value >>> 24);
+        crc.update(value >>> 16);
+        crc.update(value >>> 8);
+        crc.update(value);
     }
 }
@@ -174,7 +174,7 @@ public class LockscreenAppBar implements SysUiKeyguardStateMonitor.Listener,
 
     public void setShowBadges(boolean showBadges) {
         mShowBadges = showBadges;
-        onNotificationDataChanged(null);
+        updateAppIcons(null);
     }
 
     public void setScale(int scale) {
@@ -241,12 +241,27 @@ public class LockscreenAppBar implements SysUiKeyguardStateMonitor.Listener,
 
     @Override
     public void onNotificationDataChanged(final StatusBarNotification sbn) {
+        // missed call count is not derived from notification count
+        if (sbn == null || sbn.getPackageName() == null) {
+            updateAppIcons(null);
+        } else if (ModTelecom.PACKAGE_NAME.equals(sbn.getPackageName())) {
+            updateAppIcons(sbn.getPackageName());
+        }
+    }
+
+    @Override
+    public void onNotificationCountChanged(String pkg, int count, int delta) {
+        if (!ModTelecom.PACKAGE_NAME.equals(pkg)) {
+            updateAppIcons(pkg);
+        }
+    }
+
+    private void updateAppIcons(String pkg) {
         for (AppInfo ai : mAppSlots) {
             if (ai.getPackageName() == null)
                 continue;
 
-            if (sbn == null || sbn.getPackageName() == null ||
-                    sbn.getPackageName().equals(ai.getPackageName())) {
+            if (pkg == null || pkg.equals(ai.getPackageName())) {
                 ai.updateIcon();
             }
         }
@@ -0,0 +1,208 @@
+/*
+ * Copyright (C) 2019 Peter Gregus for GravityBox Project (C3C076@xda)
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ceco.q.gravitybox;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.Point;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
+import android.os.Process;
+import android.view.WindowManager;
+import de.robv.android.xposed.XposedBridge;
+
+/**
+ * Prepares lockscreen background bitmaps on a background thread.
+ * Images are decoded at display resolution, reusing memory of intermediate bitmaps,
+ * and ready (blurred) images are cached by file, modification time and blur radius.
+ */
+public class LockscreenBackgroundLoader {
+    private static final String TAG = "GB:LockscreenBackgroundLoader";
+    private static final boolean DEBUG = false;
+
+    private static final int CACHE_SIZE = 3;
+    private static final int POOL_SIZE = 2;
+
+    private static void log(String message) {
+        XposedBridge.log(TAG + ": " + message);
+    }
+
+    public interface Callback {
+        /**
+         * Called on main thread with prepared bitmap
+         * @param bitmap - bitmap or null if image could not be loaded
+         */
+        void onBackgroundLoaded(Bitmap bitmap);
+    }
+
+    private final Context mContext;
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+    private final Handler mHandler;
+    private final AtomicInteger mGeneration = new AtomicInteger();
+
+    // accessed on loader thread only
+    private final Map<String, Bitmap> mCache = new LinkedHashMap<>(CACHE_SIZE, 0.75f, true);
+    // bitmaps not referenced by anyone which can be reused for decoding
+    private final List<Bitmap> mPool = new ArrayList<>(POOL_SIZE);
+
+    public LockscreenBackgroundLoader(Context context) {
+        mContext = context;
+        HandlerThread thread = new HandlerThread(TAG, Process.THREAD_PRIORITY_BACKGROUND);
+        thread.start();
+        mHandler = new Handler(thread.getLooper());
+    }
+
+    /**
+     * Loads image file encoded in any format supported by BitmapFactory
+     * @param blurRadius - blur radius or 0 for no blur
+     */
+    public void loadImage(File file, int blurRadius, Callback callback) {
+        load(file, false, blurRadius, callback);
+    }
+
+    /**
+     * Loads image file written by {@link BitmapUtils#writeRawBitmap(Bitmap, File)}
+     */
+    public void loadRawImage(File file, Callback callback) {
+        load(file, true, 0, callback);
+    }
+
+    /**
+     * Cancels delivery of results of all pending loads
+     */
+    public void cancel() {
+        mGeneration.incrementAndGet();
+    }
+
+    private void load(final File file, final boolean raw, final int blurRadius, final Callback callback) {
+        final int generation = mGeneration.incrementAndGet();
+        final Point size = getDisplaySize();
+        mHandler.post(() -> {
+            if (generation != mGeneration.get()) return;
+            Bitmap bitmap = null;
+            try {
+                bitmap = getBitmap(file, raw, blurRadius, size.x, size.y);
+            } catch (Throwable t) {
+                GravityBox.log(TAG, t);
+            }
+            final Bitmap result = bitmap;
+            mMainHandler.post(() -> {
+                if (generation == mGeneration.get()) {
+                    callback.onBackgroundLoaded(result);
+                }
+            });
+        });
+    }
+
+    private Point getDisplaySize() {
+        Point size = new Point();
+        WindowManager wm = (WindowManager) mContext.getSystemService(Context.WINDOW_SERVICE);
+        wm.getDefaultDisplay().getRealSize(size);
+        return size;
+    }
+
+    private Bitmap getBitmap(File file, boolean raw, int blurRadius, int width, int height) throws Exception {
+        if (!file.exists()) return null;
+
+        final String key = file.getAbsolutePath() + ":" + file.lastModified() + ":" +
+                file.length() + ":" + blurRadius + ":" + width + "x" + height;
+        Bitmap bitmap = mCache.get(key);
+        if (bitmap != null) {
+            if (DEBUG) log("Cache hit: " + key);
+            return bitmap;
+        }
+
+        long start = DEBUG ? System.currentTimeMillis() : 0;
+        bitmap = raw ? BitmapUtils.readRawBitmap(file) : decodeImage(file, width, height);
+        if (bitmap != null && blurRadius > 0) {
+            Bitmap blurred = BitmapUtils.blurBitmap(bitmap, blurRadius);
+            // decoded bitmap is not referenced by anyone; keep it for next decode
+            recycleToPool(bitmap);
+            bitmap = blurred;
+        }
+        // last screen images change every time; no point in caching them
+        if (bitmap == null || raw) return bitmap;
+
+        mCache.put(key, bitmap);
+        Iterator<String> it = mCache.keySet().iterator();
+        while (mCache.size() > CACHE_SIZE && it.hasNext()) {
+            // evicted bitmap might still be displayed so it cannot be reused
+            it.next();
+            it.remove();
+        }
+        if (DEBUG) log("Loaded " + key + " in " + (System.currentTimeMillis() - start) + "ms");
+        return bitmap;
+    }
+
+    private Bitmap decodeImage(File file, int displayWidth, int displayHeight) {
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inJustDecodeBounds = true;
+        BitmapFactory.decodeFile(file.getAbsolutePath(), options);
+        if (options.outWidth <= 0 || options.outHeight <= 0) return null;
+
+        // match display orientation to the image
+        final boolean landscape = options.outWidth > options.outHeight;
+        final int reqWidth = landscape ? Math.max(displayWidth, displayHeight) :
+                Math.min(displayWidth, displayHeight);
+        final int reqHeight = landscape ? Math.min(displayWidth, displayHeight) :
+                Math.max(displayWidth, displayHeight);
+        options.inSampleSize = BitmapUtils.calculateInSampleSize(options, reqWidth, reqHeight);
+        options.inJustDecodeBounds = false;
+        options.inMutable = true;
+        options.inPreferredConfig = Bitmap.Config.ARGB_8888;
+        final int sampledWidth = (options.outWidth + options.inSampleSize - 1) / options.inSampleSize;
+        final int sampledHeight = (options.outHeight + options.inSampleSize - 1) / options.inSampleSize;
+        options.inBitmap = takeFromPool(sampledWidth * sampledHeight * 4);
+        if (DEBUG) log("Decoding " + file + ": inSampleSize=" + options.inSampleSize +
+                "; reusing bitmap=" + (options.inBitmap != null));
+
+        Bitmap bitmap = BitmapFactory.decodeFile(file.getAbsolutePath(), options);
+        if (bitmap == null && options.inBitmap != null) {
+            // pooled bitmap not suitable for this image; decodeFile reports that by returning null
+            options.inBitmap = null;
+            bitmap = BitmapFactory.decodeFile(file.getAbsolutePath(), options);
+        }
+        return bitmap;
+    }
+
+    private Bitmap takeFromPool(int byteCount) {
+        for (int i = 0; i < mPool.size(); i++) {
+            Bitmap bitmap = mPool.get(i);
+            if (bitmap.getAllocationByteCount() >= byteCount) {
+                mPool.remove(i);
+                return bitmap;
+            }
+        }
+        return null;
+    }
+
+    private void recycleToPool(Bitmap bitmap) {
+        if (!bitmap.isMutable() || bitmap.getConfig() != Bitmap.Config.ARGB_8888) return;
+        if (mPool.size() >= POOL_SIZE) {
+            mPool.remove(0).recycle();
+        }
+        mPool.add(bitmap);
+    }
+}
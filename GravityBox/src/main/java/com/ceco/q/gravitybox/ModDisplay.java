@@ -15,10 +15,7 @@
 
 package com.ceco.q.gravitybox;
 
-import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
-import java.io.IOException;
-import java.io.InputStream;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
@@ -34,7 +31,6 @@ import android.content.Intent;
 import android.content.ServiceConnection;
 import android.content.res.Resources;
 import android.graphics.Bitmap;
-import android.graphics.Bitmap.CompressFormat;
 import android.graphics.Color;
 import android.graphics.Rect;
 import android.os.BatteryManager;
@@ -46,6 +42,9 @@ import android.os.Messenger;
 import android.os.PowerManager;
 import android.os.PowerManager.WakeLock;
 import android.os.ResultReceiver;
+import android.os.SharedMemory;
+import android.os.SystemClock;
+import android.system.OsConstants;
 import android.view.Surface;
 import de.robv.android.xposed.XC_MethodHook;
 import de.robv.android.xposed.XSharedPreferences;
@@ -80,12 +79,25 @@ public class ModDisplay {
     private static ChargingLed mChargingLed;
 
     private static ServiceConnection mKisServiceConn;
-    private static InputStream mKisImageStream;
-    private static Messenger mKisService;
     private static Messenger mKisClient;
+    private static WakeLock mKisWakeLock;
+    // state of current image transfer; accessed on DisplayPowerController handler only
+    // incl. service connection callbacks which are delivered through it
+    private static SharedMemory mKisImage;
+    private static Handler mKisHandler;
+    private static Runnable mKisTimeout;
+    private static int mKisSequence;
+    private static final long KIS_TRANSFER_TIMEOUT = 10000;
     private static KeyguardManager mKeyguardManager;
     private static boolean mLsBgLastScreenEnabled;
 
+    private static final FastReflect.FieldAccessor FIELD_ID = FastReflect.field("mId");
+    private static final FastReflect.FieldAccessor FIELD_LIGHTS = FastReflect.field("mLights");
+    private static final FastReflect.FieldAccessor FIELD_PENDING_REQUEST_LOCKED = FastReflect.field("mPendingRequestLocked");
+    private static final FastReflect.FieldAccessor FIELD_PENDING_WAIT_FOR_NEGATIVE_PROXIMITY_LOCKED = FastReflect.field("mPendingWaitForNegativeProximityLocked");
+    private static final FastReflect.FieldAccessor FIELD_POLICY = FastReflect.field("policy");
+    private static final FastReflect.MethodAccessor METHOD_SET_LIGHT_NATIVE = FastReflect.method("setLight_native");
+
     private static void log(String message) {
         XposedBridge.log(TAG + ": " + message);
     }
@@ -175,7 +187,7 @@ public class ModDisplay {
     
             if (color != null) {
                 Object ls = XposedHelpers.getSurroundingThis(mLight);
-                XposedHelpers.callMethod(ls, "setLight_native",
+                METHOD_SET_LIGHT_NATIVE.invoke(ls,
                         LIGHT_ID_BUTTONS, color, 0, 0, 0, 0);
             }
         } catch (Throwable t) {
@@ -188,7 +200,7 @@ public class ModDisplay {
 
         try {
             Object ls = XposedHelpers.getSurroundingThis(mLight);
-            Object[] lights = (Object[]) XposedHelpers.getObjectField(ls, "mLights");
+            Object[] lights = (Object[]) FIELD_LIGHTS.get(ls);
             XposedHelpers.callMethod(lights[lightId],
                     "setLightLocked", 0, 0, 0, 0, 0);
         } catch (Throwable t) {
@@ -212,17 +224,17 @@ public class ModDisplay {
                     mPendingNotifColor = 
                             mButtonBacklightMode.equals(GravityBoxSettings.BB_MODE_ALWAYS_ON) 
                                     && mPm.isInteractive() ? 0xff6e6e6e : 0;
-                    XposedHelpers.callMethod(ls, "setLight_native",
+                    METHOD_SET_LIGHT_NATIVE.invoke(ls,
                             LIGHT_ID_BUTTONS, mPendingNotifColor, 0, 0, 0, 0);
                 } else {
                     if (mPendingNotifColor == 0) {
                         mPendingNotifColor = 0xff6e6e6e;
-                        XposedHelpers.callMethod(ls, "setLight_native",
+                        METHOD_SET_LIGHT_NATIVE.invoke(ls,
                             LIGHT_ID_BUTTONS, mPendingNotifColor, 0, 0, 0, 0);
                         mHandler.postDelayed(mPendingNotifRunnable, 500);
                     } else {
                         mPendingNotifColor = 0;
-                        XposedHelpers.callMethod(ls, "setLight_native",
+                        METHOD_SET_LIGHT_NATIVE.invoke(ls,
                             LIGHT_ID_BUTTONS, mPendingNotifColor, 0, 0, 0, 0);
                         mHandler.postDelayed(mPendingNotifRunnable, mPulseNotifDelay);
                     }
@@ -308,7 +320,7 @@ public class ModDisplay {
                 @Override
                 protected void beforeHookedMethod(final MethodHookParam param) {
                     if (mLight == null) mLight = param.thisObject;
-                    int id = XposedHelpers.getIntField(param.thisObject, "mId");
+                    int id = FIELD_ID.getInt(param.thisObject);
                     if (DEBUG) log("lightId=" + id + "; color=" + param.args[0] + 
                             "; mode=" + param.args[1] + "; " + "onMS=" + param.args[2] + 
                             "; offMS=" + param.args[3] + "; bMode=" + param.args[4]);
@@ -391,10 +403,10 @@ public class ModDisplay {
 
                     final boolean waitForNegativeProximity = (Boolean) param.args[1];
                     final boolean pendingWaitForNegativeProximity = 
-                            XposedHelpers.getBooleanField(param.thisObject, "mPendingWaitForNegativeProximityLocked");
+                            FIELD_PENDING_WAIT_FOR_NEGATIVE_PROXIMITY_LOCKED.getBoolean(param.thisObject);
                     final Object pendingRequestLocked = 
-                            XposedHelpers.getObjectField(param.thisObject, "mPendingRequestLocked");
-                    final int requestedScreenState = XposedHelpers.getIntField(param.args[0], "policy");
+                            FIELD_PENDING_REQUEST_LOCKED.get(param.thisObject);
+                    final int requestedScreenState = FIELD_POLICY.getInt(param.args[0]);
 
                     if ((waitForNegativeProximity && !pendingWaitForNegativeProximity ||
                             pendingRequestLocked == null || !pendingRequestLocked.equals(param.args[0])) &&
@@ -408,6 +420,7 @@ public class ModDisplay {
 
                         /* Limit max screenshot capture layer to 22000.
                         Prevents status bar and navigation bar from being captured.*/
+                        final long captureTime = SystemClock.elapsedRealtime();
                         Class<?> surfaceCtrl = XposedHelpers.findClass("android.view.SurfaceControl", classLoader);
                         final Bitmap bmp = (Bitmap) XposedHelpers.callStaticMethod(surfaceCtrl, "screenshot",
                              new Rect(), naturalW, naturalH, false, Surface.ROTATION_0);
@@ -417,98 +430,13 @@ public class ModDisplay {
                         new Thread(() -> {
                             final WakeLock wakeLock = mPm.newWakeLock(PowerManager.PARTIAL_WAKE_LOCK, TAG);
                             wakeLock.acquire(10000);
-                            Bitmap tmpBmp = bmp;
-                            int width = bmp.getWidth();
-                            int height = bmp.getHeight();
-                            // scale image (keeping aspect ratio) if it is too large
-                            if (width * height > 1440000) {
-                                int newWidth = (width < height) ? 900 : 1600;
-                                float factor = newWidth / (float) width;
-                                int newHeight = (int) (height * factor);
-                                if (DEBUG_KIS) log("requestPowerState: scaled image res (WxH):"
-                                        + newWidth + "x" + newHeight);
-                                tmpBmp = Bitmap.createScaledBitmap(bmp, newWidth, newHeight, true);
-                            }
-
-                            final ByteArrayOutputStream os = new ByteArrayOutputStream();
-                            tmpBmp.compress(CompressFormat.PNG, 100, os);
                             try {
-                               os.close();
-                            } catch (IOException ignored) { }
-                            bmp.recycle();
-                            tmpBmp.recycle();
-                            mKisImageStream = new ByteArrayInputStream(os.toByteArray());
-
-                            if (mKisClient == null) {
-                                mKisClient = new Messenger(new Handler(h.getLooper()) {
-                                    @Override
-                                    public void handleMessage(Message msg) {
-                                        if (DEBUG_KIS) log("mKisClient: got reply: what=" + msg.what);
-                                        try {
-                                            if (msg.what == KeyguardImageService.MSG_GET_NEXT_CHUNK) {
-                                                byte[] data = new byte[204800];
-                                                if (mKisImageStream.read(data) != -1) {
-                                                    Bundle bundle = new Bundle();
-                                                    bundle.putByteArray("data", data);
-                                                    Message dataMsg = Message.obtain(null, KeyguardImageService.MSG_WRITE_OUTPUT);
-                                                    dataMsg.setData(bundle);
-                                                    dataMsg.replyTo = mKisClient;
-                                                    mKisService.send(dataMsg);
-                                                    if (DEBUG_KIS) log("mKisClient: MSG_WRITE_OUTPUT sent");
-                                                } else {
-                                                    msg = Message.obtain(null, KeyguardImageService.MSG_FINISH_OUTPUT);
-                                                    mKisService.send(msg);
-                                                    mContext.unbindService(mKisServiceConn);
-                                                    if (wakeLock != null && wakeLock.isHeld()) {
-                                                        wakeLock.release();
-                                                    }
-                                                    mKisService = null;
-                                                    mKisServiceConn = null;
-                                                    if (DEBUG_KIS) log("mKisClient: MSG_FINISH_OUTPUT sent");
-                                                }
-                                            } else if (msg.what == KeyguardImageService.MSG_ERROR) {
-                                                mContext.unbindService(mKisServiceConn);
-                                                if (wakeLock != null && wakeLock.isHeld()) {
-                                                    wakeLock.release();
-                                                }
-                                                mKisService = null;
-                                                mKisServiceConn = null;
-                                                GravityBox.log(TAG, "mKisClient: MSG_ERROR received");
-                                            }
-                                        } catch (Throwable t) {
-                                            GravityBox.log(TAG, t);
-                                        }
-                                    }
-                                });
+                                final Bundle data = createKisImageData(bmp, captureTime);
+                                h.post(() -> sendKisImage(h, data, wakeLock));
+                            } catch (Throwable t) {
+                                GravityBox.log(TAG, t);
+                                wakeLock.release();
                             }
-
-                            mKisServiceConn = new ServiceConnection() {
-                                @Override
-                                public void onServiceConnected(ComponentName cn, IBinder binder) {
-                                    try {
-                                        mKisService = new Messenger(binder);
-                                        Message msg = Message.obtain(null, KeyguardImageService.MSG_BEGIN_OUTPUT);
-                                        msg.replyTo = mKisClient;
-                                        mKisService.send(msg);
-                                        if (DEBUG_KIS) log("mKisServiceConn: onServiceConnected");
-                                    } catch (Throwable t) {
-                                        GravityBox.log(TAG, t);
-                                    }
-                                }
-                                @Override
-                                public void onServiceDisconnected(ComponentName cn) {
-                                    if (wakeLock != null && wakeLock.isHeld()) {
-                                        wakeLock.release();
-                                    }
-                                    mKisService = null;
-                                    mKisServiceConn = null;
-                                    if (DEBUG_KIS) log("mKisServiceConn: onServiceDisconnected");
-                                }
-                            };
-                            ComponentName cn = new ComponentName(GravityBox.PACKAGE_NAME, KeyguardImageService.class.getName());
-                            Intent intent = new Intent();
-                            intent.setComponent(cn);
-                            mContext.bindService(intent, mKisServiceConn, Context.BIND_AUTO_CREATE);
                         }).start();
                     }
                 }
@@ -518,6 +446,156 @@ public class ModDisplay {
         }
     }
 
+    private static Bundle createKisImageData(Bitmap bmp, long captureTime) throws Exception {
+        // screenshot is usually hardware bitmap without direct pixel access
+        Bitmap tmpBmp = bmp;
+        if (bmp.getConfig() != Bitmap.Config.ARGB_8888) {
+            tmpBmp = bmp.copy(Bitmap.Config.ARGB_8888, false);
+            bmp.recycle();
+            if (tmpBmp == null) {
+                throw new IllegalStateException("Unable to copy screenshot");
+            }
+        }
+        int width = tmpBmp.getWidth();
+        int height = tmpBmp.getHeight();
+        // scale image (keeping aspect ratio) if it is too large
+        if (width * height > 1440000) {
+            int newWidth = (width < height) ? 900 : 1600;
+            float factor = newWidth / (float) width;
+            int newHeight = (int) (height * factor);
+            if (DEBUG_KIS) log("requestPowerState: scaled image res (WxH):"
+                    + newWidth + "x" + newHeight);
+            Bitmap scaledBmp = Bitmap.createScaledBitmap(tmpBmp, newWidth, newHeight, true);
+            if (scaledBmp != tmpBmp) {
+                tmpBmp.recycle();
+            }
+            tmpBmp = scaledBmp;
+        }
+
+        // raw pixels are passed via shared memory in single transaction
+        SharedMemory image = SharedMemory.create("gb_kis_image", tmpBmp.getByteCount());
+        ByteBuffer buffer = image.mapReadWrite();
+        tmpBmp.copyPixelsToBuffer(buffer);
+        SharedMemory.unmap(buffer);
+        image.setProtect(OsConstants.PROT_READ);
+
+        Bundle data = new Bundle();
+        data.putParcelable(KeyguardImageService.EXTRA_IMAGE, image);
+        data.putInt(KeyguardImageService.EXTRA_WIDTH, tmpBmp.getWidth());
+        data.putInt(KeyguardImageService.EXTRA_HEIGHT, tmpBmp.getHeight());
+        data.putLong(KeyguardImageService.EXTRA_CAPTURE_TIME, captureTime);
+        tmpBmp.recycle();
+        return data;
+    }
+
+    // called on DisplayPowerController handler
+    private static void sendKisImage(final Handler h, final Bundle data, final WakeLock wakeLock) {
+        finishKisTransfer();
+        final int sequence = ++mKisSequence;
+        mKisImage = data.getParcelable(KeyguardImageService.EXTRA_IMAGE);
+        mKisWakeLock = wakeLock;
+        mKisHandler = h;
+        mKisTimeout = () -> {
+            GravityBox.log(TAG, "KeyguardImageService transfer timed out");
+            finishKisTransfer();
+        };
+        h.postDelayed(mKisTimeout, KIS_TRANSFER_TIMEOUT);
+
+        if (mKisClient == null) {
+            mKisClient = new Messenger(new Handler(h.getLooper()) {
+                @Override
+                public void handleMessage(Message msg) {
+                    if (DEBUG_KIS) log("mKisClient: got reply: what=" + msg.what + "; sequence=" + msg.arg2);
+                    // late reply to a transfer that has already been finished or replaced
+                    if (msg.arg2 != mKisSequence || mKisServiceConn == null) return;
+                    if (msg.what == KeyguardImageService.MSG_IMAGE_SAVED) {
+                        if (DEBUG_KIS) log("mKisClient: image saved; latency=" + msg.arg1 + "ms");
+                    } else if (msg.what == KeyguardImageService.MSG_ERROR) {
+                        GravityBox.log(TAG, "mKisClient: MSG_ERROR received");
+                    }
+                    finishKisTransfer();
+                }
+            });
+        }
+
+        mKisServiceConn = new ServiceConnection() {
+            @Override
+            public void onServiceConnected(ComponentName cn, IBinder binder) {
+                if (mKisServiceConn != this || mKisImage == null) return;
+                try {
+                    Message msg = Message.obtain(null, KeyguardImageService.MSG_SET_IMAGE, 0, sequence);
+                    msg.setData(data);
+                    msg.replyTo = mKisClient;
+                    new Messenger(binder).send(msg);
+                    if (DEBUG_KIS) log("mKisServiceConn: MSG_SET_IMAGE sent after " +
+                            (SystemClock.elapsedRealtime() -
+                                    data.getLong(KeyguardImageService.EXTRA_CAPTURE_TIME)) + "ms");
+                } catch (Throwable t) {
+                    GravityBox.log(TAG, t);
+                    finishKisTransfer();
+                } finally {
+                    // descriptor has been duplicated into the transaction
+                    closeKisImage();
+                }
+            }
+            @Override
+            public void onServiceDisconnected(ComponentName cn) {
+                if (mKisServiceConn == this) {
+                    finishKisTransfer();
+                }
+                if (DEBUG_KIS) log("mKisServiceConn: onServiceDisconnected");
+            }
+            @Override
+            public void onBindingDied(ComponentName cn) {
+                if (mKisServiceConn == this) {
+                    finishKisTransfer();
+                }
+                if (DEBUG_KIS) log("mKisServiceConn: onBindingDied");
+            }
+            @Override
+            public void onNullBinding(ComponentName cn) {
+                if (mKisServiceConn == this) {
+                    finishKisTransfer();
+                }
+                if (DEBUG_KIS) log("mKisServiceConn: onNullBinding");
+            }
+        };
+        ComponentName cn = new ComponentName(GravityBox.PACKAGE_NAME, KeyguardImageService.class.getName());
+        Intent intent = new Intent();
+        intent.setComponent(cn);
+        if (!mContext.bindService(intent, Context.BIND_AUTO_CREATE, h::post, mKisServiceConn)) {
+            finishKisTransfer();
+        }
+    }
+
+    private static void closeKisImage() {
+        if (mKisImage != null) {
+            mKisImage.close();
+            mKisImage = null;
+        }
+    }
+
+    private static void finishKisTransfer() {
+        if (mKisHandler != null) {
+            mKisHandler.removeCallbacks(mKisTimeout);
+            mKisHandler = null;
+            mKisTimeout = null;
+        }
+        closeKisImage();
+        if (mKisServiceConn != null) {
+            try {
+                mContext.unbindService(mKisServiceConn);
+            } catch (Throwable t) {
+                GravityBox.log(TAG, t);
+            }
+            mKisServiceConn = null;
+        }
+        if (mKisWakeLock != null && mKisWakeLock.isHeld()) {
+            mKisWakeLock.release();
+        }
+        mKisWakeLock = null;
+    }
+
     private static void updateAutobrightnessConfig(int[] lux, int[] brightness) {
         if (mDisplayPowerController == null || mContext == null) return;
 
@@ -163,12 +163,23 @@ public class ModHwKeys {
     private static String[] mHeadsetUri = new String[2]; // index 0 = unplugged, index 1 = plugged 
     private static Method mLaunchAssistAction = null;
     private static Method mLaunchAssistLongPressAction = null;
+    private static Method mKeyguardOn = null;
     private static ActivityManager mActivityManager;
     private static AudioManager mAudioManager;
     private static PowerManager mPowerManager;
     private static Class<?> mWindowStateClass;
     private static boolean mPowerLongPressInterceptedByTorch;
     private static PowerManager.WakeLock mWakeLock;
+    private static Handler mHandler;
+    private static boolean mIsOxygenOsRom;
+    private static boolean mIsParanoidRom;
+    // key codes interceptKeyBeforeQueueing has to look at with current settings
+    private static volatile boolean[] mHandledKeys = new boolean[0];
+
+    private static final FastReflect.FieldAccessor FIELD_HOME_CONSUMED = FastReflect.field("mHomeConsumed");
+    private static final FastReflect.MethodAccessor METHOD_INJECT_INPUT_EVENT = FastReflect.method("injectInputEvent");
+    private static final FastReflect.MethodAccessor METHOD_PERFORM_HAPTIC_FEEDBACK = FastReflect.method(
+            "performHapticFeedback", int.class, boolean.class, String.class);
 
     private static List<String> mKillIgnoreList = new ArrayList<>(Arrays.asList(
             "com.android.systemui"
@@ -396,6 +407,7 @@ public class ModHwKeys {
         } else if (action.equals(ACTION_TOGGLE_SPLIT_SCREEN)) {
             toggleSplitScreen();
         }
+        updateHandledKeys();
     };
 
     private static void initReflections(Class<?> classPhoneWindowManager) {
@@ -410,6 +422,10 @@ public class ModHwKeys {
                         "launchAssistLongPressAction");
                 mLaunchAssistLongPressAction.setAccessible(true);
             }
+            if (mKeyguardOn == null) {
+                mKeyguardOn = classPhoneWindowManager.getDeclaredMethod("keyguardOn");
+                mKeyguardOn.setAccessible(true);
+            }
         } catch (Throwable t) {
             GravityBox.log(TAG, t);
         }
@@ -511,6 +527,10 @@ public class ModHwKeys {
                 GravityBox.log(TAG, "Invalid value for PREF_KEY_EXPANDED_DESKTOP preference");
             }
 
+            mIsOxygenOsRom = Utils.isOxygenOsRom();
+            mIsParanoidRom = Utils.isParanoidRom();
+            updateHandledKeys();
+
             mHeadsetUri[0] = prefs.getString(GravityBoxSettings.PREF_KEY_HEADSET_ACTION_UNPLUG, null);
             mHeadsetUri[1] = prefs.getString(GravityBoxSettings.PREF_KEY_HEADSET_ACTION_PLUG, null);
 
@@ -528,29 +548,17 @@ public class ModHwKeys {
                 @Override
                 protected void beforeHookedMethod(MethodHookParam param) {
                     KeyEvent event = (KeyEvent) param.args[0];
+                    final int source = event.getSource();
 
-                    int keyCode = event.getKeyCode();
-                    boolean down = event.getAction() == KeyEvent.ACTION_DOWN;
-                    boolean keyguardOn = (Boolean) XposedHelpers.callMethod(mPhoneWindowManager, "keyguardOn");
-                    boolean isFromSystem = (event.getFlags() & KeyEvent.FLAG_FROM_SYSTEM) != 0;
-                    Handler handler = (Handler) XposedHelpers.getObjectField(param.thisObject, "mHandler");
-                    if (DEBUG) log("interceptKeyBeforeQueueing: keyCode=" + keyCode +
-                            "; action=" + event.getAction() + "; repeatCount=" + event.getRepeatCount() +
-                            "; flags=0x" + Integer.toHexString(event.getFlags()) +
-                            "; source=" + event.getSource() +
-                            "; interactive=" + getPowerManager().isInteractive() +
-                            "; repeatCount=" + event.getRepeatCount());
-
-                    if (event.getSource() == InputDevice.SOURCE_UNKNOWN ||
-                            event.getSource() == PA_SOURCE_CUSTOM) {
+                    if (source == InputDevice.SOURCE_UNKNOWN || source == PA_SOURCE_CUSTOM) {
                         // ignore unknown source events, e.g. synthetic events injected from GB itself
                         if (DEBUG) log("interceptKeyBeforeQueueing: ignoring event from unknown source");
-                        if (Utils.isOxygenOsRom()) {
+                        if (mIsOxygenOsRom) {
                             // mangle OOS3.5 key event to allow pass-through and to avoid double-vibrations
                             event = KeyEvent.changeFlags(event, event.getFlags() | KeyEvent.FLAG_VIRTUAL_HARD_KEY);
                             event.setSource(InputDevice.SOURCE_KEYBOARD);
                             param.args[0] = event;
-                        } else if (Utils.isParanoidRom() && event.getSource() == InputDevice.SOURCE_UNKNOWN) {
+                        } else if (mIsParanoidRom && source == InputDevice.SOURCE_UNKNOWN) {
                             // mangle PA key event to allow pass-through
                             event = KeyEvent.changeFlags(event, event.getFlags() | KeyEvent.FLAG_VIRTUAL_HARD_KEY);
                             event.setSource(PA_SOURCE_CUSTOM);
@@ -559,6 +567,22 @@ public class ModHwKeys {
                         return;
                     }
 
+                    final int keyCode = event.getKeyCode();
+                    final boolean[] handledKeys = mHandledKeys;
+                    if (keyCode < 0 || keyCode >= handledKeys.length || !handledKeys[keyCode]) {
+                        return;
+                    }
+
+                    boolean down = event.getAction() == KeyEvent.ACTION_DOWN;
+                    boolean isFromSystem = (event.getFlags() & KeyEvent.FLAG_FROM_SYSTEM) != 0;
+                    Handler handler = mHandler;
+                    if (DEBUG) log("interceptKeyBeforeQueueing: keyCode=" + keyCode +
+                            "; action=" + event.getAction() + "; repeatCount=" + event.getRepeatCount() +
+                            "; flags=0x" + Integer.toHexString(event.getFlags()) +
+                            "; source=" + event.getSource() +
+                            "; interactive=" + getPowerManager().isInteractive() +
+                            "; repeatCount=" + event.getRepeatCount());
+
                     if (keyCode == KeyEvent.KEYCODE_POWER &&
                             mLockscreenTorch == GravityBoxSettings.HWKEY_TORCH_POWER_LONGPRESS &&
                             !getPowerManager().isInteractive()) {
@@ -666,7 +690,7 @@ public class ModHwKeys {
                                                     getActionFor(HwKeyTrigger.BACK_LONGPRESS).actionId));
                                 }
                             }
-                            if (!Utils.isOxygenOsRom()) {
+                            if (!mIsOxygenOsRom) {
                                 performHapticFeedback(HapticFeedbackConstants.VIRTUAL_KEY, false,
                                         "GravityBox - Back Key");
                             }
@@ -692,6 +716,7 @@ public class ModHwKeys {
                                return;
                            }
                         } else {
+                            final boolean keyguardOn = isKeyguardOn();
                             if (event.getRepeatCount() == 0) {
                                 mIsHomeLongPressed = false;
                                 if (keyguardOn && mLockscreenTorch == GravityBoxSettings.HWKEY_TORCH_HOME_LONGPRESS) {
@@ -757,7 +782,7 @@ public class ModHwKeys {
                                                     getActionFor(HwKeyTrigger.RECENTS_LONGPRESS).actionId));
                                 }
                             }
-                            if (!Utils.isOxygenOsRom()) {
+                            if (!mIsOxygenOsRom) {
                                 performHapticFeedback(HapticFeedbackConstants.VIRTUAL_KEY, false,
                                         "GravityBox - Recents Key");
                             }
@@ -898,7 +923,7 @@ public class ModHwKeys {
                 protected void beforeHookedMethod(MethodHookParam param) {
                     if (!isTaskLocked() && getActionFor(HwKeyTrigger.HOME_DOUBLETAP).actionId != 
                             GravityBoxSettings.HWKEY_ACTION_DEFAULT) {
-                        XposedHelpers.setBooleanField(param.thisObject, "mHomeConsumed", true);
+                        FIELD_HOME_CONSUMED.setBoolean(param.thisObject, true);
                         performAction(HwKeyTrigger.HOME_DOUBLETAP);
                         param.setResult(null);
                     }
@@ -921,6 +946,7 @@ public class ModHwKeys {
         @Override
         protected void afterHookedMethod(MethodHookParam param) throws Throwable {
             mPhoneWindowManager = param.thisObject;
+            mHandler = (Handler) XposedHelpers.getObjectField(mPhoneWindowManager, "mHandler");
             mContext = (Context) XposedHelpers.getObjectField(mPhoneWindowManager, "mContext");
             mGbContext = Utils.getGbContext(mContext);
 
@@ -1105,6 +1131,34 @@ public class ModHwKeys {
         mHwKeyActions.get(keyTrigger).customApp = customApp;
     }
 
+    private static void updateHandledKeys() {
+        if (mHwKeyActions == null) return;
+
+        final boolean[] keys = new boolean[KeyEvent.getMaxKeyCode() + 1];
+        keys[KeyEvent.KEYCODE_POWER] =
+                mLockscreenTorch == GravityBoxSettings.HWKEY_TORCH_POWER_LONGPRESS;
+        // brightness reset on long volume up press is always active
+        keys[KeyEvent.KEYCODE_VOLUME_UP] = true;
+        keys[KeyEvent.KEYCODE_VOLUME_DOWN] = !mVolumeRockerWake.equals("default");
+        // keys disabled in favor of pie need to be intercepted even without actions
+        keys[KeyEvent.KEYCODE_BACK] = hasAction(HwKey.BACK) || !mHwKeysEnabled;
+        keys[KeyEvent.KEYCODE_HOME] = hasAction(HwKey.HOME) || !mHwKeysEnabled ||
+                mLockscreenTorch == GravityBoxSettings.HWKEY_TORCH_HOME_LONGPRESS;
+        keys[KeyEvent.KEYCODE_APP_SWITCH] = hasAction(HwKey.RECENTS) || !mHwKeysEnabled;
+        keys[KeyEvent.KEYCODE_MENU] = hasAction(HwKey.MENU) || !mHwKeysEnabled;
+        keys[KeyEvent.KEYCODE_SOFT_LEFT] = hasAction(HwKey.CUSTOM);
+        mHandledKeys = keys;
+    }
+
+    private static boolean isKeyguardOn() {
+        try {
+            return (Boolean) mKeyguardOn.invoke(mPhoneWindowManager);
+        } catch (Exception e) {
+            GravityBox.log(TAG, e);
+            return false;
+        }
+    }
+
     private static boolean hasAction(HwKey key) {
         boolean retVal = false;
         if (key == HwKey.MENU) {
@@ -1191,9 +1245,7 @@ public class ModHwKeys {
 
     private static void performHapticFeedback(int effect, boolean always, String reason) {
         try {
-            XposedHelpers.callMethod(mPhoneWindowManager, "performHapticFeedback",
-                    new Class<?> [] { int.class, boolean.class, String.class },
-                    effect, always, reason);
+            METHOD_PERFORM_HAPTIC_FEEDBACK.invoke(mPhoneWindowManager, effect, always, reason);
         } catch (Throwable t) {
             GravityBox.log(TAG, "Error calling performHapticFeedback:", t);
         }
@@ -1216,7 +1268,7 @@ public class ModHwKeys {
     }
 
     private static void killForegroundApp() {
-        Handler handler = (Handler) XposedHelpers.getObjectField(mPhoneWindowManager, "mHandler");
+        Handler handler = mHandler;
         if (handler == null) return;
 
         handler.post(() -> {
@@ -1275,7 +1327,7 @@ public class ModHwKeys {
 
     @SuppressLint("MissingPermission")
     private static void switchToLastApp() {
-        Handler handler = (Handler) XposedHelpers.getObjectField(mPhoneWindowManager, "mHandler");
+        Handler handler = mHandler;
         if (handler == null) return;
 
         handler.post(() -> {
@@ -1327,7 +1379,7 @@ public class ModHwKeys {
     private static void launchCustomApp(String uri) {
         if (uri == null) {
             try {
-                Handler handler = (Handler) XposedHelpers.getObjectField(mPhoneWindowManager, "mHandler");
+                Handler handler = mHandler;
                 handler.post(() -> Toast.makeText(mContext, mStrCustomAppNone, Toast.LENGTH_SHORT).show());
             } catch (Throwable ignore) { }
             return;
@@ -1342,7 +1394,7 @@ public class ModHwKeys {
     }
 
     private static void launchCustomApp(final Intent intent) {
-        Handler handler = (Handler) XposedHelpers.getObjectField(mPhoneWindowManager, "mHandler");
+        Handler handler = mHandler;
         if (handler == null) return;
 
         handler.post(() -> {
@@ -1385,7 +1437,7 @@ public class ModHwKeys {
     }
 
     private static void injectKey(final int keyCode) {
-        Handler handler = (Handler) XposedHelpers.getObjectField(mPhoneWindowManager, "mHandler");
+        Handler handler = mHandler;
         if (handler == null) return;
 
         handler.post(() -> {
@@ -1394,11 +1446,11 @@ public class ModHwKeys {
                 final InputManager inputManager = (InputManager)
                         mContext.getSystemService(Context.INPUT_SERVICE);
                 int flags = KeyEvent.FLAG_FROM_SYSTEM;
-                XposedHelpers.callMethod(inputManager, "injectInputEvent",
+                METHOD_INJECT_INPUT_EVENT.invoke(inputManager,
                         new KeyEvent(eventTime - 50, eventTime - 50, KeyEvent.ACTION_DOWN,
                                 keyCode, 0, 0, KeyCharacterMap.VIRTUAL_KEYBOARD, 0, flags,
                                 InputDevice.SOURCE_UNKNOWN), 0);
-                XposedHelpers.callMethod(inputManager, "injectInputEvent",
+                METHOD_INJECT_INPUT_EVENT.invoke(inputManager,
                         new KeyEvent(eventTime - 50, eventTime - 25, KeyEvent.ACTION_UP,
                                 keyCode, 0, 0, KeyCharacterMap.VIRTUAL_KEYBOARD, 0, flags,
                                 InputDevice.SOURCE_UNKNOWN), 0);
@@ -1508,7 +1560,7 @@ public class ModHwKeys {
     private static final Object mScreenshotLock = new Object();
     private static ServiceConnection mScreenshotConnection = null;  
     private static void takeScreenshot(final long delayMs) {
-        final Handler handler = (Handler) XposedHelpers.getObjectField(mPhoneWindowManager, "mHandler");
+        final Handler handler = mHandler;
         if (handler == null) return;
 
         if (tryNativeScreenshot(handler, delayMs)) {
@@ -1582,7 +1634,7 @@ public class ModHwKeys {
 
     private static void showGlobalActionsDialog() {
         try {
-            Handler handler = (Handler) XposedHelpers.getObjectField(mPhoneWindowManager, "mHandler");
+            Handler handler = mHandler;
             handler.post(() -> XposedHelpers.callMethod(mPhoneWindowManager, "showGlobalActions"));
         } catch (Throwable t) {
             GravityBox.log(TAG, "Error executing PhoneWindowManager.showGlobalActionsDialog(): ", t);
@@ -1611,7 +1663,7 @@ public class ModHwKeys {
 
     private static void showVolumePanel() {
         try {
-            Handler handler = (Handler) XposedHelpers.getObjectField(mPhoneWindowManager, "mHandler");
+            Handler handler = mHandler;
             handler.post(() -> {
                 AudioManager am = (AudioManager) mContext.getSystemService(Context.AUDIO_SERVICE);
                 am.adjustVolume(AudioManager.ADJUST_SAME, AudioManager.FLAG_SHOW_UI);
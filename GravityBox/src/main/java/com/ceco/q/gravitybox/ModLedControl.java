@@ -19,8 +19,10 @@ import java.lang.reflect.Constructor;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 import com.ceco.q.gravitybox.ModStatusBar.StatusBarState;
 import com.ceco.q.gravitybox.ledcontrol.LedSettings;
@@ -92,31 +94,88 @@ public class ModLedControl {
     private static XSharedPreferences mUncPrefs;
     private static Context mContext;
     private static PowerManager mPm;
-    private static SensorManager mSm;
     private static KeyguardManager mKm;
-    private static Sensor mProxSensor;
-    private static QuietHours mQuietHours;
+    private static volatile ProximitySensor mProxSensor;
+    // main thread handler of system server
+    private static Handler mHandler;
+    private static volatile QuietHours mQuietHours;
     private static Map<String, Long> mNotifTimestamps = new HashMap<>();
     private static Object mNotifManagerService;
-    private static boolean mProximityWakeUpEnabled;
-    private static boolean mScreenOnDueToActiveScreen;
+    private static volatile boolean mProximityWakeUpEnabled;
+    private static volatile boolean mScreenOnDueToActiveScreen;
     private static AudioManager mAudioManager;
     private static Constructor<?> mNotificationLightConstructor;
     private static TelephonyManager mTelephonyManager;
 
+    private static final FastReflect.FieldAccessor FIELD_CONTEXT = FastReflect.field("mContext");
+    private static final FastReflect.FieldAccessor FIELD_DREAM_MANAGER = FastReflect.field("mDreamManager");
+    private static final FastReflect.FieldAccessor FIELD_ENTRY = FastReflect.field("mEntry");
+    private static final FastReflect.FieldAccessor FIELD_ENTRY_MANAGER = FastReflect.field("mEntryManager");
+    private static final FastReflect.FieldAccessor FIELD_HANDLER = FastReflect.field("mHandler");
+    private static final FastReflect.FieldAccessor FIELD_HEADS_UP_MANAGER = FastReflect.field("mHeadsUpManager");
+    private static final FastReflect.FieldAccessor FIELD_IMPORTANCE = FastReflect.field("mImportance");
+    private static final FastReflect.FieldAccessor FIELD_LIGHT = FastReflect.field("mLight");
+    private static final FastReflect.FieldAccessor FIELD_LIGHTS = FastReflect.field("mLights");
+    private static final FastReflect.FieldAccessor FIELD_NOTIFICATION = FastReflect.field("notification");
+    private static final FastReflect.FieldAccessor FIELD_NOTIFICATION_FILTER = FastReflect.field("mNotificationFilter");
+    private static final FastReflect.FieldAccessor FIELD_NOTIFICATION_LIST = FastReflect.field("mNotificationList");
+    private static final FastReflect.FieldAccessor FIELD_PRE_CHANNELS_NOTIFICATION = FastReflect.field("mPreChannelsNotification");
+    private static final FastReflect.FieldAccessor FIELD_REMOVE_ALERT_RUNNABLE = FastReflect.field("mRemoveAlertRunnable");
+    private static final FastReflect.FieldAccessor FIELD_SCREEN_ON = FastReflect.field("mScreenOn");
+    private static final FastReflect.FieldAccessor FIELD_SOUND = FastReflect.field("mSound");
+    private static final FastReflect.FieldAccessor FIELD_STATUS_BAR_KEYGUARD_VIEW_MANAGER = FastReflect.field("mStatusBarKeyguardViewManager");
+    private static final FastReflect.FieldAccessor FIELD_STATUS_BAR_WINDOW_STATE = FastReflect.field("mStatusBarWindowState");
+    private static final FastReflect.FieldAccessor FIELD_VIBRATION = FastReflect.field("mVibration");
+    private static final FastReflect.MethodAccessor METHOD_GET_KEY = FastReflect.method("getKey");
+    private static final FastReflect.MethodAccessor METHOD_GET_NOTIFICATION = FastReflect.method("getNotification");
+    private static final FastReflect.MethodAccessor METHOD_GET_NOTIFICATION_DATA = FastReflect.method("getNotificationData");
+    private static final FastReflect.MethodAccessor METHOD_HAS_JUST_LAUNCHED_FULL_SCREEN_INTENT = FastReflect.method("hasJustLaunchedFullScreenIntent");
+    private static final FastReflect.MethodAccessor METHOD_INDEX_OF_NOTIFICATION_LOCKED = FastReflect.method("indexOfNotificationLocked");
+    private static final FastReflect.MethodAccessor METHOD_IS_DEVICE_IN_VR_MODE = FastReflect.method("isDeviceInVrMode");
+    private static final FastReflect.MethodAccessor METHOD_IS_DREAMING = FastReflect.method("isDreaming");
+    private static final FastReflect.MethodAccessor METHOD_IS_OCCLUDED = FastReflect.method("isOccluded");
+    private static final FastReflect.MethodAccessor METHOD_IS_SHOWING = FastReflect.method("isShowing");
+    private static final FastReflect.MethodAccessor METHOD_IS_SNOOZED = FastReflect.method("isSnoozed");
+    private static final FastReflect.MethodAccessor METHOD_IS_STICKY = FastReflect.method("isSticky");
+    private static final FastReflect.MethodAccessor METHOD_REMOVE_AUTO_REMOVAL_CALLBACKS = FastReflect.method("removeAutoRemovalCallbacks");
+    private static final FastReflect.MethodAccessor METHOD_SHOULD_FILTER_OUT = FastReflect.method("shouldFilterOut");
+
     // UNC settings
-    private static boolean mUncLocked;
-    private static boolean mUncActiveScreenEnabled;
-    private static boolean mUncActiveScreenPocketModeEnabled;
-    private static boolean mUncActiveScreenIgnoreQh;
-    private static Map<String,LedSettings> mUncAppPrefs = new HashMap<>();
+    private static volatile boolean mUncLocked;
+    private static volatile boolean mUncActiveScreenEnabled;
+    private static volatile boolean mUncActiveScreenPocketModeEnabled;
+    private static volatile boolean mUncActiveScreenIgnoreQh;
+    private static Map<String,LedSettings> mUncAppPrefs = new ConcurrentHashMap<>();
+    private static final int LED_SETTINGS_CACHE_SIZE = 64;
+    private static final long UNC_PREFS_CHECK_INTERVAL = 5000;
+    private static long mUncPrefsCheckTime;
+    // parsed in-prefs settings per package including packages having no settings
+    private static final Map<String,LedSettings> mLedSettingsCache =
+            new LinkedHashMap<String,LedSettings>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String,LedSettings> eldest) {
+            return size() > LED_SETTINGS_CACHE_SIZE;
+        }
+    };
+
+    // sensor manager and proximity sensor published together as they are replaced on main thread
+    private static final class ProximitySensor {
+        final SensorManager sm;
+        final Sensor sensor;
+        ProximitySensor(SensorManager sm, Sensor sensor) {
+            this.sm = sm;
+            this.sensor = sensor;
+        }
+    }
 
     private static SensorEventListener mProxSensorEventListener = new SensorEventListener() {
         @Override
         public void onSensorChanged(SensorEvent event) {
+            final ProximitySensor proxSensor = mProxSensor;
+            if (proxSensor == null) return;
             try {
                 final boolean screenCovered = 
-                        event.values[0] != mProxSensor.getMaximumRange(); 
+                        event.values[0] != proxSensor.sensor.getMaximumRange(); 
                 if (DEBUG) log("mProxSensorEventListener: " + event.values[0] +
                         "; screenCovered=" + screenCovered);
                 if (!screenCovered) {
@@ -126,7 +185,7 @@ public class ModLedControl {
                 GravityBox.log(TAG, t);
             } finally {
                 try { 
-                    mSm.unregisterListener(this, mProxSensor); 
+                    proxSensor.sm.unregisterListener(this, proxSensor.sensor); 
                 } catch (Throwable t) {
                     // should never happen
                 }
@@ -139,6 +198,7 @@ public class ModLedControl {
     private static BroadcastMediator.Receiver mBroadcastReceiver = (context, intent) -> {
         final String action = intent.getAction();
         if (action.equals(LedSettings.ACTION_UNC_SETTINGS_CHANGED)) {
+            invalidateLedSettingsCache(intent.getStringExtra(LedSettings.EXTRA_UNC_PACKAGE_NAME));
             if (intent.hasExtra(LedSettings.PREF_KEY_LOCKED)) {
                 mUncLocked = intent.getBooleanExtra(LedSettings.PREF_KEY_LOCKED, false);
                 if (DEBUG) log("mUncLocked=" + mUncLocked);
@@ -147,7 +207,7 @@ public class ModLedControl {
                 mUncActiveScreenEnabled = intent.getBooleanExtra(
                         LedSettings.PREF_KEY_ACTIVE_SCREEN_ENABLED, false);
                 if (DEBUG) log("mUncActiveScreenEnabled=" + mUncActiveScreenEnabled);
-                updateActiveScreenFeature();
+                mHandler.post(ModLedControl::updateActiveScreenFeature);
             }
             if (intent.hasExtra(LedSettings.PREF_KEY_ACTIVE_SCREEN_POCKET_MODE)) {
                 mUncActiveScreenPocketModeEnabled = intent.getBooleanExtra(
@@ -174,13 +234,13 @@ public class ModLedControl {
         } else if (action.equals(Intent.ACTION_SCREEN_OFF)) {
             mScreenOnDueToActiveScreen = false;
         } else if (action.equals(ACTION_CLEAR_NOTIFICATIONS)) {
-            clearNotifications();
+            mHandler.post(ModLedControl::clearNotifications);
         } else if (action.equals(GravityBoxSettings.ACTION_PREF_POWER_CHANGED) &&
                 intent.hasExtra(GravityBoxSettings.EXTRA_POWER_PROXIMITY_WAKE)) {
             mProximityWakeUpEnabled = intent.getBooleanExtra(
                     GravityBoxSettings.EXTRA_POWER_PROXIMITY_WAKE, false);
         } else if (action.equals(Intent.ACTION_LOCKED_BOOT_COMPLETED)) {
-            updateActiveScreenFeature();
+            mHandler.post(ModLedControl::updateActiveScreenFeature);
         }
     };
 
@@ -208,8 +268,10 @@ public class ModLedControl {
                     if (mNotifManagerService == null) {
                         mNotifManagerService = param.thisObject;
                         mContext = (Context) XposedHelpers.callMethod(param.thisObject, "getContext");
+                        mHandler = new Handler(mContext.getMainLooper());
 
                         FrameworkManagers.BroadcastMediator.subscribe(mBroadcastReceiver,
+                                BroadcastMediator.Lane.BACKGROUND,
                                 LedSettings.ACTION_UNC_SETTINGS_CHANGED,
                                 Intent.ACTION_USER_PRESENT,
                                 QuietHoursActivity.ACTION_QUIET_HOURS_CHANGED,
@@ -263,12 +325,43 @@ public class ModLedControl {
     }
 
     private static LedSettings resolveLedSettings(String pkgName) {
-        if (mUncAppPrefs.containsKey(pkgName)) {
+        LedSettings ls = mUncAppPrefs.get(pkgName);
+        if (ls != null) {
             if (DEBUG) log("resolveLedSettings: getting in-memory settings for " + pkgName);
-            return mUncAppPrefs.get(pkgName);
-        } else {
-            if (DEBUG) log("resolveLedSettings: getting in-prefs settings for " + pkgName);
-            return LedSettings.deserialize(mUncPrefs.getStringSet(pkgName, null));
+            return ls;
+        }
+        synchronized (mLedSettingsCache) {
+            reloadUncPrefsIfChanged();
+            ls = mLedSettingsCache.get(pkgName);
+            if (ls == null) {
+                if (DEBUG) log("resolveLedSettings: getting in-prefs settings for " + pkgName);
+                ls = LedSettings.deserialize(mUncPrefs.getStringSet(pkgName, null));
+                mLedSettingsCache.put(pkgName, ls);
+            } else if (DEBUG) {
+                log("resolveLedSettings: getting cached settings for " + pkgName);
+            }
+            return ls;
+        }
+    }
+
+    private static void reloadUncPrefsIfChanged() {
+        final long now = SystemClock.uptimeMillis();
+        if (now - mUncPrefsCheckTime < UNC_PREFS_CHECK_INTERVAL) return;
+        mUncPrefsCheckTime = now;
+        if (mUncPrefs.hasFileChanged()) {
+            if (DEBUG) log("UNC prefs file changed; reloading");
+            mUncPrefs.reload();
+            mLedSettingsCache.clear();
+        }
+    }
+
+    private static void invalidateLedSettingsCache(String pkgName) {
+        synchronized (mLedSettingsCache) {
+            if (pkgName != null) {
+                mLedSettingsCache.remove(pkgName);
+            } else {
+                mLedSettingsCache.clear();
+            }
         }
     }
 
@@ -289,6 +382,7 @@ public class ModLedControl {
                 Notification oldN = getNotificationFromRecord(oldRecord);
                 final String pkgName = sbn.getPackageName();
                 final boolean userPresent = isUserPresent();
+                final QuietHours quietHours = mQuietHours;
 
                 LedSettings ls;
                 if (n.extras.containsKey("gbUncPreviewNotification")) {
@@ -300,18 +394,18 @@ public class ModLedControl {
                     if (!ls.getEnabled()) {
                         // use default settings in case they are active
                         ls = resolveLedSettings("default");
-                        if (!ls.getEnabled() && !mQuietHours.quietHoursActive(ls, n, userPresent)) {
+                        if (!ls.getEnabled() && !quietHours.quietHoursActive(ls, n, userPresent)) {
                             return;
                         }
                     }
                     if (DEBUG) log(pkgName + ": " + ls.toString());
                 }
 
-                final boolean qhActive = mQuietHours.quietHoursActive(ls, n, userPresent);
-                final boolean qhActiveIncludingLed = qhActive && mQuietHours.shouldMuteLed();
+                final boolean qhActive = quietHours.quietHoursActive(ls, n, userPresent);
+                final boolean qhActiveIncludingLed = qhActive && quietHours.shouldMuteLed();
                 final boolean qhActiveIncludingVibe = qhActive && (
-                        (mQuietHours.mode != QuietHours.Mode.WEAR && mQuietHours.shouldMuteVibe()) ||
-                        (mQuietHours.mode == QuietHours.Mode.WEAR && userPresent));
+                        (quietHours.mode != QuietHours.Mode.WEAR && quietHours.shouldMuteVibe()) ||
+                        (quietHours.mode == QuietHours.Mode.WEAR && userPresent));
                 final boolean qhActiveIncludingActiveScreen = qhActive && !mUncActiveScreenIgnoreQh;
                 if (DEBUG) log("qhActive=" + qhActive + "; qhActiveIncludingLed=" + qhActiveIncludingLed +
                         "; qhActiveIncludingVibe=" + qhActiveIncludingVibe + 
@@ -343,23 +437,23 @@ public class ModLedControl {
                             (ls.getLedMode() == LedMode.OFF ||
                              currentZenModeDisallowsLed(ls.getLedDnd()) ||
                              shouldIgnoreUpdatedNotificationLight(oldRecord, ls.getLedIgnoreUpdate())))) {
-                    XposedHelpers.setObjectField(param.thisObject, "mLight", null);
+                    FIELD_LIGHT.set(param.thisObject, null);
                     if (DEBUG) log("Removing light");
                 } else if (ls.getEnabled() && ls.getLedMode() == LedMode.OVERRIDE &&
                         !(isOngoing && !ls.getOngoing())) {
-                    XposedHelpers.setObjectField(param.thisObject, "mLight",
+                    FIELD_LIGHT.set(param.thisObject,
                             createNotificationLight(ls.getColor(), ls.getLedOffMs(), ls.getLedOffMs()));
                     if (DEBUG) log("Overriding light");
                 }
 
                 // vibration
                 if (qhActiveIncludingVibe) {
-                    XposedHelpers.setObjectField(param.thisObject, "mVibration", null);
+                    FIELD_VIBRATION.set(param.thisObject, null);
                     if (DEBUG) log("Removing vibration");
                 } else if (ls.getEnabled() && !(isOngoing && !ls.getOngoing())) {
                     if (ls.getVibrateOverride() && ls.getVibratePattern() != null &&
                             (hasOriginalVibration(param.thisObject, channel, n) || !ls.getVibrateReplace())) {
-                        XposedHelpers.setObjectField(param.thisObject, "mVibration", ls.getVibratePattern());
+                        FIELD_VIBRATION.set(param.thisObject, ls.getVibratePattern());
                         if (DEBUG) log("Overriding vibration");
                     }
                 }
@@ -367,13 +461,13 @@ public class ModLedControl {
                 // sound
                 if (qhActive || (ls.getEnabled() && 
                         ls.getSoundToVibrateDisabled() && isRingerModeVibrate())) {
-                    XposedHelpers.setObjectField(param.thisObject, "mSound", null);
+                    FIELD_SOUND.set(param.thisObject, null);
                     n.flags &= ~Notification.FLAG_INSISTENT;
                     if (DEBUG) log("Removing sound");
                 } else {
                     if (ls.getSoundOverride() &&
                         (hasOriginalSound(param.thisObject, channel, n) || !ls.getSoundReplace())) {
-                        XposedHelpers.setObjectField(param.thisObject, "mSound", ls.getSoundUri());
+                        FIELD_SOUND.set(param.thisObject, ls.getSoundUri());
                         if (DEBUG) log("Overriding sound");
                     }
                     if (ls.getSoundOnlyOnce()) {
@@ -381,8 +475,8 @@ public class ModLedControl {
                             if (mNotifTimestamps.containsKey(pkgName)) {
                                 long delta = System.currentTimeMillis() - mNotifTimestamps.get(pkgName);
                                 if (delta > 500 &&  delta < ls.getSoundOnlyOnceTimeout()) {
-                                    XposedHelpers.setObjectField(param.thisObject, "mVibration", null);
-                                    XposedHelpers.setObjectField(param.thisObject, "mSound", null);
+                                    FIELD_VIBRATION.set(param.thisObject, null);
+                                    FIELD_SOUND.set(param.thisObject, null);
                                     n.flags &= ~Notification.FLAG_ONLY_ALERT_ONCE;
                                     if (DEBUG) log("Within sound only once interval - muting");
                                 } else {
@@ -495,7 +589,7 @@ public class ModLedControl {
     @SuppressWarnings("deprecation")
     private static boolean hasOriginalVibration(Object record, NotificationChannel channel, Notification n) {
         try {
-            final boolean legacy = XposedHelpers.getBooleanField(record, "mPreChannelsNotification");
+            final boolean legacy = FIELD_PRE_CHANNELS_NOTIFICATION.getBoolean(record);
             final boolean hasVibration;
             if (legacy) {
                 hasVibration = ((n.defaults & Notification.DEFAULT_VIBRATE) != 0 ||
@@ -514,7 +608,7 @@ public class ModLedControl {
     @SuppressWarnings("deprecation")
     private static boolean hasOriginalSound(Object record, NotificationChannel channel, Notification n) {
         try {
-            final boolean legacy = XposedHelpers.getBooleanField(record, "mPreChannelsNotification");
+            final boolean legacy = FIELD_PRE_CHANNELS_NOTIFICATION.getBoolean(record);
             final boolean hasSound;
             if (legacy) {
                 hasSound = ((n.defaults & Notification.DEFAULT_SOUND) != 0 ||
@@ -532,7 +626,7 @@ public class ModLedControl {
 
     private static int getNotificationImportance(Object record) {
         try {
-            return XposedHelpers.getIntField(record, "mImportance");
+            return FIELD_IMPORTANCE.getInt(record);
         } catch (Throwable t) {
             GravityBox.log(TAG, "Error in getNotificationImportance() method", t);
             return NotificationManager.IMPORTANCE_DEFAULT;
@@ -543,11 +637,9 @@ public class ModLedControl {
     private static Object getOldNotificationRecord(String key) {
         Object oldNotifRecord = null;
         try {
-            ArrayList<?> notifList = (ArrayList<?>) XposedHelpers.getObjectField(
-                    mNotifManagerService, "mNotificationList");
+            ArrayList<?> notifList = (ArrayList<?>) FIELD_NOTIFICATION_LIST.get(mNotifManagerService);
             synchronized (notifList) {
-                int index = (Integer) XposedHelpers.callMethod(
-                        mNotifManagerService, "indexOfNotificationLocked", key);
+                int index = (Integer) METHOD_INDEX_OF_NOTIFICATION_LOCKED.invoke(mNotifManagerService, key);
                 if (index >= 0) {
                     oldNotifRecord = notifList.get(index);
                 }
@@ -563,7 +655,7 @@ public class ModLedControl {
         Notification notif = null;
         if (record != null) {
             try {
-                notif = (Notification) XposedHelpers.callMethod(record, "getNotification");
+                notif = (Notification) METHOD_GET_NOTIFICATION.invoke(record);
             } catch (Throwable t) {
                 GravityBox.log(TAG, "Error in getNotificationFromRecord: ", t);
             }
@@ -575,9 +667,8 @@ public class ModLedControl {
         boolean hasLight = false;
         if (record != null) {
             try {
-                String key = (String) XposedHelpers.callMethod(record, "getKey");
-                List<?> lights = (List<?>) XposedHelpers.getObjectField(
-                        mNotifManagerService, "mLights");
+                String key = (String) METHOD_GET_KEY.invoke(record);
+                List<?> lights = (List<?>) FIELD_LIGHTS.get(mNotifManagerService);
                 hasLight = lights.contains(key);
             } catch (Throwable t) {
                 GravityBox.log(TAG, "Error in notificationRecordHasLight: ", t);
@@ -597,7 +688,7 @@ public class ModLedControl {
         @Override
         protected void afterHookedMethod(final MethodHookParam param) {
             try {
-                Notification n = (Notification) XposedHelpers.callMethod(param.args[0], "getNotification");
+                Notification n = (Notification) METHOD_GET_NOTIFICATION.invoke(param.args[0]);
                 if (!mUncActiveScreenEnabled ||
                         !n.extras.containsKey(NOTIF_EXTRA_ACTIVE_SCREEN) ||
                         !n.extras.containsKey(NOTIF_EXTRA_ACTIVE_SCREEN_MODE) ||
@@ -615,9 +706,10 @@ public class ModLedControl {
 
                 if (DEBUG) log("Performing Active Screen with mode " + asMode.toString());
 
-                if (mSm != null && mProxSensor != null &&
-                        n.extras.getBoolean(NOTIF_EXTRA_ACTIVE_SCREEN_POCKET_MODE)) {
-                    mSm.registerListener(mProxSensorEventListener, mProxSensor, SensorManager.SENSOR_DELAY_FASTEST);
+                final ProximitySensor proxSensor = mProxSensor;
+                if (proxSensor != null && n.extras.getBoolean(NOTIF_EXTRA_ACTIVE_SCREEN_POCKET_MODE)) {
+                    proxSensor.sm.registerListener(mProxSensorEventListener, proxSensor.sensor,
+                            SensorManager.SENSOR_DELAY_FASTEST);
                     if (DEBUG) log("Performing active screen using proximity sensor");
                 } else {
                     performActiveScreen();
@@ -633,7 +725,7 @@ public class ModLedControl {
         protected void beforeHookedMethod(final MethodHookParam param) {
             if (mScreenOnDueToActiveScreen) {
                 try {
-                    XposedHelpers.setBooleanField(param.thisObject, "mScreenOn", false);
+                    FIELD_SCREEN_ON.setBoolean(param.thisObject, false);
                     if (DEBUG) log("updateLightsLocked: Screen on due to active screen - pretending it's off");
                 } catch (Throwable t) {
                     GravityBox.log(TAG, t);
@@ -645,8 +737,9 @@ public class ModLedControl {
     private static XC_MethodHook startVibrationHook = new XC_MethodHook() {
         @Override
         protected void beforeHookedMethod(final MethodHookParam param) {
-            if (mQuietHours.quietHoursActive() && (mQuietHours.shouldMuteSystemVibe() ||
-                    mQuietHours.mode == QuietHours.Mode.WEAR)) {
+            final QuietHours quietHours = mQuietHours;
+            if (quietHours.quietHoursActive() && (quietHours.shouldMuteSystemVibe() ||
+                    quietHours.mode == QuietHours.Mode.WEAR)) {
                 if (DEBUG) log("startVibrationLocked: system level vibration suppressed");
                 param.setResult(null);
             }
@@ -700,12 +793,14 @@ public class ModLedControl {
     private static void updateActiveScreenFeature() {
         try {
             final boolean enable = !mUncLocked && mUncActiveScreenEnabled;  
-            if (enable && mSm == null) {
-                mSm = (SensorManager) mContext.getSystemService(Context.SENSOR_SERVICE);
-                mProxSensor = mSm.getDefaultSensor(Sensor.TYPE_PROXIMITY);
+            if (enable && mProxSensor == null) {
+                SensorManager sm = (SensorManager) mContext.getSystemService(Context.SENSOR_SERVICE);
+                Sensor sensor = sm.getDefaultSensor(Sensor.TYPE_PROXIMITY);
+                if (sensor != null) {
+                    mProxSensor = new ProximitySensor(sm, sensor);
+                }
             } else if (!enable) {
                 mProxSensor = null;
-                mSm = null;
             }
             if (DEBUG) log("Active screen feature: " + enable);
         } catch (Throwable t) {
@@ -728,10 +823,13 @@ public class ModLedControl {
     private static void clearNotifications() {
         try {
             if (mNotifManagerService != null) {
-                XposedHelpers.callMethod(mNotifManagerService, "cancelAllLocked",
-                        android.os.Process.myUid(), android.os.Process.myPid(),
-                        XposedHelpers.callStaticMethod(ActivityManager.class, "getCurrentUser"),
-                        3, null, true);
+                final Object lock = XposedHelpers.getObjectField(mNotifManagerService, "mNotificationLock");
+                synchronized (lock) {
+                    XposedHelpers.callMethod(mNotifManagerService, "cancelAllLocked",
+                            android.os.Process.myUid(), android.os.Process.myPid(),
+                            XposedHelpers.callStaticMethod(ActivityManager.class, "getCurrentUser"),
+                            3, null, true);
+                }
             }
         } catch (Throwable t) {
             GravityBox.log(TAG, t);
@@ -757,7 +855,7 @@ public class ModLedControl {
                 @Override
                 protected void beforeHookedMethod(MethodHookParam param) {
                     StatusBarNotification sbn = (StatusBarNotification)
-                            XposedHelpers.getObjectField(param.args[0], "notification");
+                            FIELD_NOTIFICATION.get(param.args[0]);
                     Notification n = sbn.getNotification();
 
                     // whether to hide persistent everywhere
@@ -811,11 +909,10 @@ public class ModLedControl {
                     "canHeadsUpCommon", CLASS_NOTIF_DATA_ENTRY, new XC_MethodHook() {
                 @Override
                 protected void afterHookedMethod(MethodHookParam param) {
-                    StatusBarNotification sbn = (StatusBarNotification) XposedHelpers
-                            .getObjectField(param.args[0], "notification");
-                    Context context = (Context) XposedHelpers.getObjectField(param.thisObject, "mContext");
+                    StatusBarNotification sbn = (StatusBarNotification) FIELD_NOTIFICATION.get(param.args[0]);
+                    Context context = (Context) FIELD_CONTEXT.get(param.thisObject);
                     Notification n = sbn.getNotification();
-                    int statusBarWindowState = XposedHelpers.getIntField(mStatusBar, "mStatusBarWindowState");
+                    int statusBarWindowState = FIELD_STATUS_BAR_WINDOW_STATE.getInt(mStatusBar);
 
                     boolean showHeadsUp = false;
 
@@ -858,22 +955,21 @@ public class ModLedControl {
                 protected void afterHookedMethod(MethodHookParam param) {
                     try {
                         Object huMgr = XposedHelpers.getSurroundingThis(param.thisObject);
-                        Object entry = XposedHelpers.getObjectField(param.thisObject, "mEntry");
-                        boolean isSticky = (boolean) XposedHelpers.callMethod(param.thisObject, "isSticky");
+                        Object entry = FIELD_ENTRY.get(param.thisObject);
+                        boolean isSticky = (boolean) METHOD_IS_STICKY.invoke(param.thisObject);
                         if (entry == null || isSticky)
                             return;
 
-                        XposedHelpers.callMethod(param.thisObject, "removeAutoRemovalCallbacks");
+                        METHOD_REMOVE_AUTO_REMOVAL_CALLBACKS.invoke(param.thisObject);
                         StatusBarNotification sbNotif = (StatusBarNotification)
-                                XposedHelpers.getObjectField(entry, "notification");
+                                FIELD_NOTIFICATION.get(entry);
                         Notification n = sbNotif.getNotification();
                         int timeout = n.extras.containsKey(NOTIF_EXTRA_HEADS_UP_TIMEOUT) ?
                                 n.extras.getInt(NOTIF_EXTRA_HEADS_UP_TIMEOUT) * 1000 :
                                 mSysUiPrefs.getInt(GravityBoxSettings.PREF_KEY_HEADS_UP_TIMEOUT, 5) * 1000;
                         if (timeout > 0) {
-                            Handler H = (Handler) XposedHelpers.getObjectField(huMgr, "mHandler");
-                            H.postDelayed((Runnable)XposedHelpers.getObjectField(
-                                    param.thisObject, "mRemoveAlertRunnable"), timeout);
+                            Handler H = (Handler) FIELD_HANDLER.get(huMgr);
+                            H.postDelayed((Runnable)FIELD_REMOVE_ALERT_RUNNABLE.get(param.thisObject), timeout);
                         }
                     } catch (Throwable t) {
                         GravityBox.log(TAG, t);
@@ -890,16 +986,16 @@ public class ModLedControl {
             return true;
         } else {
             boolean isShowingAndNotOccluded;
-            Object kgViewManager = XposedHelpers.getObjectField(mStatusBar, "mStatusBarKeyguardViewManager");
-            isShowingAndNotOccluded = ((boolean)XposedHelpers.callMethod(kgViewManager, "isShowing") &&
-                    !(boolean)XposedHelpers.callMethod(kgViewManager, "isOccluded"));
+            Object kgViewManager = FIELD_STATUS_BAR_KEYGUARD_VIEW_MANAGER.get(mStatusBar);
+            isShowingAndNotOccluded = ((boolean)METHOD_IS_SHOWING.invoke(kgViewManager) &&
+                    !(boolean)METHOD_IS_OCCLUDED.invoke(kgViewManager));
             return !isShowingAndNotOccluded;
         }
     }
 
     private static boolean isDeviceInVrMode() {
         try {
-            return (boolean) XposedHelpers.callMethod(mStatusBar, "isDeviceInVrMode");
+            return (boolean) METHOD_IS_DEVICE_IN_VR_MODE.invoke(mStatusBar);
         } catch (Throwable t) {
             GravityBox.log(TAG, "Error in isDeviceInVrMode()", t);
             return false;
@@ -908,10 +1004,10 @@ public class ModLedControl {
 
     private static boolean isFilteredNotification(Object entry) {
         try {
-            Object entryManager = XposedHelpers.getObjectField(mStatusBar, "mEntryManager");
-            Object notifData = XposedHelpers.callMethod(entryManager, "getNotificationData");
-            Object filter = XposedHelpers.getObjectField(notifData, "mNotificationFilter");
-            return (boolean) XposedHelpers.callMethod(filter, "shouldFilterOut", entry);
+            Object entryManager = FIELD_ENTRY_MANAGER.get(mStatusBar);
+            Object notifData = METHOD_GET_NOTIFICATION_DATA.invoke(entryManager);
+            Object filter = FIELD_NOTIFICATION_FILTER.get(notifData);
+            return (boolean) METHOD_SHOULD_FILTER_OUT.invoke(filter, entry);
         } catch (Throwable t) {
             GravityBox.log(TAG, "Error in isFilteredNotification()", t);
             return false;
@@ -923,15 +1019,15 @@ public class ModLedControl {
         PowerManager pm = (PowerManager) ctx.getSystemService(Context.POWER_SERVICE);
         boolean inUse = pm.isScreenOn();
         try {
-            Object dm = XposedHelpers.getObjectField(mStatusBar, "mDreamManager");
-            inUse &= !(boolean)XposedHelpers.callMethod(dm, "isDreaming");
+            Object dm = FIELD_DREAM_MANAGER.get(mStatusBar);
+            inUse &= !(boolean)METHOD_IS_DREAMING.invoke(dm);
         } catch (Throwable t) { /* ignore */ }
         return inUse;
     }
 
     private static boolean hasJustLaunchedFullScreenIntent(Object entry) {
         try {
-            return (boolean) XposedHelpers.callMethod(entry, "hasJustLaunchedFullScreenIntent");
+            return (boolean) METHOD_HAS_JUST_LAUNCHED_FULL_SCREEN_INTENT.invoke(entry);
         } catch (Throwable t) {
             GravityBox.log(TAG, "Error in hasJustLaunchedFullScreenIntent()", t);
             return false;
@@ -940,8 +1036,8 @@ public class ModLedControl {
 
     private static boolean isSnoozedPackage(StatusBarNotification sbn) {
         try {
-            Object huManager = XposedHelpers.getObjectField(mStatusBar, "mHeadsUpManager");
-            return (boolean) XposedHelpers.callMethod(huManager, "isSnoozed", sbn.getPackageName());
+            Object huManager = FIELD_HEADS_UP_MANAGER.get(mStatusBar);
+            return (boolean) METHOD_IS_SNOOZED.invoke(huManager, sbn.getPackageName());
         } catch (Throwable t) {
             GravityBox.log(TAG, "Error in isSnoozed()", t);
             return false;
@@ -14,6 +14,7 @@
  */
 package com.ceco.q.gravitybox;
 
+import java.io.File;
 import java.util.HashSet;
 import java.util.Set;
 
@@ -29,9 +30,7 @@ import android.content.Context;
 import android.content.Intent;
 import android.content.res.Resources;
 import android.graphics.Bitmap;
-import android.graphics.BitmapFactory;
 import android.graphics.Color;
-import android.graphics.drawable.ColorDrawable;
 import android.graphics.drawable.Drawable;
 import android.os.AsyncTask;
 import android.os.Handler;
@@ -85,6 +84,7 @@ public class ModLockscreen {
     private static Context mContext;
     private static Context mGbContext;
     private static Bitmap mCustomBg;
+    private static LockscreenBackgroundLoader mBgLoader;
     private static QuietHours mQuietHours;
     private static DirectUnlock mDirectUnlock = DirectUnlock.OFF;
     private static UnlockPolicy mDirectUnlockPolicy = UnlockPolicy.DEFAULT;
@@ -103,6 +103,21 @@ public class ModLockscreen {
     private static boolean mRightActionHidden;
     private static boolean mKgBottomAreaLayoutChanging;
 
+    private static final FastReflect.FieldAccessor FIELD_BACKDROP = FastReflect.field("mBackdrop");
+    private static final FastReflect.FieldAccessor FIELD_BACKDROP_BACK = FastReflect.field("mBackdropBack");
+    private static final FastReflect.FieldAccessor FIELD_DOZING = FastReflect.field("mDozing");
+    private static final FastReflect.FieldAccessor FIELD_ENTRY = FastReflect.field("mEntry");
+    private static final FastReflect.FieldAccessor FIELD_LEFT_AFFORDANCE_VIEW = FastReflect.field("mLeftAffordanceView");
+    private static final FastReflect.FieldAccessor FIELD_LOCK_PATTERN_UTILS = FastReflect.field("mLockPatternUtils");
+    private static final FastReflect.FieldAccessor FIELD_RIGHT_AFFORDANCE_VIEW = FastReflect.field("mRightAffordanceView");
+    private static final FastReflect.FieldAccessor FIELD_STATE = FastReflect.field("mState");
+    private static final FastReflect.FieldAccessor FIELD_STATUS_BAR = FastReflect.field("mStatusBar");
+    private static final FastReflect.FieldAccessor FIELD_STATUS_BAR_STATE_CONTROLLER = FastReflect.field("mStatusBarStateController");
+    private static final FastReflect.FieldAccessor FIELD_TEXT = FastReflect.field("mText");
+    private static final FastReflect.MethodAccessor METHOD_CHECK_PASSWORD = FastReflect.method("checkPassword");
+    private static final FastReflect.MethodAccessor METHOD_GET_STATE = FastReflect.method("getState");
+    private static final FastReflect.MethodAccessor METHOD_IS_CLEARABLE = FastReflect.method("isClearable");
+
     private static void log(String message) {
         XposedBridge.log(TAG + ": " + message);
     }
@@ -116,7 +131,8 @@ public class ModLockscreen {
             prepareBottomActions();
             if (DEBUG) log("Settings reloaded");
         } else if (action.equals(KeyguardImageService.ACTION_KEYGUARD_IMAGE_UPDATED)) {
-            if (DEBUG_KIS) log("ACTION_KEYGUARD_IMAGE_UPDATED received");
+            if (DEBUG_KIS) log("ACTION_KEYGUARD_IMAGE_UPDATED received; latency=" +
+                    intent.getLongExtra(KeyguardImageService.EXTRA_LATENCY, -1) + "ms");
             setLastScreenBackground(true);
         } else if (action.equals(QuietHoursActivity.ACTION_QUIET_HOURS_CHANGED)) {
             mQuietHours = new QuietHours(intent.getExtras());
@@ -170,6 +186,7 @@ public class ModLockscreen {
                 protected void afterHookedMethod(final MethodHookParam param) throws Throwable {
                     mContext = (Context) XposedHelpers.getObjectField(param.thisObject, "mContext");
                     mGbContext = Utils.getGbContext(mContext);
+                    mBgLoader = new LockscreenBackgroundLoader(mContext);
                     if (SysUiManagers.KeyguardMonitor == null) {
                         SysUiManagers.createKeyguardMonitor(mContext, mPrefs);
                     }
@@ -222,9 +239,8 @@ public class ModLockscreen {
                 }
                 @Override
                 protected void afterHookedMethod(final MethodHookParam param) {
-                    View backDrop = (View) XposedHelpers.getObjectField(param.thisObject, "mBackdrop");
-                    ImageView backDropBack = (ImageView) XposedHelpers.getObjectField(
-                            param.thisObject, "mBackdropBack");
+                    View backDrop = (View) FIELD_BACKDROP.get(param.thisObject);
+                    ImageView backDropBack = (ImageView) FIELD_BACKDROP_BACK.get(param.thisObject);
                     if (backDrop == null || backDropBack == null) {
                         if (DEBUG) log("updateMediaMetaData: called too early");
                         return;
@@ -234,8 +250,8 @@ public class ModLockscreen {
                     if (DEBUG) log("finishUpdateMediaMetaData: hasMediaArtwork=" + hasMediaArtwork);
 
                     // custom background
-                    Object stateCtrl = XposedHelpers.getObjectField(param.thisObject, "mStatusBarStateController");
-                    int state = (int) XposedHelpers.callMethod(stateCtrl, "getState");
+                    Object stateCtrl = FIELD_STATUS_BAR_STATE_CONTROLLER.get(param.thisObject);
+                    int state = (int) METHOD_GET_STATE.invoke(stateCtrl);
                     if (!hasMediaArtwork && mCustomBg != null && state != StatusBarState.SHADE &&
                             mKgMonitor.isInteractive()) {
                         backDrop.animate().cancel();
@@ -358,7 +374,7 @@ public class ModLockscreen {
                     Object pinView = XposedHelpers.getAdditionalInstanceField(param.thisObject, "gbPINView");
                     if (pinView != null) {
                         if (DEBUG) log("quickUnlock: PasswordText belongs to PIN view");
-                        String entry = (String) XposedHelpers.getObjectField(param.thisObject, "mText");
+                        String entry = (String) FIELD_TEXT.get(param.thisObject);
                         doQuickUnlock(pinView, entry);
                     }
                 }
@@ -489,9 +505,8 @@ public class ModLockscreen {
                 protected void beforeHookedMethod(final MethodHookParam param) {
                     if (mPrefs.getBoolean(GravityBoxSettings.PREF_KEY_LOCKSCREEN_D2TS, false) &&
                             mGestureDetector != null &&
-                            (int) XposedHelpers.getIntField(
-                                XposedHelpers.getObjectField(param.thisObject, "mStatusBar"),
-                                "mState") == StatusBarState.KEYGUARD) {
+                            FIELD_STATE.getInt(FIELD_STATUS_BAR.get(param.thisObject)) ==
+                                StatusBarState.KEYGUARD) {
                         mGestureDetector.onTouchEvent((MotionEvent) param.args[0]);
                     }
                 }
@@ -529,12 +544,12 @@ public class ModLockscreen {
                     ((View)param.thisObject).getViewTreeObserver().addOnGlobalLayoutListener(() -> {
                         if (mKgBottomAreaLayoutChanging) return;
                         mKgBottomAreaLayoutChanging = true;
-                        final ImageView camView = (ImageView) XposedHelpers.getObjectField(param.thisObject, "mRightAffordanceView");
+                        final ImageView camView = (ImageView) FIELD_RIGHT_AFFORDANCE_VIEW.get(param.thisObject);
                         if (camView != null) {
                             if (mRightActionHidden) {
                                 camView.setVisibility(View.GONE);
                             } else if (mRightAction != null) {
-                                camView.setVisibility(!XposedHelpers.getBooleanField(param.thisObject, "mDozing") ?
+                                camView.setVisibility(!FIELD_DOZING.getBoolean(param.thisObject) ?
                                         View.VISIBLE : View.GONE);
                                 if (mRightActionDrawableOrig == null) {
                                     mRightActionDrawableOrig = camView.getDrawable();
@@ -546,12 +561,12 @@ public class ModLockscreen {
                                 mRightActionDrawableOrig = null;
                             }
                         }
-                        final ImageView phoneView = (ImageView) XposedHelpers.getObjectField(param.thisObject, "mLeftAffordanceView");
+                        final ImageView phoneView = (ImageView) FIELD_LEFT_AFFORDANCE_VIEW.get(param.thisObject);
                         if (phoneView != null) {
                             if (mLeftActionHidden) {
                                 phoneView.setVisibility(View.GONE);
                             } else if (mLeftAction != null) {
-                                phoneView.setVisibility(!XposedHelpers.getBooleanField(param.thisObject, "mDozing") ?
+                                phoneView.setVisibility(!FIELD_DOZING.getBoolean(param.thisObject) ?
                                         View.VISIBLE : View.GONE);
                                 if (mLeftActionDrawableOrig == null) {
                                     mLeftActionDrawableOrig = phoneView.getDrawable();
@@ -682,8 +697,8 @@ public class ModLockscreen {
                         !v.getClass().getName().equals(CLASS_NOTIF_ROW))
                     continue;
                 notifCount++;
-                Object entry = XposedHelpers.getObjectField(v, "mEntry");
-                if ((boolean) XposedHelpers.callMethod(entry, "isClearable")) {
+                Object entry = FIELD_ENTRY.get(v);
+                if ((boolean) METHOD_IS_CLEARABLE.invoke(entry)) {
                     notifClearableCount++;
                 }
             }
@@ -740,9 +755,9 @@ public class ModLockscreen {
 
         AsyncTask.execute(() -> {
             try {
-                final Object lockPatternUtils = XposedHelpers.getObjectField(securityView, "mLockPatternUtils");
+                final Object lockPatternUtils = FIELD_LOCK_PATTERN_UTILS.get(securityView);
                 final int userId = mKgMonitor.getCurrentUserId();
-                final boolean valid = (boolean) XposedHelpers.callMethod(lockPatternUtils, "checkPassword", entry, userId);
+                final boolean valid = (boolean) METHOD_CHECK_PASSWORD.invoke(lockPatternUtils, entry, userId);
                 if (valid) {
                     final Object callback = XposedHelpers.getObjectField(securityView, "mCallback");
                     new Handler(Looper.getMainLooper()).post(() -> {
@@ -760,15 +775,14 @@ public class ModLockscreen {
         });
     }
 
-    private static synchronized void prepareCustomBackground() {
+    private static void prepareCustomBackground() {
         prepareCustomBackground(false);
     }
 
-    private static synchronized void prepareCustomBackground(boolean updateMediaMetadata) {
+    // images are loaded in background; current background stays until new one is ready
+    private static void prepareCustomBackground(boolean updateMediaMetadata) {
         try {
-            if (mCustomBg != null) {
-                mCustomBg = null;
-            }
+            mBgLoader.cancel();
             final String bgType = mPrefs.getString(
                   GravityBoxSettings.PREF_KEY_LOCKSCREEN_BACKGROUND,
                   GravityBoxSettings.LOCKSCREEN_BG_DEFAULT);
@@ -776,23 +790,19 @@ public class ModLockscreen {
             if (bgType.equals(GravityBoxSettings.LOCKSCREEN_BG_COLOR)) {
                 int color = mPrefs.getInt(
                       GravityBoxSettings.PREF_KEY_LOCKSCREEN_BACKGROUND_COLOR, Color.BLACK);
-                mCustomBg = BitmapUtils.drawableToBitmap(new ColorDrawable(color));
+                Bitmap bmp = Bitmap.createBitmap(1, 1, Bitmap.Config.ARGB_8888);
+                bmp.eraseColor(color);
+                setCustomBackground(bmp, updateMediaMetadata);
             } else if (bgType.equals(GravityBoxSettings.LOCKSCREEN_BG_IMAGE)) {
-                String wallpaperFile = mGbContext.getFilesDir() + "/lockwallpaper";
-                mCustomBg = BitmapFactory.decodeFile(wallpaperFile);
+                int blurRadius = mPrefs.getBoolean(
+                        GravityBoxSettings.PREF_KEY_LOCKSCREEN_BACKGROUND_BLUR_EFFECT, false) ?
+                        mPrefs.getInt(GravityBoxSettings.PREF_KEY_LOCKSCREEN_BACKGROUND_BLUR_INTENSITY, 14) : 0;
+                mBgLoader.loadImage(new File(mGbContext.getFilesDir(), "lockwallpaper"), blurRadius,
+                        bmp -> setCustomBackground(bmp, updateMediaMetadata));
             } else if (bgType.equals(GravityBoxSettings.LOCKSCREEN_BG_LAST_SCREEN)) {
-                setLastScreenBackground(false);
-            }
-    
-            if (!bgType.equals(GravityBoxSettings.LOCKSCREEN_BG_LAST_SCREEN) &&
-                    mCustomBg != null && mPrefs.getBoolean(
-                    GravityBoxSettings.PREF_KEY_LOCKSCREEN_BACKGROUND_BLUR_EFFECT, false)) {
-                mCustomBg = BitmapUtils.blurBitmap(mContext, mCustomBg, mPrefs.getInt(
-                          GravityBoxSettings.PREF_KEY_LOCKSCREEN_BACKGROUND_BLUR_INTENSITY, 14));
-            }
-
-            if (updateMediaMetadata) {
-                updateMediaMetaData();
+                setLastScreenBackground(updateMediaMetadata);
+            } else {
+                setCustomBackground(null, updateMediaMetadata);
             }
 
             if (DEBUG) log("prepareCustomBackground: type=" + bgType);
@@ -801,6 +811,13 @@ public class ModLockscreen {
         }
     }
 
+    private static void setCustomBackground(Bitmap bmp, boolean updateMediaMetadata) {
+        mCustomBg = bmp;
+        if (updateMediaMetadata) {
+            updateMediaMetaData();
+        }
+    }
+
     private static void updateMediaMetaData() {
         if (ModStatusBar.getStatusBar() != null) {
             try {
@@ -810,14 +827,13 @@ public class ModLockscreen {
         }
     }
 
-    private static synchronized void setLastScreenBackground(boolean refresh) {
+    private static void setLastScreenBackground(boolean refresh) {
         try {
-            String kisImageFile = mGbContext.getFilesDir() + "/kis_image.png";
-            mCustomBg = BitmapFactory.decodeFile(kisImageFile);
-            if (refresh) {
-                updateMediaMetaData();
-            }
-            if (DEBUG_KIS) log("setLastScreenBackground: Last screen background updated");
+            mBgLoader.loadRawImage(new File(mGbContext.getFilesDir(),
+                    KeyguardImageService.IMAGE_FILE_NAME), bmp -> {
+                setCustomBackground(bmp, refresh);
+                if (DEBUG_KIS) log("setLastScreenBackground: Last screen background updated");
+            });
         } catch (Throwable t) {
             GravityBox.log(TAG, t);
         }
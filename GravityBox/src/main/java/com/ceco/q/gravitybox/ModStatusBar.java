@@ -146,6 +146,24 @@ public class ModStatusBar {
     private static int mInitialTouchY;
     private static int BRIGHTNESS_ON = 255;
 
+    private static final FastReflect.FieldAccessor FIELD_CURRENT_STATE = FastReflect.field("mCurrentState");
+    private static final FastReflect.FieldAccessor FIELD_DISABLED1 = FastReflect.field("mDisabled1");
+    private static final FastReflect.FieldAccessor FIELD_EXPANDED_VISIBLE = FastReflect.field("mExpandedVisible");
+    private static final FastReflect.FieldAccessor FIELD_HANDLER = FastReflect.field("mHandler");
+    private static final FastReflect.FieldAccessor FIELD_IS_STATIC_LAYOUT = FastReflect.field("mIsStaticLayout");
+    private static final FastReflect.FieldAccessor FIELD_KEYGUARD_STATUS_BAR = FastReflect.field("mKeyguardStatusBar");
+    private static final FastReflect.FieldAccessor FIELD_NOTIFICATION = FastReflect.field("notification");
+    private static final FastReflect.FieldAccessor FIELD_NOTIFICATION_DATA = FastReflect.field("mNotificationData");
+    private static final FastReflect.FieldAccessor FIELD_NOTIFICATION_PANEL = FastReflect.field("mNotificationPanel");
+    private static final FastReflect.FieldAccessor FIELD_STATUS_BAR_STATE = FastReflect.field("statusBarState");
+    private static final FastReflect.MethodAccessor METHOD_FLING = FastReflect.method("fling");
+    private static final FastReflect.MethodAccessor METHOD_GET = FastReflect.method("get");
+    private static final FastReflect.MethodAccessor METHOD_GET_STATUS_BAR_HEIGHT = FastReflect.method("getStatusBarHeight");
+    private static final FastReflect.MethodAccessor METHOD_SET_TEMPORARY_AUTO_BRIGHTNESS_ADJUSTMENT =
+            FastReflect.method("setTemporaryAutoBrightnessAdjustment");
+    private static final FastReflect.MethodAccessor METHOD_SET_TEMPORARY_BRIGHTNESS = FastReflect.method("setTemporaryBrightness");
+    private static final FastReflect.MethodAccessor METHOD_UPDATE_STATE = FastReflect.method("updateState");
+
     private static List<StatusBarStateChangedListener> mStateChangeListeners =
             new ArrayList<>();
 
@@ -274,8 +292,8 @@ public class ModStatusBar {
     }
 
     private static ViewGroup getKeyguardStatusBar() {
-        Object notifPanel = XposedHelpers.getObjectField(mStatusBar, "mNotificationPanel");
-        return (ViewGroup) XposedHelpers.getObjectField(notifPanel, "mKeyguardStatusBar");
+        Object notifPanel = FIELD_NOTIFICATION_PANEL.get(mStatusBar);
+        return (ViewGroup) FIELD_KEYGUARD_STATUS_BAR.get(notifPanel);
     }
 
     private static void prepareLayoutStatusBar() {
@@ -592,7 +610,7 @@ public class ModStatusBar {
                             GravityBoxSettings.ACTION_PREF_HWKEY_CHANGED);
 
                     mSettingsObserver = new SettingsObserver(
-                            (Handler) XposedHelpers.getObjectField(mStatusBar, "mHandler"));
+                            (Handler) FIELD_HANDLER.get(mStatusBar));
                     mSettingsObserver.observe();
 
                     mContext.sendBroadcast(new Intent(ACTION_PHONE_STATUSBAR_VIEW_MADE));
@@ -643,7 +661,7 @@ public class ModStatusBar {
                         if (!mBrightnessControlEnabled) return;
     
                         brightnessControl((MotionEvent) param.args[0]);
-                        if ((XposedHelpers.getIntField(param.thisObject, "mDisabled1")
+                        if ((FIELD_DISABLED1.getInt(param.thisObject)
                                 & STATUS_BAR_DISABLE_EXPAND) != 0) {
                             param.setResult(true);
                         }
@@ -657,11 +675,9 @@ public class ModStatusBar {
                                 action == MotionEvent.ACTION_CANCEL);
                         if (upOrCancel) {
                             mBrightnessChanged = false;
-                            if (mJustPeeked && XposedHelpers.getBooleanField(
-                                    param.thisObject, "mExpandedVisible")) {
-                                Object notifPanel = XposedHelpers.getObjectField(
-                                        param.thisObject, "mNotificationPanel");
-                                XposedHelpers.callMethod(notifPanel, "fling", 10, false);
+                            if (mJustPeeked && FIELD_EXPANDED_VISIBLE.getBoolean(param.thisObject)) {
+                                Object notifPanel = FIELD_NOTIFICATION_PANEL.get(param.thisObject);
+                                METHOD_FLING.invoke(notifPanel, 10, false);
                             }
                         }
                     }
@@ -731,11 +747,11 @@ public class ModStatusBar {
                     @Override
                     protected void beforeHookedMethod(MethodHookParam param) {
                         if (mProgressBarCtrl != null) {
-                            Object notifData = XposedHelpers.getObjectField(param.thisObject, "mNotificationData");
-                            Object entry = XposedHelpers.callMethod(notifData, "get", param.args[0]);
+                            Object notifData = FIELD_NOTIFICATION_DATA.get(param.thisObject);
+                            Object entry = METHOD_GET.invoke(notifData, param.args[0]);
                             if (entry != null) {
                                 mProgressBarCtrl.onNotificationRemoved((StatusBarNotification)
-                                        XposedHelpers.getObjectField(entry, "notification"));
+                                        FIELD_NOTIFICATION.get(entry));
                             }
                         }
                     }
@@ -778,8 +794,8 @@ public class ModStatusBar {
                         int.class, new XC_MethodHook() {
                     @Override
                     protected void beforeHookedMethod(MethodHookParam param) {
-                        Object currentState = XposedHelpers.getObjectField(param.thisObject, "mCurrentState");
-                        int oldState = XposedHelpers.getIntField(currentState, "statusBarState");
+                        Object currentState = FIELD_CURRENT_STATE.get(param.thisObject);
+                        int oldState = FIELD_STATUS_BAR_STATE.getInt(currentState);
                         mStatusBarState = (Integer) param.args[0];
                         if (DEBUG) log("setStatusBarState: oldState="+oldState+"; newState="+mStatusBarState);
                         for (StatusBarStateChangedListener listener : mStateChangeListeners) {
@@ -870,8 +886,7 @@ public class ModStatusBar {
                     @Override
                     protected void beforeHookedMethod(MethodHookParam param) {
                         if (mBrightnessControlEnabled) {
-                            View kgHeader = (View) XposedHelpers.getObjectField(
-                                    param.thisObject, "mKeyguardStatusBar");
+                            View kgHeader = (View) FIELD_KEYGUARD_STATUS_BAR.get(param.thisObject);
                             if (kgHeader.getVisibility() == View.VISIBLE) {
                                 brightnessControl((MotionEvent) param.args[0]);
                             }
@@ -957,15 +972,13 @@ public class ModStatusBar {
                         if (isNotificationIconContainer(container)) {
                             if (mMaxNotifIconsEnabled) {
                                 if (mMaxNotifIconsIsStaticLayoutOrig == null) {
-                                    mMaxNotifIconsIsStaticLayoutOrig = XposedHelpers.getBooleanField(
-                                            param.thisObject, "mIsStaticLayout");
+                                    mMaxNotifIconsIsStaticLayoutOrig = FIELD_IS_STATIC_LAYOUT.getBoolean(param.thisObject);
                                     if (DEBUG_LAYOUT) log("calculateIconTranslations: Notification icon container has static layout; disabling");
-                                    XposedHelpers.setObjectField(param.thisObject, "mIsStaticLayout", false);
+                                    FIELD_IS_STATIC_LAYOUT.set(param.thisObject, false);
                                 }
                             } else if (mMaxNotifIconsIsStaticLayoutOrig != null) {
                                 if (DEBUG_LAYOUT) log("calculateIconTranslations: Setting back original Notification icon container layout");
-                                XposedHelpers.setObjectField(param.thisObject, "mIsStaticLayout",
-                                        mMaxNotifIconsIsStaticLayoutOrig);
+                                FIELD_IS_STATIC_LAYOUT.set(param.thisObject, mMaxNotifIconsIsStaticLayoutOrig);
                                 mMaxNotifIconsIsStaticLayoutOrig = null;
                             }
                         }
@@ -979,7 +992,7 @@ public class ModStatusBar {
                         View container = (View) param.thisObject;
                         if (isNotificationIconContainer(container) && mMaxNotifIconsEnabled) {
                             if (DEBUG_LAYOUT) log("onLayout: calling updateState()");
-                            XposedHelpers.callMethod(param.thisObject, "updateState");
+                            METHOD_UPDATE_STATE.invoke(param.thisObject);
                             ViewGroup parent = getNotifIconArea(container);
                             if (parent != null && parent.getWidth() != mNotifIconContainerComputedWidth) {
                                 ViewGroup.LayoutParams lp = parent.getLayoutParams();
@@ -1278,7 +1291,7 @@ public class ModStatusBar {
                 adj = Math.max(adj, -1);
                 adj = Math.min(adj, 1);
                 final float val = adj;
-                XposedHelpers.callMethod(getDisplayManager(), "setTemporaryAutoBrightnessAdjustment", val);
+                METHOD_SET_TEMPORARY_AUTO_BRIGHTNESS_ADJUSTMENT.invoke(getDisplayManager(), val);
                 AsyncTask.execute(() ->
                         XposedHelpers.callStaticMethod(Settings.System.class, "putFloatForUser",
                         mContext.getContentResolver(),"screen_auto_brightness_adj", val, -2));
@@ -1288,7 +1301,7 @@ public class ModStatusBar {
                 newBrightness = Math.min(newBrightness, BRIGHTNESS_ON);
                 newBrightness = Math.max(newBrightness, mMinBrightness);
                 final int val = newBrightness;
-                XposedHelpers.callMethod(getDisplayManager(), "setTemporaryBrightness", val);
+                METHOD_SET_TEMPORARY_BRIGHTNESS.invoke(getDisplayManager(), val);
                 AsyncTask.execute(() ->
                         XposedHelpers.callStaticMethod(Settings.System.class, "putIntForUser",
                         mContext.getContentResolver(),Settings.System.SCREEN_BRIGHTNESS, val, -2));
@@ -1303,8 +1316,8 @@ public class ModStatusBar {
             final int action = event.getAction();
             final int x = (int) event.getRawX();
             final int y = (int) event.getRawY();
-            Handler handler = (Handler) XposedHelpers.getObjectField(mStatusBar, "mHandler");
-            int statusBarHeight = (int)XposedHelpers.callMethod(mStatusBar, "getStatusBarHeight");
+            Handler handler = (Handler) FIELD_HANDLER.get(mStatusBar);
+            int statusBarHeight = (int)METHOD_GET_STATUS_BAR_HEIGHT.invoke(mStatusBar);
 
             if (action == MotionEvent.ACTION_DOWN) {
                 if (y < statusBarHeight) {
@@ -1379,7 +1392,7 @@ public class ModStatusBar {
     private static void setNotificationPanelState(Intent intent, boolean withQs) {
         try {
             if (!intent.hasExtra(AShortcut.EXTRA_ENABLE)) {
-                Object notifPanel = XposedHelpers.getObjectField(mStatusBar, "mNotificationPanel");
+                Object notifPanel = FIELD_NOTIFICATION_PANEL.get(mStatusBar);
                 if ((boolean) XposedHelpers.callMethod(notifPanel, "isFullyCollapsed")) {
                     expandNotificationPanel(withQs);
                 } else {
@@ -1398,7 +1411,7 @@ public class ModStatusBar {
     }
 
     private static void expandNotificationPanel(boolean withQs) {
-        Object notifPanel = XposedHelpers.getObjectField(mStatusBar, "mNotificationPanel");
+        Object notifPanel = FIELD_NOTIFICATION_PANEL.get(mStatusBar);
         if (withQs && XposedHelpers.getBooleanField(notifPanel, "mQsExpansionEnabled")) {
             XposedHelpers.callMethod(notifPanel, "expand", false);
             XposedHelpers.callMethod(notifPanel, "setQsExpansion",
@@ -0,0 +1,249 @@
+/*
+ * Copyright (C) 2019 Peter Gregus for GravityBox Project (C3C076@xda)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ceco.q.gravitybox;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+/**
+ * Reads total RX/TX byte counters from procfs without per-sample allocations.
+ * The underlying file stays open between samples and is parsed directly
+ * from a reused byte buffer.
+ */
+public class NetTrafficReader {
+    private static final String TAG = "GB:NetTrafficReader";
+
+    public static final String PATH_QTAGUID = "/proc/net/xt_qtaguid/iface_stat_fmt";
+    public static final String PATH_NET_DEV = "/proc/net/dev";
+
+    // index of rx and tx byte counters among numeric fields following interface name
+    private static final int QTAGUID_RX_FIELD = 0;
+    private static final int QTAGUID_TX_FIELD = 2;
+    private static final int NET_DEV_RX_FIELD = 0;
+    private static final int NET_DEV_TX_FIELD = 8;
+
+    private static final byte[] IFACE_LO = { 'l', 'o' };
+    private static final byte[] IFACE_IFNAME = { 'i', 'f', 'n', 'a', 'm', 'e' };
+    private static final byte[] IFACE_TUN_PREFIX = { 't', 'u', 'n' };
+
+    public static class Counters {
+        public static final int MAX_INTERFACES = 16;
+        // id of the last slot once interfaces exceeding capacity were folded into it
+        public static final int OVERFLOW_ID = Integer.MIN_VALUE;
+
+        public long rxBytes;
+        public long txBytes;
+
+        // per-interface counters; interface is identified by hash of its name
+        public int ifaceCount;
+        public final int[] ifaceIds = new int[MAX_INTERFACES];
+        public final long[] ifaceRxBytes = new long[MAX_INTERFACES];
+        public final long[] ifaceTxBytes = new long[MAX_INTERFACES];
+
+        public void clear() {
+            rxBytes = 0;
+            txBytes = 0;
+            ifaceCount = 0;
+        }
+
+        public void set(Counters c) {
+            rxBytes = c.rxBytes;
+            txBytes = c.txBytes;
+            ifaceCount = c.ifaceCount;
+            System.arraycopy(c.ifaceIds, 0, ifaceIds, 0, ifaceCount);
+            System.arraycopy(c.ifaceRxBytes, 0, ifaceRxBytes, 0, ifaceCount);
+            System.arraycopy(c.ifaceTxBytes, 0, ifaceTxBytes, 0, ifaceCount);
+        }
+
+        public void addInterface(int id, long rx, long tx) {
+            rxBytes += rx;
+            txBytes += tx;
+            if (ifaceCount < MAX_INTERFACES) {
+                ifaceIds[ifaceCount] = id;
+                ifaceRxBytes[ifaceCount] = rx;
+                ifaceTxBytes[ifaceCount] = tx;
+                ifaceCount++;
+            } else {
+                // too many interfaces; fold the rest into the last slot
+                ifaceIds[MAX_INTERFACES - 1] = OVERFLOW_ID;
+                ifaceRxBytes[MAX_INTERFACES - 1] += rx;
+                ifaceTxBytes[MAX_INTERFACES - 1] += tx;
+            }
+        }
+    }
+
+    private final String mPath;
+    private final int mRxField;
+    private final int mTxField;
+    private RandomAccessFile mFile;
+    private byte[] mBuffer = new byte[4096];
+
+    /**
+     * Creates reader for the first readable counter source
+     * @return reader or null if neither xt_qtaguid nor /proc/net/dev is available
+     */
+    public static NetTrafficReader create() {
+        if (canRead(PATH_QTAGUID)) {
+            return forQtaguid(PATH_QTAGUID);
+        } else if (canRead(PATH_NET_DEV)) {
+            return forNetDev(PATH_NET_DEV);
+        }
+        return null;
+    }
+
+    /**
+     * @param path - file in xt_qtaguid iface_stat_fmt format
+     */
+    static NetTrafficReader forQtaguid(String path) {
+        return new NetTrafficReader(path, QTAGUID_RX_FIELD, QTAGUID_TX_FIELD);
+    }
+
+    /**
+     * @param path - file in /proc/net/dev format
+     */
+    static NetTrafficReader forNetDev(String path) {
+        return new NetTrafficReader(path, NET_DEV_RX_FIELD, NET_DEV_TX_FIELD);
+    }
+
+    private static boolean canRead(String path) {
+        File f = new File(path);
+        return (f.exists() && f.canRead());
+    }
+
+    private NetTrafficReader(String path, int rxField, int txField) {
+        mPath = path;
+        mRxField = rxField;
+        mTxField = txField;
+    }
+
+    public String getPath() {
+        return mPath;
+    }
+
+    /**
+     * Samples counters of all counted interfaces
+     * @param out - caller owned counters receiving totals
+     * @return true if sample was successful
+     */
+    public boolean read(Counters out) {
+        out.clear();
+        try {
+            if (mFile == null) {
+                mFile = new RandomAccessFile(mPath, "r");
+            }
+            mFile.seek(0);
+            int len = 0;
+            int n;
+            while ((n = mFile.read(mBuffer, len, mBuffer.length - len)) > 0) {
+                len += n;
+                if (len == mBuffer.length) {
+                    byte[] buf = new byte[mBuffer.length * 2];
+                    System.arraycopy(mBuffer, 0, buf, 0, len);
+                    mBuffer = buf;
+                }
+            }
+            parse(mBuffer, len, out);
+            return true;
+        } catch (IOException e) {
+            GravityBox.log(TAG, e);
+            close();
+            return false;
+        }
+    }
+
+    public void close() {
+        if (mFile != null) {
+            try { mFile.close(); } catch (IOException ignored) { }
+            mFile = null;
+        }
+    }
+
+    private void parse(byte[] buf, int len, Counters out) {
+        final int maxField = Math.max(mRxField, mTxField);
+        int i = 0;
+        while (i < len) {
+            // interface name
+            while (i < len && buf[i] == ' ') i++;
+            final int nameStart = i;
+            while (i < len && buf[i] != ' ' && buf[i] != ':' && buf[i] != '\n') i++;
+            final int nameEnd = i;
+            if (i < len && buf[i] == ':') i++;
+
+            // numeric fields
+            long rx = 0, tx = 0;
+            int field = 0;
+            boolean valid = nameEnd > nameStart;
+            while (valid && i < len && buf[i] != '\n' && field <= maxField) {
+                while (i < len && buf[i] == ' ') i++;
+                if (i >= len || buf[i] == '\n') break;
+                long value = 0;
+                final int start = i;
+                while (i < len && buf[i] >= '0' && buf[i] <= '9') {
+                    value = value * 10 + (buf[i] - '0');
+                    i++;
+                }
+                if (i == start || (i < len && buf[i] != ' ' && buf[i] != '\n')) {
+                    // header line or garbage
+                    valid = false;
+                    break;
+                }
+                if (field == mRxField) rx = value;
+                if (field == mTxField) tx = value;
+                field++;
+            }
+
+            if (valid && field > maxField && isCountedInterface(buf, nameStart, nameEnd)) {
+                out.addInterface(hash(buf, nameStart, nameEnd), rx, tx);
+            }
+
+            // skip rest of line
+            while (i < len && buf[i] != '\n') i++;
+            i++;
+        }
+    }
+
+    private static int hash(byte[] buf, int start, int end) {
+        int h = 0;
+        for (int i = start; i < end; i++) {
+            h = 31 * h + buf[i];
+        }
+        return (h == Counters.OVERFLOW_ID ? h + 1 : h);
+    }
+
+    private static boolean isCountedInterface(byte[] buf, int start, int end) {
+        return !(equalsAt(buf, start, end, IFACE_LO) ||
+                equalsAt(buf, start, end, IFACE_IFNAME) ||
+                startsWithAt(buf, start, end, IFACE_TUN_PREFIX));
+    }
+
+    private static boolean equalsAt(byte[] buf, int start, int end, byte[] text) {
+        return (end - start == text.length && startsWithAt(buf, start, end, text));
+    }
+
+    private static boolean startsWithAt(byte[] buf, int start, int end, byte[] text) {
+        if (end - start < text.length) {
+            return false;
+        }
+        for (int i = 0; i < text.length; i++) {
+            if (buf[start + i] != text[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
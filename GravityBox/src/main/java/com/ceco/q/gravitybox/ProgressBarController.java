@@ -16,12 +16,16 @@
 
 package com.ceco.q.gravitybox;
 
+import java.lang.reflect.Field;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 import android.app.Notification;
 import android.content.Context;
@@ -35,6 +39,7 @@ import android.os.Parcel;
 import android.os.Parcelable;
 import android.os.PowerManager;
 import android.service.notification.StatusBarNotification;
+import android.view.Choreographer;
 import android.widget.RemoteViews;
 
 import com.ceco.q.gravitybox.managers.BroadcastMediator;
@@ -49,9 +54,13 @@ public class ProgressBarController implements BroadcastMediator.Receiver {
     private static final boolean DEBUG = false;
 
     private static final long MAX_IDLE_TIME = 10000; // ms
-    private static final int IDLE_CHECK_FREQUENCY = 5000; // ms
+    // minimum change of progress fraction worth redrawing
+    private static final float UPDATE_THRESHOLD = 0.002f;
     private static final String EXTRA_PROGRESS = "android.progress";
     private static final String EXTRA_PROGRESS_MAX = "android.progressMax";
+    private static final String CLASS_REFLECTION_ACTION = "android.widget.RemoteViews$ReflectionAction";
+    private static final int REFLECTION_ACTION_TAG = 2;
+    private static final int NO_VIEW_ID = 0;
 
     private static void log(String message) {
         XposedBridge.log(TAG + ": " + message);
@@ -78,12 +87,16 @@ public class ProgressBarController implements BroadcastMediator.Receiver {
         int progress;
         int max;
         long lastUpdatedMs;
+        float notifiedFraction;
+        // id of RemoteViews view known to carry progress
+        int viewId = NO_VIEW_ID;
 
         public ProgressInfo(String id, int progress, int max) {
             this.id = id;
             this.progress = progress;
             this.max = max;
             this.lastUpdatedMs = System.currentTimeMillis();
+            this.notifiedFraction = getFraction();
         }
 
         public float getFraction() {
@@ -101,7 +114,7 @@ public class ProgressBarController implements BroadcastMediator.Receiver {
     public enum Mode { OFF, TOP, BOTTOM }
 
     private Context mContext;
-    private final List<ProgressStateListener> mListeners = new ArrayList<>();
+    private final CopyOnWriteArrayList<ProgressStateListener> mListeners = new CopyOnWriteArrayList<>();
     private Mode mMode;
     private final Map<String, ProgressInfo> mProgressList = new LinkedHashMap<>();
     private boolean mSoundEnabled;
@@ -109,23 +122,37 @@ public class ProgressBarController implements BroadcastMediator.Receiver {
     private boolean mSoundWhenScreenOffOnly;
     private PowerManager mPowerManager;
     private Handler mHandler;
+    private Choreographer mChoreographer;
+    // progress ids ordered by time of last update, thus by idle deadline
+    private final Set<String> mIdleQueue = new LinkedHashSet<>();
+    // progress ids with updates waiting for next frame
+    private final Set<String> mPendingUpdates = new LinkedHashSet<>();
+    // updates collected under lock and delivered after releasing it; used by frame callback only
+    private final List<ProgressInfo> mFlushedUpdates = new ArrayList<>();
+    private boolean mFrameScheduled;
 
     private Runnable mRemoveIdleRunnable = new Runnable() {
         @Override
         public void run() {
             synchronized (mProgressList) {
-                List<String> toRemove = new ArrayList<>();
-                for (ProgressInfo pi : mProgressList.values())
-                    if (pi.isIdle()) toRemove.add(pi.id);
-                for (String id : toRemove)
-                    removeProgress(id, false);
-                if (mProgressList.size() > 0) {
-                    mHandler.postDelayed(this, IDLE_CHECK_FREQUENCY);
+                while (!mIdleQueue.isEmpty()) {
+                    String id = mIdleQueue.iterator().next();
+                    ProgressInfo pi = mProgressList.get(id);
+                    if (pi == null) {
+                        mIdleQueue.remove(id);
+                    } else if (pi.isIdle()) {
+                        removeProgress(id, false);
+                    } else {
+                        break;
+                    }
                 }
+                scheduleIdleCheck();
             }
         }
     };
 
+    private final Choreographer.FrameCallback mFrameCallback = frameTimeNanos -> flushPendingUpdates();
+
     public ProgressBarController(Context ctx, XSharedPreferences prefs) {
         mContext = ctx;
 
@@ -138,6 +165,7 @@ public class ProgressBarController implements BroadcastMediator.Receiver {
 
         mPowerManager = (PowerManager) mContext.getSystemService(Context.POWER_SERVICE);
         mHandler = new Handler();
+        mChoreographer = Choreographer.getInstance();
 
         SysUiManagers.BroadcastMediator.subscribe(this,
                 GravityBoxSettings.ACTION_PREF_STATUSBAR_DOWNLOAD_PROGRESS_CHANGED);
@@ -145,73 +173,53 @@ public class ProgressBarController implements BroadcastMediator.Receiver {
 
     public void registerListener(ProgressStateListener listener) {
         if (listener == null) return;
-        synchronized (mListeners) {
-            if (!mListeners.contains(listener)) {
-                mListeners.add(listener);
-            }
-        }
+        mListeners.addIfAbsent(listener);
     }
 
     public void unregisterListener(ProgressStateListener listener) {
         if (listener == null) return;
-        synchronized (mListeners) {
-            mListeners.remove(listener);
-        }
+        mListeners.remove(listener);
     }
 
     private void notifyProgressTrackingStarted() {
-        synchronized (mListeners) {
-            for (ProgressStateListener l : mListeners) {
-                l.onProgressTrackingStarted(mMode);
-            }
+        for (ProgressStateListener l : mListeners) {
+            l.onProgressTrackingStarted(mMode);
         }
     }
 
     private void notifyProgressTrackingStopped() {
-        synchronized (mListeners) {
-            for (ProgressStateListener l : mListeners) {
-                l.onProgressTrackingStopped();
-            }
+        for (ProgressStateListener l : mListeners) {
+            l.onProgressTrackingStopped();
         }
     }
 
     private void notifyProgressAdded(ProgressInfo pi) {
-        synchronized (mListeners) {
-            for (ProgressStateListener l : mListeners) {
-                l.onProgressAdded(pi);
-            }
+        for (ProgressStateListener l : mListeners) {
+            l.onProgressAdded(pi);
         }
     }
 
     private void notifyProgressUpdated(ProgressInfo pInfo) {
-        synchronized (mListeners) {
-            for (ProgressStateListener l : mListeners) {
-                l.onProgressUpdated(pInfo);
-            }
+        for (ProgressStateListener l : mListeners) {
+            l.onProgressUpdated(pInfo);
         }
     }
 
     private void notifyProgressRemoved(String id) {
-        synchronized (mListeners) {
-            for (ProgressStateListener l : mListeners) {
-                l.onProgressRemoved(id);
-            }
+        for (ProgressStateListener l : mListeners) {
+            l.onProgressRemoved(id);
         }
     }
 
     private void notifyModeChanged() {
-        synchronized (mListeners) {
-            for (ProgressStateListener l : mListeners) {
-                l.onProgressModeChanged(mMode);
-            }
+        for (ProgressStateListener l : mListeners) {
+            l.onProgressModeChanged(mMode);
         }
     }
 
     private void notifyPreferencesChanged(Intent intent) {
-        synchronized (mListeners) {
-            for (ProgressStateListener l : mListeners) {
-                l.onProgressPreferencesChanged(intent);
-            }
+        for (ProgressStateListener l : mListeners) {
+            l.onProgressPreferencesChanged(intent);
         }
     }
 
@@ -219,10 +227,11 @@ public class ProgressBarController implements BroadcastMediator.Receiver {
         synchronized (mProgressList) {
             if (!mProgressList.containsKey(pi.id)) {
                 mProgressList.put(pi.id, pi);
+                mIdleQueue.add(pi.id);
                 if (DEBUG) log("addProgress: added progress for '" + pi.id + "'");
                 if (mProgressList.size() == 1) {
                     notifyProgressTrackingStarted();
-                    resetIdleChecker();
+                    scheduleIdleCheck();
                 }
                 notifyProgressAdded(pi);
             } else if (DEBUG) {
@@ -235,38 +244,86 @@ public class ProgressBarController implements BroadcastMediator.Receiver {
         synchronized (mProgressList) {
             if (id == null) {
                 mProgressList.clear();
+                mIdleQueue.clear();
+                mPendingUpdates.clear();
                 if (DEBUG) log("removeProgress: all cleared");
             } else if (mProgressList.containsKey(id)) {
                 mProgressList.remove(id);
+                mIdleQueue.remove(id);
+                mPendingUpdates.remove(id);
                 notifyProgressRemoved(id);
                 if (DEBUG) log("removeProgress: removed progress for '" + id + "'");
                 if (allowSound) maybePlaySound();
             }
             if (mProgressList.size() == 0) {
                 notifyProgressTrackingStopped();
-                resetIdleChecker();
+                scheduleIdleCheck();
             }
         }
     }
 
-    private void updateProgress(String id, int max, int progress) {
-        ProgressInfo pi = mProgressList.get(id);
-        if (pi != null) {
+    private void updateProgress(ProgressInfo update) {
+        final String id = update.id;
+        final int max = update.max;
+        final int progress = update.progress;
+        synchronized (mProgressList) {
+            ProgressInfo pi = mProgressList.get(id);
+            if (pi == null) return;
+
+            pi.viewId = update.viewId;
+            pi.lastUpdatedMs = System.currentTimeMillis();
+            // move to the end of idle queue
+            mIdleQueue.remove(id);
+            mIdleQueue.add(id);
+            if (pi.max == max && pi.progress == progress) {
+                if (DEBUG) log("updateProgress: no change for '" + id + "'");
+                return;
+            }
             pi.max = max;
             pi.progress = progress;
-            pi.lastUpdatedMs = System.currentTimeMillis();
             if (DEBUG) {
                 log("updateProgress: updated progress for '" + id + "': " +
                         "max=" + max + "; progress=" + progress);
             }
-            notifyProgressUpdated(pi);
+            if (Math.abs(pi.getFraction() - pi.notifiedFraction) < UPDATE_THRESHOLD &&
+                    progress < max) {
+                if (DEBUG) log("updateProgress: change below threshold for '" + id + "'");
+                return;
+            }
+            mPendingUpdates.add(id);
+            if (!mFrameScheduled) {
+                mFrameScheduled = true;
+                mChoreographer.postFrameCallback(mFrameCallback);
+            }
+        }
+    }
+
+    private void flushPendingUpdates() {
+        synchronized (mProgressList) {
+            mFrameScheduled = false;
+            for (String id : mPendingUpdates) {
+                ProgressInfo pi = mProgressList.get(id);
+                if (pi != null) {
+                    pi.notifiedFraction = pi.getFraction();
+                    mFlushedUpdates.add(pi);
+                }
+            }
+            mPendingUpdates.clear();
         }
+        // listeners update views; don't hold the lock while they do
+        for (int i = 0; i < mFlushedUpdates.size(); i++) {
+            notifyProgressUpdated(mFlushedUpdates.get(i));
+        }
+        mFlushedUpdates.clear();
     }
 
-    private void resetIdleChecker() {
+    private void scheduleIdleCheck() {
         mHandler.removeCallbacks(mRemoveIdleRunnable);
-        if (mProgressList.size() > 0) {
-            mHandler.postDelayed(mRemoveIdleRunnable, IDLE_CHECK_FREQUENCY);
+        if (!mIdleQueue.isEmpty()) {
+            ProgressInfo pi = mProgressList.get(mIdleQueue.iterator().next());
+            long delay = (pi == null ? 0 :
+                    pi.lastUpdatedMs + MAX_IDLE_TIME - System.currentTimeMillis() + 1);
+            mHandler.postDelayed(mRemoveIdleRunnable, Math.max(0, delay));
         }
     }
 
@@ -307,7 +364,7 @@ public class ProgressBarController implements BroadcastMediator.Receiver {
             // feature has been enabled during already ongoing download
             addProgress(pi);
         } else {
-            updateProgress(pi.id, pi.max, pi.progress);
+            updateProgress(pi);
         }
     }
 
@@ -372,48 +429,109 @@ public class ProgressBarController implements BroadcastMediator.Receiver {
         return null;
     }
 
-    private ProgressInfo getProgressInfoFromRemoteView(String id, RemoteViews view) {
-        int max = -1;
-        int progress = -1;
+    // cached accessors of RemoteViews internals
+    private static Field sActionsField;
+    private static Field sActionViewIdField;
+    private static Field sActionMethodNameField;
+    private static Field sActionValueField;
+    private static boolean sReflectionFailed;
 
+    private static boolean resolveReflectionAction(Class<?> actionClass) {
+        if (sActionViewIdField != null) return true;
+        if (sReflectionFailed) return false;
         try {
-            @SuppressWarnings("unchecked")
-            List<Parcelable> actions = (List<Parcelable>) 
-                XposedHelpers.getObjectField(view, "mActions");
-            if (actions == null) return null;
+            sActionViewIdField = XposedHelpers.findField(actionClass, "viewId");
+            sActionMethodNameField = XposedHelpers.findField(actionClass, "methodName");
+            sActionValueField = XposedHelpers.findField(actionClass, "value");
+            return true;
+        } catch (Throwable t) {
+            GravityBox.log(TAG, "ReflectionAction fields not accessible; using Parcel fallback", t);
+            sActionViewIdField = null;
+            sReflectionFailed = true;
+            return false;
+        }
+    }
 
-            for (Parcelable p : actions) {
-                Parcel parcel = Parcel.obtain();
-                p.writeToParcel(parcel, 0);
-                parcel.setDataPosition(0);
+    private ProgressInfo getProgressInfoFromRemoteView(String id, RemoteViews view) {
+        try {
+            if (sActionsField == null) {
+                sActionsField = XposedHelpers.findField(RemoteViews.class, "mActions");
+            }
+            List<?> actions = (List<?>) sActionsField.get(view);
+            if (actions == null) return null;
 
-                // The tag tells which type of action it is (2 is ReflectionAction)
-                int tag = parcel.readInt();
-                if (tag != 2)  {
-                    parcel.recycle();
-                    continue;
-                }
+            int knownViewId;
+            synchronized (mProgressList) {
+                ProgressInfo tracked = mProgressList.get(id);
+                knownViewId = (tracked == null ? NO_VIEW_ID : tracked.viewId);
+            }
+            ProgressInfo pi = null;
+            if (knownViewId != NO_VIEW_ID) {
+                pi = getProgressInfoFromActions(id, actions, knownViewId);
+            }
+            if (pi == null) {
+                // unknown yet or layout changed
+                pi = getProgressInfoFromActions(id, actions, NO_VIEW_ID);
+            }
+            return pi;
+        } catch (Throwable  t) {
+            GravityBox.log(TAG, t);
+            return null;
+        }
+    }
 
-                parcel.readInt(); // skip View ID
-                String methodName = parcel.readString();
-                if ("setMax".equals(methodName)) {
-                    parcel.readInt(); // skip type value
-                    max = parcel.readInt();
-                    if (DEBUG) log("getProgressInfoFromRemoteView: max=" + max);
-                } else if ("setProgress".equals(methodName)) {
+    private ProgressInfo getProgressInfoFromActions(String id, List<?> actions, int viewId) throws Exception {
+        int max = -1;
+        int progress = -1;
+        int progressViewId = NO_VIEW_ID;
+
+        for (int i = 0; i < actions.size(); i++) {
+            Object action = actions.get(i);
+            if (action == null || !CLASS_REFLECTION_ACTION.equals(action.getClass().getName()))
+                continue;
+
+            int actionViewId;
+            String methodName;
+            Object value;
+            if (resolveReflectionAction(action.getClass())) {
+                actionViewId = sActionViewIdField.getInt(action);
+                if (viewId != NO_VIEW_ID && actionViewId != viewId) continue;
+                methodName = (String) sActionMethodNameField.get(action);
+                value = sActionValueField.get(action);
+            } else {
+                Parcel parcel = Parcel.obtain();
+                try {
+                    ((Parcelable) action).writeToParcel(parcel, 0);
+                    parcel.setDataPosition(0);
+                    // The tag tells which type of action it is
+                    if (parcel.readInt() != REFLECTION_ACTION_TAG) continue;
+                    actionViewId = parcel.readInt();
+                    if (viewId != NO_VIEW_ID && actionViewId != viewId) continue;
+                    methodName = parcel.readString();
+                    if (!"setMax".equals(methodName) && !"setProgress".equals(methodName)) continue;
                     parcel.readInt(); // skip type value
-                    progress = parcel.readInt();
-                    if (DEBUG) log("getProgressInfoFromRemoteView: progress=" + progress);
+                    value = parcel.readInt();
+                } finally {
+                    parcel.recycle();
                 }
+            }
 
-                parcel.recycle();
+            if ("setMax".equals(methodName) && value instanceof Integer) {
+                max = (Integer) value;
+                if (DEBUG) log("getProgressInfoFromRemoteView: max=" + max);
+            } else if ("setProgress".equals(methodName) && value instanceof Integer) {
+                progress = (Integer) value;
+                progressViewId = actionViewId;
+                if (DEBUG) log("getProgressInfoFromRemoteView: progress=" + progress);
             }
-        } catch (Throwable  t) {
-            GravityBox.log(TAG, t);
         }
 
-        return (max != -1 && progress != -1) ?
-                new ProgressInfo(id, progress, max) : null;
+        if (max != -1 && progress != -1) {
+            ProgressInfo pi = new ProgressInfo(id, progress, max);
+            pi.viewId = progressViewId;
+            return pi;
+        }
+        return null;
     }
 
     private void maybePlaySound() {
@@ -0,0 +1,155 @@
+/*
+ * Copyright (C) 2019 Peter Gregus for GravityBox Project (C3C076@xda)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ceco.q.gravitybox;
+
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Cache of values per owner (e.g. AssetManager) and resource ID.
+ * Owners are held weakly and compared by identity.
+ * Values are indexed by resource type and entry so that lookups take a single probe and
+ * don't lock nor allocate. Per-type arrays grow by doubling and are published atomically.
+ * Each {@link #clear()} starts a new generation; tables of older generations are never
+ * returned even if a concurrent lookup republishes one as the most recently used table.
+ */
+class ResourceIdCache<V> {
+
+    private static final class Entries {
+        // resource ID is 0xPPTTEEEE (package, type, entry)
+        // values are indexed by type byte first, then by entry
+        final AtomicReferenceArray<AtomicReferenceArray<Object>> types =
+                new AtomicReferenceArray<>(256);
+
+        Object get(int id) {
+            final AtomicReferenceArray<Object> values = types.get((id >> 16) & 0xff);
+            final int entry = id & 0xffff;
+            return (values != null && entry < values.length() ? values.get(entry) : null);
+        }
+
+        // callers must hold the lock of the owning table
+        void put(int id, Object value) {
+            final int type = (id >> 16) & 0xff;
+            final int entry = id & 0xffff;
+            AtomicReferenceArray<Object> values = types.get(type);
+            if (values == null || entry >= values.length()) {
+                int length = (values != null ? values.length() : 16);
+                while (length <= entry) {
+                    length *= 2;
+                }
+                AtomicReferenceArray<Object> grown = new AtomicReferenceArray<>(length);
+                if (values != null) {
+                    for (int i = 0; i < values.length(); i++) {
+                        grown.lazySet(i, values.get(i));
+                    }
+                }
+                grown.set(entry, value);
+                types.set(type, grown);
+            } else if (values.get(entry) == null) {
+                values.set(entry, value);
+            }
+        }
+    }
+
+    private static final class Table {
+        final WeakReference<Object> owner;
+        final int generation;
+        final Entries entries = new Entries();
+
+        Table(Object owner, int generation) {
+            this.owner = new WeakReference<>(owner);
+            this.generation = generation;
+        }
+    }
+
+    private final Object mLock = new Object();
+    private volatile Table[] mTables = new Table[0];
+    private volatile Table mLastTable;
+    private volatile int mGeneration;
+
+    /**
+     * @return cached value or null if there is none
+     */
+    @SuppressWarnings("unchecked")
+    V get(Object owner, int id) {
+        final Table table = findTable(owner, false);
+        return (table != null ? (V) table.entries.get(id) : null);
+    }
+
+    /**
+     * Caches value unless there already is one for given owner and ID
+     */
+    void put(Object owner, int id, V value) {
+        final Table table = findTable(owner, true);
+        synchronized (table) {
+            table.entries.put(id, value);
+        }
+    }
+
+    /**
+     * Drops all cached values
+     */
+    void clear() {
+        synchronized (mLock) {
+            mGeneration++;
+            mTables = new Table[0];
+            mLastTable = null;
+        }
+    }
+
+    private Table findTable(Object owner, boolean create) {
+        final int generation = mGeneration;
+        Table table = mLastTable;
+        if (table != null && table.generation == generation && table.owner.get() == owner) {
+            return table;
+        }
+        table = findTable(mTables, owner, generation);
+        if (table == null && create) {
+            synchronized (mLock) {
+                final Table[] tables = mTables;
+                table = findTable(tables, owner, mGeneration);
+                if (table == null) {
+                    // drop tables of collected owners
+                    List<Table> list = new ArrayList<>(tables.length + 1);
+                    for (Table t : tables) {
+                        if (t.owner.get() != null) {
+                            list.add(t);
+                        }
+                    }
+                    table = new Table(owner, mGeneration);
+                    list.add(table);
+                    mTables = list.toArray(new Table[0]);
+                }
+            }
+        }
+        if (table != null) {
+            mLastTable = table;
+        }
+        return table;
+    }
+
+    private static Table findTable(Table[] tables, Object owner, int generation) {
+        for (Table t : tables) {
+            if (t.generation == generation && t.owner.get() == owner) {
+                return t;
+            }
+        }
+        return null;
+    }
+}
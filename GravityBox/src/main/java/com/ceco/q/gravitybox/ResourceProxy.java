@@ -15,13 +15,16 @@
 package com.ceco.q.gravitybox;
 
 import android.content.Context;
+import android.content.res.AssetManager;
 import android.content.res.Configuration;
 import android.content.res.Resources;
-import android.util.SparseArray;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
-import java.util.regex.Pattern;
+import java.util.Map;
 
 import de.robv.android.xposed.XC_MethodHook;
 import de.robv.android.xposed.XposedBridge;
@@ -35,10 +38,16 @@ public class ResourceProxy {
         XposedBridge.log(TAG + ": " + message);
     }
 
-    private static SparseArray<ResourceSpec> sCache = new SparseArray<>();
-    private static int getCacheKey(String pkgName, int resId) {
-        return (pkgName + "_" + resId).hashCode();
-    }
+    // resource IDs are unique within asset manager; cache per asset manager and resId
+    // including explicit negative entries for resources that are not intercepted
+    private static final ResourceIdCache<ResourceSpec> sCache = new ResourceIdCache<>();
+    private static final ResourceSpec NO_SPEC = new ResourceSpec(null, 0, null, null);
+    // spec handed to interceptors; reused per thread unless interception is nested
+    private static final ThreadLocal<ResourceSpec> sInterceptSpec =
+            ThreadLocal.withInitial(() -> new ResourceSpec(null, 0, null, null));
+
+    private static final int FAKE_RES_ID_MASK = 0xff000000;
+    private static final int FAKE_RES_ID_PACKAGE = 0x7e000000;
 
     public static class ResourceSpec {
         private Interceptor interceptor;
@@ -68,19 +77,40 @@ public class ResourceProxy {
         }
     }
 
+    // sorted fake resource IDs and their owning interceptors
+    private static final class FakeResIds {
+        static final FakeResIds EMPTY = new FakeResIds(new int[0], new Interceptor[0]);
+        final int[] ids;
+        final Interceptor[] interceptors;
+
+        FakeResIds(int[] ids, Interceptor[] interceptors) {
+            this.ids = ids;
+            this.interceptors = interceptors;
+        }
+    }
+
+    // package name -> resource name -> interceptor
+    // and indexed package names ordered from the longest one
+    private static final class ResourceIndex {
+        static final ResourceIndex EMPTY = new ResourceIndex(Collections.emptyMap(), new String[0]);
+        final Map<String, Map<String, Interceptor>> resources;
+        final String[] packageNames;
+
+        ResourceIndex(Map<String, Map<String, Interceptor>> resources, String[] packageNames) {
+            this.resources = resources;
+            this.packageNames = packageNames;
+        }
+    }
+
     static abstract class Interceptor {
         private String supportedPackageName;
         private List<String> supportedResourceNames;
         private List<Integer> supportedFakeResIds;
         private boolean isFramework;
-        private Pattern packageNamePattern;
 
         Interceptor(String packageName ,List<String> supportedResourceNames,
                     List<Integer> supportedFakeResIds) {
             this.supportedPackageName = packageName;
-            this.packageNamePattern = Pattern.compile("^" +
-                    this.supportedPackageName.replace(".", "\\.") +
-                    "+((?:\\.\\w+)+)?$");
             this.isFramework = "android".equals(packageName);
             this.supportedResourceNames = supportedResourceNames;
             this.supportedFakeResIds = supportedFakeResIds;
@@ -95,7 +125,7 @@ public class ResourceProxy {
     }
 
     static int getFakeResId(String resourceName) {
-        return 0x7e000000 | (resourceName.hashCode() & 0x00ffffff);
+        return FAKE_RES_ID_PACKAGE | (resourceName.hashCode() & 0x00ffffff);
     }
 
     private static Context getGbContext(Configuration config) {
@@ -111,6 +141,10 @@ public class ResourceProxy {
     }
 
     private final List<Interceptor> mInterceptors = new ArrayList<>();
+    // immutable, replaced as a whole
+    private volatile FakeResIds mFakeResIds = FakeResIds.EMPTY;
+    // immutable, replaced as a whole
+    private volatile ResourceIndex mResourceIndex = ResourceIndex.EMPTY;
 
     ResourceProxy() {
         createIntegerHook();
@@ -126,40 +160,104 @@ public class ResourceProxy {
         synchronized (mInterceptors) {
             if (!mInterceptors.contains(interceptor)) {
                 mInterceptors.add(interceptor);
+                rebuildResourceIndex();
+                rebuildFakeResIds();
             }
         }
+        // previously cached misses might be handled by new interceptor
+        sCache.clear();
     }
 
-    private Interceptor findInterceptorForFramework() {
-        synchronized (mInterceptors) {
-            return mInterceptors.stream().filter((i) -> i.isFramework)
-                    .findFirst().orElse(null);
+    private void rebuildResourceIndex() {
+        Interceptor fwi = null;
+        for (Interceptor i : mInterceptors) {
+            if (i.isFramework) {
+                fwi = i;
+                break;
+            }
         }
+
+        Map<String, Map<String, Interceptor>> index = new HashMap<>();
+        for (Interceptor i : mInterceptors) {
+            Map<String, Interceptor> resources = index.get(i.supportedPackageName);
+            if (resources == null) {
+                resources = new HashMap<>();
+                index.put(i.supportedPackageName, resources);
+            }
+            for (String resName : i.supportedResourceNames) {
+                resources.putIfAbsent(resName, i);
+            }
+        }
+        // framework resources are intercepted in any package having an interceptor
+        if (fwi != null) {
+            for (Map<String, Interceptor> resources : index.values()) {
+                for (String resName : fwi.supportedResourceNames) {
+                    resources.putIfAbsent(resName, fwi);
+                }
+            }
+        }
+        for (Map.Entry<String, Map<String, Interceptor>> e : index.entrySet()) {
+            e.setValue(Collections.unmodifiableMap(e.getValue()));
+        }
+        String[] packageNames = index.keySet().toArray(new String[0]);
+        Arrays.sort(packageNames, (a, b) -> b.length() - a.length());
+        mResourceIndex = new ResourceIndex(Collections.unmodifiableMap(index), packageNames);
     }
 
-    private Interceptor findInterceptorForResource(String packageName, String resName) {
-        if (packageName == null || resName == null) return null;
-        Interceptor fwi = findInterceptorForFramework();
-        synchronized (mInterceptors) {
+    private void rebuildFakeResIds() {
+        List<Integer> ids = new ArrayList<>();
+        for (Interceptor i : mInterceptors) {
+            for (Integer id : i.supportedFakeResIds) {
+                if (!ids.contains(id)) {
+                    ids.add(id);
+                }
+            }
+        }
+        int[] fakeResIds = new int[ids.size()];
+        for (int n = 0; n < fakeResIds.length; n++) {
+            fakeResIds[n] = ids.get(n);
+        }
+        Arrays.sort(fakeResIds);
+        Interceptor[] interceptors = new Interceptor[fakeResIds.length];
+        for (int n = 0; n < fakeResIds.length; n++) {
             for (Interceptor i : mInterceptors) {
-                if (i.packageNamePattern.matcher(packageName).matches()) {
-                    if (i.supportedResourceNames.contains(resName)) {
-                        return i;
-                    } else if (fwi != null && fwi.supportedResourceNames.contains(resName)) {
-                        return  fwi;
-                    }
+                if (i.supportedFakeResIds.contains(fakeResIds[n])) {
+                    interceptors[n] = i;
+                    break;
                 }
             }
         }
+        mFakeResIds = new FakeResIds(fakeResIds, interceptors);
+    }
+
+    private Interceptor findInterceptorForResource(String packageName, String resName) {
+        if (packageName == null || resName == null) return null;
+        final ResourceIndex index = mResourceIndex;
+        Interceptor i = findInterceptor(index.resources.get(packageName), resName);
+        if (i != null) return i;
+        // interceptor covers its package and any sub-package (e.g. package.overlay);
+        // closest parent package goes first
+        final int length = packageName.length();
+        for (String pkg : index.packageNames) {
+            final int pkgLength = pkg.length();
+            if (pkgLength < length && packageName.charAt(pkgLength) == '.' &&
+                    packageName.startsWith(pkg)) {
+                i = findInterceptor(index.resources.get(pkg), resName);
+                if (i != null) return i;
+            }
+        }
         return null;
     }
 
+    private static Interceptor findInterceptor(Map<String, Interceptor> resources, String resName) {
+        return (resources != null ? resources.get(resName) : null);
+    }
+
     private Interceptor findInterceptorForFakeResourceId(int fakeResId) {
-        synchronized (mInterceptors) {
-            return mInterceptors.stream().filter((i) ->
-                    i.supportedFakeResIds.contains(fakeResId))
-                    .findFirst().orElse(null);
-        }
+        if ((fakeResId & FAKE_RES_ID_MASK) != FAKE_RES_ID_PACKAGE) return null;
+        final FakeResIds fakeResIds = mFakeResIds;
+        final int idx = Arrays.binarySearch(fakeResIds.ids, fakeResId);
+        return (idx >= 0 ? fakeResIds.interceptors[idx] : null);
     }
 
     private XC_MethodHook mInterceptHook = new XC_MethodHook() {
@@ -175,46 +273,71 @@ public class ResourceProxy {
                 if (value != null) {
                     if (DEBUG) log("onGetFakeResource: resId=" + resId + "; value=" + value);
                     param.setResult(value);
-                    param.getExtra().putBoolean("returnEarly", true);
                 }
             }
         }
         @Override
         protected void afterHookedMethod(MethodHookParam param) {
-            if (param.getExtra().getBoolean("returnEarly")) {
-                if (DEBUG) log(param.method.getName() + " after hook suppressed by before hook");
+            if (param.hasThrowable()) return;
+            final int resId = (int)param.args[0];
+            // fake resources are served by before hook and never intercepted
+            if (findInterceptorForFakeResourceId(resId) != null) {
+                if (DEBUG) log(param.method.getName() + " after hook suppressed for fake resource");
                 return;
             }
             Object value = param.getResult();
-            ResourceSpec spec = getOrCreateResourceSpec((Resources)param.thisObject,
-                    (int)param.args[0], value);
-            if (spec != null && spec.interceptor.onIntercept(spec) &&
+            if (value == null) return;
+            ResourceSpec cached = getOrCreateResourceSpec((Resources)param.thisObject, resId);
+            if (cached == null) return;
+
+            // cached spec is shared; interceptor gets a spec holding the value
+            ResourceSpec spec = sInterceptSpec.get();
+            final boolean nested = (spec.interceptor != null);
+            if (nested) {
+                spec = new ResourceSpec(null, 0, null, null);
+            }
+            spec.interceptor = cached.interceptor;
+            spec.resId = resId;
+            spec.name = cached.name;
+            spec.value = value;
+            try {
+                if (spec.interceptor.onIntercept(spec) &&
                         value.getClass().isAssignableFrom(spec.value.getClass())) {
-                if (DEBUG) log(param.method.getName() + ": onIntercept: " + spec.toString());
-                param.setResult(spec.value);
+                    if (DEBUG) log(param.method.getName() + ": onIntercept: " + spec.toString());
+                    param.setResult(spec.value);
+                }
+            } finally {
+                if (!nested) {
+                    spec.interceptor = null;
+                    spec.name = null;
+                    spec.value = null;
+                }
             }
         }
     };
 
-    private ResourceSpec getOrCreateResourceSpec(Resources res, int resId, Object value) {
+    private ResourceSpec getOrCreateResourceSpec(Resources res, int resId) {
+        final AssetManager assets = res.getAssets();
+        ResourceSpec spec = sCache.get(assets, resId);
+        if (spec == null) {
+            spec = createResourceSpec(res, resId);
+            sCache.put(assets, resId, spec == null ? NO_SPEC : spec);
+        }
+        return (spec == NO_SPEC ? null : spec);
+    }
+
+    private ResourceSpec createResourceSpec(Resources res, int resId) {
         String pkgName = getResourcePackageName(res, resId);
         if (pkgName == null) return null;
 
-        int cacheKey = getCacheKey(pkgName, resId);
-        if (sCache.get(cacheKey) != null) {
-            sCache.get(cacheKey).value = value;
-            return sCache.get(cacheKey);
-        }
-
         String resName = getResourceEntryName(res, resId);
         if (resName == null) return null;
 
         Interceptor i = findInterceptorForResource(pkgName, resName);
         if (i == null) return null;
 
-        ResourceSpec spec = new ResourceSpec(i, resId, resName, value);
+        ResourceSpec spec = new ResourceSpec(i, resId, resName, null);
         if (DEBUG) log("New " + spec.toString());
-        sCache.put(cacheKey, spec);
         return spec;
     }
 
@@ -148,7 +148,7 @@ public class SettingsManager {
         File[] fileList = mContext.getFilesDir().listFiles();
         if (fileList != null) {
             for (File f : fileList) {
-                if (f.isFile() && !f.getName().equals("kis_image.png")) {
+                if (f.isFile() && !f.getName().equals(KeyguardImageService.IMAGE_FILE_NAME)) {
                     File outFile = new File(targetFilesDirPath + "/" + f.getName());
                     try {
                         Utils.copyFile(f, outFile);
@@ -0,0 +1,147 @@
+/*
+ * Copyright (C) 2019 Peter Gregus for GravityBox Project (C3C076@xda)
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ceco.q.gravitybox;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Separable stack blur (Mario Klingemann's algorithm) over ARGB int pixels.
+ * Horizontal and vertical passes are split into bands of lines processed in parallel
+ * on the common fork/join pool. Kernel weights form a tent which approximates
+ * gaussian blur of roughly the same radius as RenderScript's ScriptIntrinsicBlur.
+ */
+public class StackBlur {
+    private static final int MIN_LINES_PER_TASK = 32;
+    // keeps weighted channel sums within int range
+    public static final int MAX_RADIUS = 2048;
+
+    /**
+     * Blurs pixels in place
+     * @param pixels - ARGB pixels, row after row
+     * @param width - number of pixels in row
+     * @param height - number of rows
+     * @param radius - blur radius in pixels
+     */
+    public static void blur(int[] pixels, int width, int height, int radius) {
+        if (pixels.length < width * height) {
+            throw new IllegalArgumentException("Pixel array too small");
+        }
+        radius = Math.min(radius, MAX_RADIUS);
+        if (radius < 1 || width < 1 || height < 1) return;
+
+        ForkJoinPool pool = ForkJoinPool.commonPool();
+        final int minLines = Math.max(MIN_LINES_PER_TASK,
+                Math.max(width, height) / (pool.getParallelism() * 4));
+        pool.invoke(new BlurTask(pixels, width, height, radius, true, 0, height, minLines));
+        pool.invoke(new BlurTask(pixels, width, height, radius, false, 0, width, minLines));
+    }
+
+    private static class BlurTask extends RecursiveAction {
+        private final int[] mPixels;
+        private final int mWidth;
+        private final int mHeight;
+        private final int mRadius;
+        private final boolean mHorizontal;
+        private final int mFrom;
+        private final int mTo;
+        private final int mMinLines;
+
+        BlurTask(int[] pixels, int width, int height, int radius, boolean horizontal,
+                 int from, int to, int minLines) {
+            mPixels = pixels;
+            mWidth = width;
+            mHeight = height;
+            mRadius = radius;
+            mHorizontal = horizontal;
+            mFrom = from;
+            mTo = to;
+            mMinLines = minLines;
+        }
+
+        @Override
+        protected void compute() {
+            if (mTo - mFrom > mMinLines) {
+                final int mid = (mFrom + mTo) >>> 1;
+                invokeAll(new BlurTask(mPixels, mWidth, mHeight, mRadius, mHorizontal, mFrom, mid, mMinLines),
+                        new BlurTask(mPixels, mWidth, mHeight, mRadius, mHorizontal, mid, mTo, mMinLines));
+                return;
+            }
+
+            final int length = mHorizontal ? mWidth : mHeight;
+            final int stride = mHorizontal ? 1 : mWidth;
+            final int[] line = new int[length];
+            final int[] stack = new int[2 * mRadius + 1];
+            for (int i = mFrom; i < mTo; i++) {
+                blurLine(mPixels, mHorizontal ? i * mWidth : i, stride, length, mRadius, line, stack);
+            }
+        }
+    }
+
+    private static void blurLine(int[] pixels, int offset, int stride, int length, int radius,
+                                 int[] line, int[] stack) {
+        for (int i = 0, p = offset; i < length; i++, p += stride) {
+            line[i] = pixels[p];
+        }
+
+        final int div = 2 * radius + 1;
+        final int divSum = (radius + 1) * (radius + 1);
+        final int last = length - 1;
+        int sumA = 0, sumR = 0, sumG = 0, sumB = 0;
+        int inA = 0, inR = 0, inG = 0, inB = 0;
+        int outA = 0, outR = 0, outG = 0, outB = 0;
+
+        for (int i = -radius; i <= radius; i++) {
+            final int c = line[Math.min(last, Math.max(i, 0))];
+            stack[i + radius] = c;
+            final int weight = radius + 1 - Math.abs(i);
+            final int a = c >>> 24, r = (c >> 16) & 0xff, g = (c >> 8) & 0xff, b = c & 0xff;
+            sumA += a * weight;
+            sumR += r * weight;
+            sumG += g * weight;
+            sumB += b * weight;
+            if (i > 0) {
+                inA += a; inR += r; inG += g; inB += b;
+            } else {
+                outA += a; outR += r; outG += g; outB += b;
+            }
+        }
+
+        int stackPointer = radius;
+        for (int x = 0, p = offset; x < length; x++, p += stride) {
+            pixels[p] = (sumA / divSum) << 24 | (sumR / divSum) << 16 |
+                    (sumG / divSum) << 8 | (sumB / divSum);
+
+            sumA -= outA; sumR -= outR; sumG -= outG; sumB -= outB;
+
+            // replace leaving pixel with the one entering the kernel
+            final int start = (stackPointer + radius + 1) % div;
+            int c = stack[start];
+            outA -= c >>> 24; outR -= (c >> 16) & 0xff; outG -= (c >> 8) & 0xff; outB -= c & 0xff;
+
+            c = line[Math.min(x + radius + 1, last)];
+            stack[start] = c;
+            inA += c >>> 24; inR += (c >> 16) & 0xff; inG += (c >> 8) & 0xff; inB += c & 0xff;
+            sumA += inA; sumR += inR; sumG += inG; sumB += inB;
+
+            // center moves forward; its pixel changes side
+            stackPointer = (stackPointer + 1) % div;
+            c = stack[stackPointer];
+            final int a = c >>> 24, r = (c >> 16) & 0xff, g = (c >> 8) & 0xff, b = c & 0xff;
+            outA += a; outR += r; outG += g; outB += b;
+            inA -= a; inR -= r; inG -= g; inB -= b;
+        }
+    }
+}
@@ -14,9 +14,7 @@
  */
 package com.ceco.q.gravitybox;
 
-import java.text.SimpleDateFormat;
 import java.util.ArrayList;
-import java.util.Calendar;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Locale;
@@ -29,7 +27,6 @@ import de.robv.android.xposed.XSharedPreferences;
 import de.robv.android.xposed.XposedBridge;
 import de.robv.android.xposed.XposedHelpers;
 
-import android.annotation.SuppressLint;
 import android.content.Context;
 import android.content.Intent;
 import android.os.Handler;
@@ -62,7 +59,10 @@ public class StatusbarClock implements BroadcastMediator.Receiver {
     private float mDowSize;
     private float mAmPmSize;
     private boolean mShowSeconds;
-    private SimpleDateFormat mSecondsFormat;
+    private ClockTextBuilder mTextBuilder;
+    private RelativeSizeSpan mDowSpan;
+    private RelativeSizeSpan mAmPmSpan;
+    private final SpannableStringBuilder mClockText = new SpannableStringBuilder();
     private Handler mSecondsHandler;
     private List<Unhook> mHooks = new ArrayList<>();
     private Map<ClockPosition, ClockPositionInfo> mPositions;
@@ -236,7 +236,6 @@ public class StatusbarClock implements BroadcastMediator.Receiver {
     private void hookGetSmallTime() {
         try {
             mHooks.add(XposedHelpers.findAndHookMethod(mClock.getClass(), "getSmallTime", new XC_MethodHook() {
-                @SuppressLint("SimpleDateFormat")
                 @Override
                 protected void afterHookedMethod(MethodHookParam param) {
                     // is this a status bar Clock instance?
@@ -251,70 +250,25 @@ public class StatusbarClock implements BroadcastMediator.Receiver {
                         }
                         return;
                     }
-                    Calendar calendar = Calendar.getInstance(TimeZone.getDefault());
                     boolean is24 = DateFormat.is24HourFormat(mClock.getContext());
-                    String clockText = param.getResult().toString();
-                    if (DEBUG) log("Original clockText: '" + clockText + "'");
-                    // generate fresh base time text if seconds enabled
-                    if (mShowSeconds && sbClock != null) {
-                        if (mSecondsFormat == null) {
-                            mSecondsFormat = new SimpleDateFormat(
-                                    DateFormat.getBestDateTimePattern(
-                                    Locale.getDefault(), is24 ? "Hms" : "hms"));
-                        }
-                        clockText = mSecondsFormat.format(calendar.getTime());
-                        if (DEBUG) log("New clock text with seconds: " + clockText);
-                    }
-                    String amPm = calendar.getDisplayName(
-                            Calendar.AM_PM, Calendar.SHORT, Locale.getDefault());
-                    if (DEBUG) log("Locale specific AM/PM string: '" + amPm + "'");
-                    int amPmIndex = clockText.indexOf(amPm);
-                    if (DEBUG) log("Original AM/PM index: " + amPmIndex);
-                    if (mAmPmHide && amPmIndex != -1) {
-                        clockText = clockText.replace(amPm, "").trim();
-                        if (DEBUG) log("AM/PM removed. New clockText: '" + clockText + "'");
-                        amPmIndex = -1;
-                    } else if (!mAmPmHide && !is24 && amPmIndex == -1) {
-                        // insert AM/PM if missing
-                        if(Locale.getDefault().equals(Locale.TAIWAN) || Locale.getDefault().equals(Locale.CHINA)) {
-                            clockText = amPm + " " + clockText;
-                        } else {
-                            clockText += " " + amPm;
-                        }
-                        amPmIndex = clockText.indexOf(amPm);
-                        if (DEBUG) log("AM/PM added. New clockText: '" + clockText + "'; New AM/PM index: " + amPmIndex);
-                    }
-                    CharSequence date = "";
-                    // apply date to statusbar clock, not the notification panel clock
-                    if (!mClockShowDate.equals("disabled") && sbClock != null) {
-                        SimpleDateFormat df = (SimpleDateFormat) SimpleDateFormat.getDateInstance(SimpleDateFormat.SHORT);
-                        String pattern = mClockShowDate.equals("localized") ?
-                                df.toLocalizedPattern().replaceAll(".?[Yy].?", "") : mClockShowDate;
-                        date = new SimpleDateFormat(pattern, Locale.getDefault()).format(calendar.getTime()) + " ";
-                    }
-                    clockText = date + clockText;
-                    CharSequence dow = "";
-                    // apply day of week only to statusbar clock, not the notification panel clock
-                    if (mClockShowDow != GravityBoxSettings.DOW_DISABLED && sbClock != null) {
-                        dow = getFormattedDow(calendar.getDisplayName(
-                                Calendar.DAY_OF_WEEK, Calendar.SHORT, Locale.getDefault())) + " ";
+                    ClockTextBuilder builder = getTextBuilder(is24);
+                    if (DEBUG) log("Original clockText: '" + param.getResult() + "'");
+                    // apply day of week, date and seconds only to statusbar clock, not the notification panel clock
+                    CharSequence text = builder.build(System.currentTimeMillis(),
+                            (CharSequence) param.getResult(), sbClock != null,
+                            mShowSeconds && sbClock != null);
+
+                    SpannableStringBuilder sb = mClockText;
+                    sb.clearSpans();
+                    sb.clear();
+                    sb.append(text);
+                    if (builder.getAmPmStart() > -1) {
+                        sb.setSpan(mAmPmSpan, builder.getAmPmStart(), builder.getAmPmEnd(),
+                                Spannable.SPAN_EXCLUSIVE_INCLUSIVE);
                     }
-                    clockText = dow + clockText;
-                    SpannableStringBuilder sb = new SpannableStringBuilder(clockText);
-                    sb.setSpan(new RelativeSizeSpan(mDowSize), 0, dow.length() + date.length(),
-                            Spannable.SPAN_EXCLUSIVE_INCLUSIVE);
-                    if (amPmIndex > -1) {
-                        if(Locale.getDefault().equals(Locale.TAIWAN) || Locale.getDefault().equals(Locale.CHINA)) {
-                            sb.setSpan(new RelativeSizeSpan(mAmPmSize), dow.length() + date.length() + amPmIndex,
-                                    dow.length() + date.length() + amPmIndex + amPm.length(),
-                                    Spannable.SPAN_EXCLUSIVE_INCLUSIVE);
-                        } else {
-                            int offset = Character.isWhitespace(clockText.charAt(dow.length() + date.length() + amPmIndex - 1)) ?
-                                    1 : 0;
-                            sb.setSpan(new RelativeSizeSpan(mAmPmSize), dow.length() + date.length() + amPmIndex - offset,
-                                    dow.length() + date.length() + amPmIndex + amPm.length(),
-                                    Spannable.SPAN_EXCLUSIVE_INCLUSIVE);
-                        }
+                    if (builder.getPrefixEnd() > 0) {
+                        sb.setSpan(mDowSpan, 0, builder.getPrefixEnd(),
+                                Spannable.SPAN_EXCLUSIVE_EXCLUSIVE);
                     }
                     if (DEBUG) log("Final clockText: '" + sb + "'");
                     param.setResult(sb);
@@ -325,15 +279,20 @@ public class StatusbarClock implements BroadcastMediator.Receiver {
         }
     }
 
-    private String getFormattedDow(String inDow) {
-        switch (mClockShowDow) {
-            case GravityBoxSettings.DOW_LOWERCASE: 
-                return inDow.toLowerCase(Locale.getDefault());
-            case GravityBoxSettings.DOW_UPPERCASE:
-                return inDow.toUpperCase(Locale.getDefault());
-            case GravityBoxSettings.DOW_STANDARD:
-            default: return inDow;
+    private ClockTextBuilder getTextBuilder(boolean is24) {
+        Locale locale = Locale.getDefault();
+        ClockTextBuilder builder = mTextBuilder;
+        if (builder != null && builder.is24 == is24 && builder.locale.equals(locale)) {
+            return builder;
         }
+
+        builder = new ClockTextBuilder(locale, TimeZone.getDefault(), is24,
+                DateFormat.getBestDateTimePattern(locale, is24 ? "Hms" : "hms"),
+                mClockShowDate, mClockShowDow, mAmPmHide);
+        mDowSpan = new RelativeSizeSpan(mDowSize);
+        mAmPmSpan = new RelativeSizeSpan(mAmPmSize);
+        mTextBuilder = builder;
+        return builder;
     }
 
     public void destroy() {
@@ -365,6 +324,7 @@ public class StatusbarClock implements BroadcastMediator.Receiver {
     @Override
     public void onBroadcastReceived(Context context, Intent intent) {
         if (intent.getAction().equals(GravityBoxSettings.ACTION_PREF_CLOCK_CHANGED)) {
+            mTextBuilder = null;
             if (intent.hasExtra(GravityBoxSettings.EXTRA_CLOCK_DOW)) {
                 mClockShowDow = intent.getIntExtra(GravityBoxSettings.EXTRA_CLOCK_DOW,
                         GravityBoxSettings.DOW_DISABLED);
@@ -410,7 +370,7 @@ public class StatusbarClock implements BroadcastMediator.Receiver {
         if (intent.getAction().equals(Intent.ACTION_CONFIGURATION_CHANGED) ||
             intent.getAction().equals(Intent.ACTION_TIME_CHANGED) ||
             intent.getAction().equals(Intent.ACTION_TIMEZONE_CHANGED)) {
-            mSecondsFormat = null;
+            mTextBuilder = null;
         }
     }
 }
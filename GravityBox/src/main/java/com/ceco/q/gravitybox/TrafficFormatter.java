@@ -0,0 +1,151 @@
+/*
+ * Copyright (C) 2019 Peter Gregus for GravityBox Project (C3C076@xda)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ceco.q.gravitybox;
+
+import java.text.DecimalFormatSymbols;
+
+/**
+ * Builds traffic labels into a reused char buffer without intermediate allocations.
+ * Numbers are rendered using digits and separators of the default locale
+ * to match output of DecimalFormat/NumberFormat.
+ */
+public class TrafficFormatter {
+    private static final int GROUPING_SIZE = 3;
+
+    private final char mZeroDigit;
+    private final char mDecimalSeparator;
+    private final char mGroupingSeparator;
+    private final char[] mDigits = new char[20];
+    private char[] mChars = new char[32];
+    private int mLength;
+
+    public TrafficFormatter() {
+        DecimalFormatSymbols symbols = DecimalFormatSymbols.getInstance();
+        mZeroDigit = symbols.getZeroDigit();
+        mDecimalSeparator = symbols.getDecimalSeparator();
+        mGroupingSeparator = symbols.getGroupingSeparator();
+    }
+
+    public TrafficFormatter clear() {
+        mLength = 0;
+        return this;
+    }
+
+    public int length() {
+        return mLength;
+    }
+
+    private void ensureCapacity(int capacity) {
+        if (capacity > mChars.length) {
+            char[] chars = new char[Math.max(capacity, mChars.length * 2)];
+            System.arraycopy(mChars, 0, chars, 0, mLength);
+            mChars = chars;
+        }
+    }
+
+    public TrafficFormatter append(char c) {
+        ensureCapacity(mLength + 1);
+        mChars[mLength++] = c;
+        return this;
+    }
+
+    public TrafficFormatter append(String s) {
+        final int len = s.length();
+        ensureCapacity(mLength + len);
+        s.getChars(0, len, mChars, mLength);
+        mLength += len;
+        return this;
+    }
+
+    /**
+     * Appends non-negative integer value
+     * @param value - value to append
+     * @param grouping - whether to insert grouping separators
+     */
+    public TrafficFormatter appendInteger(long value, boolean grouping) {
+        if (value < 0) {
+            append('-');
+            value = -value;
+        }
+        int n = 0;
+        do {
+            mDigits[n++] = (char) (mZeroDigit + (int) (value % 10));
+            value /= 10;
+        } while (value > 0);
+
+        ensureCapacity(mLength + n * 2);
+        for (int i = n - 1; i >= 0; i--) {
+            mChars[mLength++] = mDigits[i];
+            if (grouping && i > 0 && i % GROUPING_SIZE == 0) {
+                mChars[mLength++] = mGroupingSeparator;
+            }
+        }
+        return this;
+    }
+
+    /**
+     * Appends numerator / denominator rounded half-even to one fractional digit
+     * like DecimalFormat does
+     * @param forceFraction - true to always show fraction ("##0.0"),
+     *                        false to omit zero fraction ("##0.#")
+     * @param maxIntegerDigits - maximum number of integer digits to keep or 0 for no limit
+     */
+    public TrafficFormatter appendDecimal(long numerator, long denominator,
+                                          boolean forceFraction, int maxIntegerDigits) {
+        long tenths = numerator * 10 / denominator;
+        final long remainder = numerator * 10 % denominator;
+        if (remainder * 2 > denominator || (remainder * 2 == denominator && tenths % 2 != 0)) {
+            tenths++;
+        }
+        long integer = tenths / 10;
+        int fraction = (int) (tenths % 10);
+        if (maxIntegerDigits > 0) {
+            long limit = 1;
+            for (int i = 0; i < maxIntegerDigits; i++) limit *= 10;
+            integer %= limit;
+        }
+        appendInteger(integer, false);
+        if (forceFraction || fraction != 0) {
+            append(mDecimalSeparator);
+            append((char) (mZeroDigit + fraction));
+        }
+        return this;
+    }
+
+    public boolean contentEquals(TrafficFormatter other) {
+        if (mLength != other.mLength) {
+            return false;
+        }
+        for (int i = 0; i < mLength; i++) {
+            if (mChars[i] != other.mChars[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public void copyTo(TrafficFormatter other) {
+        other.ensureCapacity(mLength);
+        System.arraycopy(mChars, 0, other.mChars, 0, mLength);
+        other.mLength = mLength;
+    }
+
+    @Override
+    public String toString() {
+        return new String(mChars, 0, mLength);
+    }
+}
@@ -19,13 +19,8 @@ package com.ceco.q.gravitybox;
 
 import android.content.Context;
 import android.content.Intent;
-import android.os.Handler;
 import android.os.SystemClock;
 import android.util.TypedValue;
-import android.view.View;
-
-import java.text.DecimalFormat;
-import java.text.NumberFormat;
 
 import de.robv.android.xposed.XSharedPreferences;
 
@@ -34,20 +29,37 @@ public class TrafficMeter extends TrafficMeterAbstract {
     public static final int INACTIVITY_MODE_HIDDEN = 1;
     public static final int INACTIVITY_MODE_SUMMARY = 2;
 
-    boolean mTrafficMeterHide;
-    int mTrafficMeterSummaryTime;
-    long mTotalRxBytes;
-    long mLastUpdateTime;
+    // settings used by sampler thread; replaced as a whole on UI thread
+    volatile Config mConfig = new Config(INACTIVITY_MODE_DEFAULT, "B", "KB", "MB", "s");
+    volatile boolean mResetBurst;
+    // accessed on sampler thread only
     long mTrafficBurstStartTime;
-    long mTrafficBurstStartBytes;
-    long mKeepOnUntil = Long.MIN_VALUE;
-    String mB = "B";
-    String mKB = "KB";
-    String mMB = "MB";
-    String mS = "s";
+    long mTrafficBurstBytes;
+    final TrafficFormatter mFormatter = new TrafficFormatter();
+
+    static final class Config {
+        final boolean hide;
+        final int summaryTime;
+        final String b, kb, mb, s;
+        final String bps, kbps, mbps;
+
+        Config(int inactivityMode, String b, String kb, String mb, String s) {
+            hide = inactivityMode == INACTIVITY_MODE_HIDDEN ||
+                    inactivityMode == INACTIVITY_MODE_SUMMARY;
+            summaryTime = inactivityMode == INACTIVITY_MODE_SUMMARY ? 3000 : 0;
+            this.b = b;
+            this.kb = kb;
+            this.mb = mb;
+            this.s = s;
+            bps = b + "/" + s;
+            kbps = kb + "/" + s;
+            mbps = mb + "/" + s;
+        }
 
-    NumberFormat mDecimalFormat = new DecimalFormat("##0.0");
-    NumberFormat mIntegerFormat = NumberFormat.getIntegerInstance();
+        Config withInactivityMode(int inactivityMode) {
+            return new Config(inactivityMode, b, kb, mb, s);
+        }
+    }
 
     public TrafficMeter(Context context) {
         super(context);
@@ -56,19 +68,20 @@ public class TrafficMeter extends TrafficMeterAbstract {
     @Override
     protected void onInitialize(XSharedPreferences prefs) throws Throwable {
         Context gbContext = Utils.getGbContext(getContext());
-        mB = gbContext.getString(R.string.byte_abbr);
-        mKB = gbContext.getString(R.string.kilobyte_abbr);
-        mMB = gbContext.getString(R.string.megabyte_abbr);
-        mS = gbContext.getString(R.string.second_abbr);
-
+        int inactivityMode = INACTIVITY_MODE_DEFAULT;
         try {
-            int inactivityMode = Integer.valueOf(prefs.getString(
+            inactivityMode = Integer.valueOf(prefs.getString(
                     GravityBoxSettings.PREF_KEY_DATA_TRAFFIC_INACTIVITY_MODE, "0"));
-            setInactivityMode(inactivityMode);
         } catch (NumberFormatException nfe) {
             log("Invalid preference value for PREF_KEY_DATA_TRAFFIC_INACTIVITY_MODE");
         }
 
+        mConfig = new Config(inactivityMode,
+                gbContext.getString(R.string.byte_abbr),
+                gbContext.getString(R.string.kilobyte_abbr),
+                gbContext.getString(R.string.megabyte_abbr),
+                gbContext.getString(R.string.second_abbr));
+
         setTextSize(TypedValue.COMPLEX_UNIT_DIP, mSize);
     }
 
@@ -78,133 +91,87 @@ public class TrafficMeter extends TrafficMeterAbstract {
             setTextSize(TypedValue.COMPLEX_UNIT_DIP, mSize);
         }
         if (intent.hasExtra(GravityBoxSettings.EXTRA_DT_INACTIVITY_MODE)) {
-            setInactivityMode(intent.getIntExtra(
+            mConfig = mConfig.withInactivityMode(intent.getIntExtra(
                     GravityBoxSettings.EXTRA_DT_INACTIVITY_MODE, 0));
         }
     }
 
     @Override
     protected void startTrafficUpdates() {
-        mTotalRxBytes = getTotalRxTxBytes()[0];
-        mLastUpdateTime = SystemClock.elapsedRealtime();
-        mTrafficBurstStartTime = Long.MIN_VALUE;
-
-        getHandler().removeCallbacks(mRunnable);
-        getHandler().post(mRunnable);
+        mResetBurst = true;
+        TrafficSampler.getInstance().attach(this);
     }
 
     @Override
     protected void stopTrafficUpdates() {
-        final Handler h = getHandler();
-        if (h != null && mRunnable != null) {
-            h.removeCallbacks(mRunnable);
-        }
+        TrafficSampler.getInstance().detach(this);
+        cancelSampleResult();
     }
 
-    private String formatTraffic(long bytes, boolean speed) {
+    private void formatTraffic(TrafficFormatter out, Config config, long bytes, boolean speed) {
+        out.clear();
+        if (!speed) {
+            out.append('(');
+        }
         if (bytes > 10485760) { // 1024 * 1024 * 10
-            return (speed ? "" : "(")
-                    + mIntegerFormat.format(bytes / 1048576)
-                    + (speed ? mMB + "/" + mS : mMB + ")");
+            out.appendInteger(bytes / 1048576, true)
+                    .append(speed ? config.mbps : config.mb);
         } else if (bytes > 1048576) { // 1024 * 1024
-            return (speed ? "" : "(")
-                    + mDecimalFormat.format(((float) bytes) / 1048576f)
-                    + (speed ? mMB + "/" + mS : mMB + ")");
+            out.appendDecimal(bytes, 1048576, true, 0)
+                    .append(speed ? config.mbps : config.mb);
         } else if (bytes > 10240) { // 1024 * 10
-            return (speed ? "" : "(")
-                    + mIntegerFormat.format(bytes / 1024)
-                    + (speed ? mKB + "/" + mS : mKB + ")");
+            out.appendInteger(bytes / 1024, true)
+                    .append(speed ? config.kbps : config.kb);
         } else if (bytes > 1024) { // 1024
-            return (speed ? "" : "(")
-                    + mDecimalFormat.format(((float) bytes) / 1024f)
-                    + (speed ? mKB + "/" + mS : mKB + ")");
+            out.appendDecimal(bytes, 1024, true, 0)
+                    .append(speed ? config.kbps : config.kb);
         } else {
-            return (speed ? "" : "(")
-                    + mIntegerFormat.format(bytes)
-                    + (speed ? mB + "/" + mS : mB + ")");
+            out.appendInteger(bytes, true)
+                    .append(speed ? config.bps : config.b);
+        }
+        if (!speed) {
+            out.append(')');
         }
     }
 
-    Runnable mRunnable = new Runnable() {
-        @Override
-        public void run() {
-            long td = SystemClock.elapsedRealtime() - mLastUpdateTime;
+    @Override
+    public void onTrafficSampled(long rxBytes, long txBytes, long timeDelta) {
+        final Config config = mConfig;
+        if (mResetBurst) {
+            mResetBurst = false;
+            mTrafficBurstBytes = 0;
+            mTrafficBurstStartTime = Long.MIN_VALUE;
+        }
 
-            if (!mAttached) {
-                return;
-            }
+        boolean hasText = false;
+        long keepVisibleUntil = Long.MIN_VALUE;
+        boolean idle = config.hide && rxBytes == 0;
 
-            long currentRxBytes = getTotalRxTxBytes()[0];
-            long newBytes = currentRxBytes - mTotalRxBytes;
+        if (idle) {
+            if (mTrafficBurstBytes != 0 && config.summaryTime != 0) {
+                formatTraffic(mFormatter, config, mTrafficBurstBytes, false);
+                hasText = true;
 
-            boolean disconnected = false;
-            if (canReadFromFile() && newBytes < 0) {
-                // It's impossible to get a speed under 0
-                currentRxBytes = 0;
-                newBytes = 0;
-                disconnected = true;
+                if (DEBUG) log("Traffic burst ended: " + mTrafficBurstBytes + "B in "
+                                + (SystemClock.elapsedRealtime() - mTrafficBurstStartTime)
+                                / 1000 + "s");
+                keepVisibleUntil = SystemClock.elapsedRealtime() + config.summaryTime;
             }
-
-            if (mTrafficMeterHide && newBytes == 0) {
-                long trafficBurstBytes = (canReadFromFile() && disconnected) ?
-                        mTotalRxBytes - mTrafficBurstStartBytes : 
-                            currentRxBytes - mTrafficBurstStartBytes;
-
-                if (trafficBurstBytes != 0 && mTrafficMeterSummaryTime != 0) {
-                    setText(formatTraffic(trafficBurstBytes, false));
-
-                    if (DEBUG) log("Traffic burst ended: " + trafficBurstBytes + "B in "
-                                    + (SystemClock.elapsedRealtime() - mTrafficBurstStartTime)
-                                    / 1000 + "s");
-                    mKeepOnUntil = SystemClock.elapsedRealtime() + mTrafficMeterSummaryTime;
-                    mTrafficBurstStartTime = Long.MIN_VALUE;
-                    mTrafficBurstStartBytes = currentRxBytes;
-                }
-            } else {
-                if (mTrafficMeterHide && mTrafficBurstStartTime == Long.MIN_VALUE) {
-                    mTrafficBurstStartTime = mLastUpdateTime;
-                    mTrafficBurstStartBytes = mTotalRxBytes;
-                }
-                if (td > 0) {
-                    setText(formatTraffic(newBytes * 1000 / td, true));
+            mTrafficBurstBytes = 0;
+            mTrafficBurstStartTime = Long.MIN_VALUE;
+        } else {
+            if (config.hide) {
+                if (mTrafficBurstStartTime == Long.MIN_VALUE) {
+                    mTrafficBurstStartTime = SystemClock.elapsedRealtime() - timeDelta;
                 }
+                mTrafficBurstBytes += rxBytes;
             }
-
-            // Hide if there is no traffic
-            if (mTrafficMeterHide && newBytes == 0) {
-                if (getVisibility() != GONE
-                        && mKeepOnUntil < SystemClock.elapsedRealtime()) {
-                    setText("");
-                    setVisibility(View.GONE);
-                }
-            } else {
-                if (getVisibility() != VISIBLE) {
-                    setVisibility(View.VISIBLE);
-                }
+            if (timeDelta > 0) {
+                formatTraffic(mFormatter, config, rxBytes * 1000 / timeDelta, true);
+                hasText = true;
             }
-
-            mTotalRxBytes = (canReadFromFile() && disconnected) ? 
-                    mTotalRxBytes : currentRxBytes;
-            mLastUpdateTime = SystemClock.elapsedRealtime();
-            getHandler().postDelayed(mRunnable, mInterval);
-        }
-    };
-
-    private void setInactivityMode(int mode) {
-        switch (mode) {
-            case INACTIVITY_MODE_HIDDEN:
-                mTrafficMeterHide = true;
-                mTrafficMeterSummaryTime = 0;
-                break;
-            case INACTIVITY_MODE_SUMMARY:
-                mTrafficMeterHide = true;
-                mTrafficMeterSummaryTime = 3000;
-                break;
-            case INACTIVITY_MODE_DEFAULT:
-            default:
-                mTrafficMeterHide = false;
-                mTrafficMeterSummaryTime = 0;
-                break;
         }
+
+        postSampleResult(hasText ? mFormatter : null, 0, idle, keepVisibleUntil);
     }
 }
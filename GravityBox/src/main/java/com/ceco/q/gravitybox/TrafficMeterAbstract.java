@@ -16,10 +16,7 @@
 
 package com.ceco.q.gravitybox;
 
-import java.io.BufferedReader;
-import java.io.File;
-import java.io.FileReader;
-import java.io.IOException;
+import java.util.concurrent.atomic.AtomicReference;
 
 import com.ceco.q.gravitybox.ProgressBarController.Mode;
 import com.ceco.q.gravitybox.ProgressBarController.ProgressInfo;
@@ -35,7 +32,7 @@ import android.content.Intent;
 import android.content.IntentFilter;
 import android.net.ConnectivityManager;
 import android.net.NetworkInfo;
-import android.net.TrafficStats;
+import android.os.SystemClock;
 import android.telephony.PhoneStateListener;
 import android.telephony.TelephonyManager;
 import android.util.TypedValue;
@@ -50,7 +47,8 @@ import de.robv.android.xposed.XposedBridge;
 @SuppressLint("AppCompatCustomView")
 public abstract class TrafficMeterAbstract extends TextView
                         implements BroadcastMediator.Receiver, IconManagerListener,
-                                   ProgressBarController.ProgressStateListener {
+                                   ProgressBarController.ProgressStateListener,
+                                   TrafficSampler.Listener {
     protected static final String PACKAGE_NAME = "com.android.systemui";
     protected static final String TAG = "GB:NetworkTraffic";
     protected static final boolean DEBUG = false;
@@ -74,9 +72,35 @@ public abstract class TrafficMeterAbstract extends TextView
     protected boolean mShowOnlyForMobileData;
     protected boolean mIsTrackingProgress;
     protected boolean mAllowInLockscreen;
-    private Boolean mCanReadFromFile;
     private boolean mHiddenByPolicy;
     private boolean mHiddenByHeadsUp;
+    private final AtomicReference<SampleResult> mPendingResult = new AtomicReference<>();
+    private String mShownText = "";
+    private int mShownTextSize;
+    private long mKeepVisibleUntil = Long.MIN_VALUE;
+    // last posted result and its text; accessed on sampler thread only
+    private SampleResult mPostedResult;
+    private final TrafficFormatter mPostedText = new TrafficFormatter();
+
+    /**
+     * Outcome of a single sample prepared on sampler thread for display
+     */
+    protected static final class SampleResult {
+        // text to show or null to keep current one
+        final String text;
+        // text size in px or 0 to keep current one
+        final int textSize;
+        // true to hide the view once keepVisibleUntil elapses
+        final boolean hide;
+        final long keepVisibleUntil;
+
+        SampleResult(String text, int textSize, boolean hide, long keepVisibleUntil) {
+            this.text = text;
+            this.textSize = textSize;
+            this.hide = hide;
+            this.keepVisibleUntil = keepVisibleUntil;
+        }
+    }
 
     protected static void log(String message) {
         XposedBridge.log(TAG + ": " + message);
@@ -307,7 +331,7 @@ public abstract class TrafficMeterAbstract extends TextView
         } else {
             stopTrafficUpdates();
             setVisibility(View.GONE);
-            setText("");
+            clearText();
             if (DEBUG) log("traffic updates stopped");
         }
     }
@@ -343,70 +367,80 @@ public abstract class TrafficMeterAbstract extends TextView
     @Override
     public void onProgressPreferencesChanged(Intent intent) { }
 
-    protected abstract void onInitialize(XSharedPreferences prefs) throws Throwable;
-    protected abstract void onPreferenceChanged(Intent intent);
-    protected abstract void startTrafficUpdates();
-    protected abstract void stopTrafficUpdates();
-
-    protected boolean canReadFromFile() {
-        if (mCanReadFromFile == null) {
-            File f = new File("/proc/net/xt_qtaguid/iface_stat_fmt");
-            mCanReadFromFile = (f.exists() && f.canRead());
-        }
-        return mCanReadFromFile;
+    @Override
+    public int getSampleInterval() {
+        return mInterval;
     }
 
-    protected long[] getTotalRxTxBytes() {
-        return (canReadFromFile() ? getTotalRxTxBytesFromFile() :
-            getTotalRxTxBytesFromStats());
+    /**
+     * Hands over result of a sample for display; called on sampler thread.
+     * New result is created only when it differs from the previous one.
+     * @param text - formatted text or null to keep current one
+     */
+    protected void postSampleResult(TrafficFormatter text, int textSize,
+                                    boolean hide, long keepVisibleUntil) {
+        SampleResult result = mPostedResult;
+        if (result == null || result.textSize != textSize || result.hide != hide
+                || result.keepVisibleUntil != keepVisibleUntil
+                || (text == null ? result.text != null :
+                        result.text == null || !text.contentEquals(mPostedText))) {
+            String str = null;
+            if (text != null) {
+                text.copyTo(mPostedText);
+                str = text.toString();
+            }
+            result = new SampleResult(str, textSize, hide, keepVisibleUntil);
+            mPostedResult = result;
+        }
+        mPendingResult.set(result);
+        post(mApplyResultRunnable);
     }
 
-    private static boolean isCountedInterface(String iface) {
-        return (iface != null &&
-                !iface.equals("ifname") &&
-                !iface.equals("lo") &&
-                !iface.startsWith("tun"));
-    }
+    // applies result of the last sample; runs on UI thread
+    private final Runnable mApplyResultRunnable = new Runnable() {
+        @Override
+        public void run() {
+            final SampleResult result = mPendingResult.getAndSet(null);
+            if (result == null || !mAttached) {
+                return;
+            }
 
-    private static long tryParseLong(String obj) {
-        try {
-            return Long.parseLong(obj);
-        } catch (Exception e) {
-            return 0;
-        }
-    }
+            mKeepVisibleUntil = Math.max(mKeepVisibleUntil, result.keepVisibleUntil);
+            if (result.text != null) {
+                if (result.textSize > 0 && result.textSize != mShownTextSize) {
+                    mShownTextSize = result.textSize;
+                    setTextSize(TypedValue.COMPLEX_UNIT_PX, result.textSize);
+                }
+                if (!result.text.equals(mShownText)) {
+                    mShownText = result.text;
+                    setText(mShownText);
+                }
+            }
 
-    private static long[] getTotalRxTxBytesFromFile() {
-        String line;
-        String[] segs;
-        BufferedReader in = null;
-        long[] bytes = new long[] { 0, 0 };
-        try {
-            FileReader fr = new FileReader("/proc/net/xt_qtaguid/iface_stat_fmt");
-            in = new BufferedReader(fr);
-            while ((line = in.readLine()) != null) {
-                segs = line.split(" ");
-                if (segs.length < 4)
-                    throw new UnsupportedOperationException("Unsupported length of net params");
-
-                if (isCountedInterface(segs[0])) {
-                    if (DEBUG) log("iface:"+segs[0]+"; RX="+segs[1]+"; TX="+segs[3]);
-                    bytes[0] += tryParseLong(segs[1]);
-                    bytes[1] += tryParseLong(segs[3]);
+            if (result.hide) {
+                if (getVisibility() != GONE
+                        && mKeepVisibleUntil < SystemClock.elapsedRealtime()) {
+                    clearText();
+                    setVisibility(View.GONE);
                 }
+            } else if (getVisibility() != VISIBLE) {
+                setVisibility(View.VISIBLE);
             }
-        } catch (Throwable t) {
-            GravityBox.log(TAG, t);
-            // fallback to TrafficStats
-            bytes = getTotalRxTxBytesFromStats();
-        } finally {
-            if (in != null) try { in.close(); } catch(IOException ignored) {}
         }
-        return bytes;
+    };
+
+    protected void cancelSampleResult() {
+        mPendingResult.set(null);
+        removeCallbacks(mApplyResultRunnable);
     }
 
-    private static long[] getTotalRxTxBytesFromStats() {
-        return new long[] { TrafficStats.getTotalRxBytes(),
-                TrafficStats.getTotalTxBytes() };
+    protected void clearText() {
+        mShownText = "";
+        setText("");
     }
+
+    protected abstract void onInitialize(XSharedPreferences prefs) throws Throwable;
+    protected abstract void onPreferenceChanged(Intent intent);
+    protected abstract void startTrafficUpdates();
+    protected abstract void stopTrafficUpdates();
 }
@@ -17,7 +17,6 @@
 
 package com.ceco.q.gravitybox;
 
-import java.text.DecimalFormat;
 import java.util.HashMap;
 import java.util.Map;
 
@@ -25,27 +24,20 @@ import com.ceco.q.gravitybox.managers.SysUiStatusBarIconManager;
 import com.ceco.q.gravitybox.managers.SysUiStatusBarIconManager.ColorInfo;
 
 import de.robv.android.xposed.XSharedPreferences;
-import android.annotation.SuppressLint;
 import android.content.Context;
 import android.content.Intent;
 import android.content.res.ColorStateList;
 import android.content.res.Resources;
 import android.graphics.drawable.Drawable;
-import android.os.Handler;
-import android.os.Message;
-import android.os.SystemClock;
 import android.util.TypedValue;
-import android.view.View;
 
 public class TrafficMeterOmni extends TrafficMeterAbstract {
     private static final int KILOBYTE = 1024;
 
-    private static DecimalFormat decimalFormat = new DecimalFormat("##0.#");
+    private static final int MAX_INTEGER_DIGITS = 4;
+
     private static final Map<String,String> SYMBOLS;
     static {
-        decimalFormat.setMaximumIntegerDigits(4);
-        decimalFormat.setMaximumFractionDigits(1);
-
         SYMBOLS = new HashMap<>();
         SYMBOLS.put("b/s", "b/s");
         SYMBOLS.put("B/s", "B/s");
@@ -56,117 +48,114 @@ public class TrafficMeterOmni extends TrafficMeterAbstract {
 
     private enum Mode { IN, OUT, IN_OUT }
 
-    private long[] totalRxTxBytes = new long[] { 0, 0 };
-    private long lastUpdateTime;
     private int txtSizeSingle;
     private int txtSizeMulti;
-    private int KB = KILOBYTE;
-    private int MB = KB * KB;
-    private int GB = MB * KB;
+    private final int KB = KILOBYTE;
+    private final int MB = KB * KB;
+    private final int GB = MB * KB;
     private Mode mMode;
     private int mIconColor;
     private boolean mShowIcon;
     private boolean mAutoHide;
     private int mAutoHideThreshold;
+    private String[] mByteSuffixes = createSuffixes(SYMBOLS.get("B/s"));
+    private String[] mBitSuffixes = createSuffixes(SYMBOLS.get("b/s"));
+    // settings used by sampler thread; replaced as a whole on UI thread
+    private volatile Config mConfig;
+    // accessed on sampler thread only
+    private final TrafficFormatter mFormatter = new TrafficFormatter();
 
-    @SuppressLint("HandlerLeak")
-    private Handler mTrafficHandler = new Handler() {
-        @Override
-        public void handleMessage(Message msg) {
-            long timeDelta = SystemClock.elapsedRealtime() - lastUpdateTime;
-
-            if (timeDelta < mInterval * .95) {
-                if (msg.what != 1) {
-                    // we just updated the view, nothing further to do
-                    return;
-                }
-                if (timeDelta < 1) {
-                    // Can't div by 0 so make sure the value displayed is minimal
-                    timeDelta = Long.MAX_VALUE;
-                }
-            }
-            lastUpdateTime = SystemClock.elapsedRealtime();
-
-            // Calculate the data rate from the change in total bytes and time
-            long[] newTotalRxTxBytes = getTotalRxTxBytes();
-            long rxData = newTotalRxTxBytes[0] - totalRxTxBytes[0];
-            long txData = newTotalRxTxBytes[1] - totalRxTxBytes[1];
-
-            if (shouldHide(rxData, txData, timeDelta)) {
-                setText("");
-                setVisibility(View.GONE);
-            } else {
-                // If bit/s convert from Bytes to bits
-                String symbol;
-                if (KB == KILOBYTE) {
-                    symbol = SYMBOLS.get("B/s");
-                } else {
-                    symbol = SYMBOLS.get("b/s");
-                    rxData = rxData * 8;
-                    txData = txData * 8;
-                }
-
-                // Get information for uplink ready so the line return can be added
-                String output = "";
-                if (mMode == Mode.OUT || mMode == Mode.IN_OUT) {
-                    output = formatOutput(timeDelta, txData, symbol);
-                }
-    
-                // Ensure text size is where it needs to be
-                int textSize;
-                if (mMode == Mode.IN_OUT) {
-                    output += "\n";
-                    textSize = txtSizeMulti;
-                } else {
-                    textSize = txtSizeSingle;
-                }
-    
-                // Add information for downlink if it's called for
-                if (mMode == Mode.IN || mMode == Mode.IN_OUT) {
-                    output += formatOutput(timeDelta, rxData, symbol);
-                }
-    
-                // Update view if there's anything new to show
-                if (!output.contentEquals(getText()) || msg.what == 1) {
-                    setTextSize(TypedValue.COMPLEX_UNIT_PX, (float)textSize);
-                    setText(output);
-                }
-                setVisibility(View.VISIBLE);
-            }
+    private static final class Config {
+        final Mode mode;
+        final boolean autoHide;
+        final int autoHideThreshold;
+        final int txtSizeSingle;
+        final int txtSizeMulti;
+        final String[] byteSuffixes;
+        final String[] bitSuffixes;
 
-            // Post delayed message to refresh in ~1000ms
-            totalRxTxBytes[0] = newTotalRxTxBytes[0];
-            totalRxTxBytes[1] = newTotalRxTxBytes[1];
-            clearHandlerCallbacks();
-            mTrafficHandler.postDelayed(mRunnable, mInterval);
+        Config(TrafficMeterOmni meter) {
+            mode = meter.mMode;
+            autoHide = meter.mAutoHide;
+            autoHideThreshold = meter.mAutoHideThreshold;
+            txtSizeSingle = meter.txtSizeSingle;
+            txtSizeMulti = meter.txtSizeMulti;
+            byteSuffixes = meter.mByteSuffixes;
+            bitSuffixes = meter.mBitSuffixes;
         }
+    }
 
-        private String formatOutput(long timeDelta, long data, String symbol) {
-            long speed = (long)(data / (timeDelta / 1000F));
-            if (speed < KB) {
-                return decimalFormat.format(speed) + symbol;
-            } else if (speed < MB) {
-                return decimalFormat.format(speed / (float)KB) + SYMBOLS.get("k") + symbol;
-            } else if (speed < GB) {
-                return decimalFormat.format(speed / (float)MB) + SYMBOLS.get("M") + symbol;
-            }
-            return decimalFormat.format(speed / (float)GB) + SYMBOLS.get("G") + symbol;
+    @Override
+    public void onTrafficSampled(long rxData, long txData, long timeDelta) {
+        final Config config = mConfig;
+        if (config == null) return;
+
+        if (timeDelta < 1) {
+            // Can't div by 0 so make sure the value displayed is minimal
+            timeDelta = Long.MAX_VALUE;
+        }
+
+        if (shouldHide(config, rxData, txData, timeDelta)) {
+            postSampleResult(null, 0, true, Long.MIN_VALUE);
+            return;
+        }
+
+        // If bit/s convert from Bytes to bits
+        String[] suffixes;
+        if (KB == KILOBYTE) {
+            suffixes = config.byteSuffixes;
+        } else {
+            suffixes = config.bitSuffixes;
+            rxData = rxData * 8;
+            txData = txData * 8;
+        }
+
+        // Get information for uplink ready so the line return can be added
+        mFormatter.clear();
+        if (config.mode == Mode.OUT || config.mode == Mode.IN_OUT) {
+            formatOutput(mFormatter, timeDelta, txData, suffixes);
+        }
+
+        // Ensure text size is where it needs to be
+        int textSize;
+        if (config.mode == Mode.IN_OUT) {
+            mFormatter.append('\n');
+            textSize = config.txtSizeMulti;
+        } else {
+            textSize = config.txtSizeSingle;
         }
 
-        private boolean shouldHide(long rxData, long txData, long timeDelta) {
-            long speedTxKB = (long)(txData / (timeDelta / 1000f)) / KILOBYTE;
-            long speedRxKB = (long)(rxData / (timeDelta / 1000f)) / KILOBYTE;
-            return mAutoHide &&
-                   (mMode == Mode.IN && speedRxKB <= mAutoHideThreshold ||
-                   mMode == Mode.OUT && speedTxKB <= mAutoHideThreshold ||
-                   mMode == Mode.IN_OUT && 
-                       speedRxKB <= mAutoHideThreshold && 
-                       speedTxKB <= mAutoHideThreshold);
-                    
+        // Add information for downlink if it's called for
+        if (config.mode == Mode.IN || config.mode == Mode.IN_OUT) {
+            formatOutput(mFormatter, timeDelta, rxData, suffixes);
         }
-    };
 
-    private Runnable mRunnable = () -> mTrafficHandler.sendEmptyMessage(0);
+        postSampleResult(mFormatter, textSize, false, Long.MIN_VALUE);
+    }
+
+    private void formatOutput(TrafficFormatter out, long timeDelta, long data, String[] suffixes) {
+        long speed = data * 1000 / timeDelta;
+        if (speed < KB) {
+            out.appendDecimal(speed, 1, false, MAX_INTEGER_DIGITS).append(suffixes[0]);
+        } else if (speed < MB) {
+            out.appendDecimal(speed, KB, false, MAX_INTEGER_DIGITS).append(suffixes[1]);
+        } else if (speed < GB) {
+            out.appendDecimal(speed, MB, false, MAX_INTEGER_DIGITS).append(suffixes[2]);
+        } else {
+            out.appendDecimal(speed, GB, false, MAX_INTEGER_DIGITS).append(suffixes[3]);
+        }
+    }
+
+    private static boolean shouldHide(Config config, long rxData, long txData, long timeDelta) {
+        long speedTxKB = (long)(txData / (timeDelta / 1000f)) / KILOBYTE;
+        long speedRxKB = (long)(rxData / (timeDelta / 1000f)) / KILOBYTE;
+        return config.autoHide &&
+               (config.mode == Mode.IN && speedRxKB <= config.autoHideThreshold ||
+               config.mode == Mode.OUT && speedTxKB <= config.autoHideThreshold ||
+               config.mode == Mode.IN_OUT && 
+                   speedRxKB <= config.autoHideThreshold && 
+                   speedTxKB <= config.autoHideThreshold);
+    }
 
     public TrafficMeterOmni(Context context) {
         super(context);
@@ -180,12 +169,15 @@ public class TrafficMeterOmni extends TrafficMeterAbstract {
         SYMBOLS.put("k", mGbContext.getString(R.string.kilo_abbr));
         SYMBOLS.put("M", mGbContext.getString(R.string.mega_abbr));
         SYMBOLS.put("G", mGbContext.getString(R.string.giga_abbr));
+        mByteSuffixes = createSuffixes(SYMBOLS.get("B/s"));
+        mBitSuffixes = createSuffixes(SYMBOLS.get("b/s"));
 
         mMode = Mode.valueOf(prefs.getString(GravityBoxSettings.PREF_KEY_DATA_TRAFFIC_OMNI_MODE, "IN_OUT"));
         mShowIcon = prefs.getBoolean(GravityBoxSettings.PREF_KEY_DATA_TRAFFIC_OMNI_SHOW_ICON, true);
         mAutoHide = prefs.getBoolean(GravityBoxSettings.PREF_KEY_DATA_TRAFFIC_OMNI_AUTOHIDE, false);
         mAutoHideThreshold = prefs.getInt(GravityBoxSettings.PREF_KEY_DATA_TRAFFIC_OMNI_AUTOHIDE_TH, 10);
         setSize();
+        mConfig = new Config(this);
     }
 
     @Override
@@ -205,6 +197,14 @@ public class TrafficMeterOmni extends TrafficMeterAbstract {
         if (intent.hasExtra(GravityBoxSettings.EXTRA_DT_OMNI_AUTOHIDE_TH)) {
             mAutoHideThreshold = intent.getIntExtra(GravityBoxSettings.EXTRA_DT_OMNI_AUTOHIDE_TH, 10);
         }
+        mConfig = new Config(this);
+    }
+
+    private static String[] createSuffixes(String symbol) {
+        return new String[] { symbol,
+                SYMBOLS.get("k") + symbol,
+                SYMBOLS.get("M") + symbol,
+                SYMBOLS.get("G") + symbol };
     }
 
     private void setSize() {
@@ -217,21 +217,14 @@ public class TrafficMeterOmni extends TrafficMeterAbstract {
 
     @Override
     protected void startTrafficUpdates() {
-        totalRxTxBytes = getTotalRxTxBytes();
-        lastUpdateTime = SystemClock.elapsedRealtime();
-        mTrafficHandler.sendEmptyMessage(1);
+        TrafficSampler.getInstance().attach(this);
         updateTrafficDrawable();
     }
 
     @Override
     protected void stopTrafficUpdates() {
-        clearHandlerCallbacks();
-    }
-
-    private void clearHandlerCallbacks() {
-        mTrafficHandler.removeCallbacks(mRunnable);
-        mTrafficHandler.removeMessages(0);
-        mTrafficHandler.removeMessages(1);
+        TrafficSampler.getInstance().detach(this);
+        cancelSampleResult();
     }
 
     private void updateTrafficDrawable() {
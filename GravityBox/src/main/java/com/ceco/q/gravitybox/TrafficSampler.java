@@ -0,0 +1,242 @@
+/*
+ * Copyright (C) 2019 Peter Gregus for GravityBox Project (C3C076@xda)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ceco.q.gravitybox;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import android.net.TrafficStats;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Process;
+import android.os.SystemClock;
+import de.robv.android.xposed.XposedBridge;
+
+/**
+ * Samples network traffic counters on a dedicated low priority thread
+ * and distributes per-interval deltas to all attached listeners so that
+ * multiple traffic meters share a single read per tick.
+ * Sampling interval is the shortest one requested by attached listeners.
+ * Listener callbacks happen on the sampler thread.
+ */
+public class TrafficSampler {
+    private static final String TAG = "GB:TrafficSampler";
+    private static final boolean DEBUG = false;
+
+    private static final int MAX_SLOTS = NetTrafficReader.Counters.MAX_INTERFACES;
+
+    private static void log(String message) {
+        XposedBridge.log(TAG + ": " + message);
+    }
+
+    public interface Listener {
+        /**
+         * @return requested sampling interval in ms
+         */
+        int getSampleInterval();
+
+        /**
+         * Called on sampler thread for every sample
+         * @param rxBytes - bytes received since previous sample
+         * @param txBytes - bytes transmitted since previous sample
+         * @param timeDelta - time elapsed since previous sample in ms
+         */
+        void onTrafficSampled(long rxBytes, long txBytes, long timeDelta);
+    }
+
+    private static TrafficSampler sInstance;
+
+    public static synchronized TrafficSampler getInstance() {
+        if (sInstance == null) {
+            sInstance = new TrafficSampler();
+        }
+        return sInstance;
+    }
+
+    private final List<Listener> mListeners = new CopyOnWriteArrayList<>();
+    private Handler mHandler;
+    private NetTrafficReader mReader;
+    private boolean mReaderResolved;
+    private final NetTrafficReader.Counters mCounters = new NetTrafficReader.Counters();
+    private boolean mHasBaseline;
+    private long mLastSampleTime;
+
+    // previous absolute counters per interface slot
+    private final int[] mSlotIds = new int[MAX_SLOTS];
+    private final boolean[] mSlotUsed = new boolean[MAX_SLOTS];
+    private final boolean[] mSlotSeen = new boolean[MAX_SLOTS];
+    private final long[] mSlotRxBytes = new long[MAX_SLOTS];
+    private final long[] mSlotTxBytes = new long[MAX_SLOTS];
+    // deltas of current sample
+    private long mRxDelta;
+    private long mTxDelta;
+
+    private TrafficSampler() { }
+
+    public void attach(Listener listener) {
+        if (mListeners.contains(listener)) return;
+        mListeners.add(listener);
+        if (DEBUG) log("attached listener; count=" + mListeners.size());
+        if (mListeners.size() == 1) {
+            getHandler().removeCallbacks(mStopRunnable);
+            getHandler().removeCallbacks(mSampleRunnable);
+            getHandler().post(mSampleRunnable);
+        }
+    }
+
+    public void detach(Listener listener) {
+        if (!mListeners.remove(listener)) return;
+        if (DEBUG) log("detached listener; count=" + mListeners.size());
+        if (mListeners.isEmpty()) {
+            getHandler().removeCallbacks(mSampleRunnable);
+            getHandler().post(mStopRunnable);
+        }
+    }
+
+    private synchronized Handler getHandler() {
+        if (mHandler == null) {
+            HandlerThread thread = new HandlerThread(TAG, Process.THREAD_PRIORITY_BACKGROUND);
+            thread.start();
+            mHandler = new Handler(thread.getLooper());
+        }
+        return mHandler;
+    }
+
+    private int getInterval() {
+        int interval = Integer.MAX_VALUE;
+        for (Listener l : mListeners) {
+            interval = Math.min(interval, l.getSampleInterval());
+        }
+        return interval;
+    }
+
+    private final Runnable mSampleRunnable = new Runnable() {
+        @Override
+        public void run() {
+            if (mListeners.isEmpty()) return;
+            sample();
+            mHandler.postDelayed(this, getInterval());
+        }
+    };
+
+    private final Runnable mStopRunnable = new Runnable() {
+        @Override
+        public void run() {
+            if (!mListeners.isEmpty()) return;
+            if (mReader != null) {
+                mReader.close();
+            }
+            mHasBaseline = false;
+            if (DEBUG) log("sampling stopped");
+        }
+    };
+
+    private void readCounters() {
+        if (!mReaderResolved) {
+            mReader = NetTrafficReader.create();
+            mReaderResolved = true;
+            if (DEBUG) log("counter source: " + (mReader != null ?
+                    mReader.getPath() : "TrafficStats"));
+        }
+        if (mReader == null || !mReader.read(mCounters)) {
+            // fallback to TrafficStats as single pseudo interface
+            mCounters.clear();
+            mCounters.addInterface(0, TrafficStats.getTotalRxBytes(),
+                    TrafficStats.getTotalTxBytes());
+        }
+    }
+
+    private void sample() {
+        readCounters();
+        final long now = SystemClock.elapsedRealtime();
+
+        if (!mHasBaseline) {
+            for (int i = 0; i < MAX_SLOTS; i++) {
+                mSlotUsed[i] = false;
+            }
+            updateSlots(false);
+            mHasBaseline = true;
+            mLastSampleTime = now;
+            return;
+        }
+
+        final long td = now - mLastSampleTime;
+        mLastSampleTime = now;
+        mRxDelta = 0;
+        mTxDelta = 0;
+        updateSlots(true);
+        final long rx = mRxDelta;
+        final long tx = mTxDelta;
+
+        if (DEBUG) log("sample: rx=" + rx + "; tx=" + tx + "; td=" + td);
+        for (Listener l : mListeners) {
+            l.onTrafficSampled(rx, tx, td);
+        }
+    }
+
+    // updates per slot counters and records deltas of interfaces known from previous sample
+    private void updateSlots(boolean record) {
+        for (int i = 0; i < MAX_SLOTS; i++) {
+            mSlotSeen[i] = false;
+        }
+
+        for (int i = 0; i < mCounters.ifaceCount; i++) {
+            final int id = mCounters.ifaceIds[i];
+            final long rx = mCounters.ifaceRxBytes[i];
+            final long tx = mCounters.ifaceTxBytes[i];
+            int slot = findSlot(id);
+            if (slot < 0) {
+                slot = allocateSlot(id);
+                if (slot < 0) continue;
+            } else if (record) {
+                // counters going backwards mean interface was reset; count as no traffic
+                mRxDelta += Math.max(0, rx - mSlotRxBytes[slot]);
+                mTxDelta += Math.max(0, tx - mSlotTxBytes[slot]);
+            }
+            mSlotRxBytes[slot] = rx;
+            mSlotTxBytes[slot] = tx;
+            mSlotSeen[slot] = true;
+        }
+
+        // release slots of interfaces that went away
+        for (int i = 0; i < MAX_SLOTS; i++) {
+            if (!mSlotSeen[i]) {
+                mSlotUsed[i] = false;
+            }
+        }
+    }
+
+    private int findSlot(int id) {
+        for (int i = 0; i < MAX_SLOTS; i++) {
+            if (mSlotUsed[i] && mSlotIds[i] == id) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private int allocateSlot(int id) {
+        for (int i = 0; i < MAX_SLOTS; i++) {
+            if (!mSlotUsed[i]) {
+                mSlotUsed[i] = true;
+                mSlotIds[i] = id;
+                return i;
+            }
+        }
+        return -1;
+    }
+}
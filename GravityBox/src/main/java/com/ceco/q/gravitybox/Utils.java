@@ -75,17 +75,7 @@ public class Utils {
 
     // Device type reference
     private static int mDeviceType = -1;
-    private static Boolean mIsMtkDevice = null;
-    private static Boolean mIsXperiaDevice = null;
-    private static Boolean mIsMotoXtDevice = null;
-    private static Boolean mIsGpeDevice = null;
-    private static Boolean mIsExynosDevice = null;
-    private static Boolean mIsSamsumgRom = null;
     private static Boolean mIsWifiOnly = null;
-    private static String mDeviceCharacteristics = null;
-    private static Boolean mIsOxygenOsRom = null;
-    private static Boolean mIsOxygenOs7Rom = null;
-    private static Boolean mIsOxygenOs7ProRom = null;
     private static Boolean mIsFileBasedEncrypted = null;
 
     // Device features
@@ -167,9 +157,7 @@ public class Utils {
     }
 
     public static boolean isTablet() {
-        String deviceCharacteristics = getDeviceCharacteristics();
-        return (deviceCharacteristics != null
-                    && deviceCharacteristics.contains("tablet"));
+        return DeviceProfile.get().isTablet;
     }
 
     public enum MethodState {
@@ -184,93 +172,52 @@ public class Utils {
      * Pay attention to isAospForced() when called from Zygote!
      */
     public static boolean isMtkDevice() {
-        if (mIsMtkDevice == null) {
-            mIsMtkDevice = Build.HARDWARE.toLowerCase(Locale.US).matches("^mt[68][1-9][1-9][1-9]$") &&
-                !isMotoXtDevice();
-        }
-        return (mIsMtkDevice && !isAospForced());
+        return DeviceProfile.get().isMtkDevice;
     }
 
     /**
      * Pay attention to isAospForced() when called from Zygote!
      */
     public static boolean isXperiaDevice() {
-        if (mIsXperiaDevice == null) {
-            mIsXperiaDevice = Build.MANUFACTURER.equalsIgnoreCase("sony")
-                && !isMtkDevice() && !isGpeDevice();
-        }
-        return (mIsXperiaDevice && !isAospForced());
+        return DeviceProfile.get().isXperiaDevice;
     }
 
     /**
      * Pay attention to isAospForced() when called from Zygote!
      */
     public static boolean isMotoXtDevice() {
-        if (mIsMotoXtDevice == null) {
-            String model = Build.MODEL.toLowerCase(Locale.US);
-            mIsMotoXtDevice = Build.MANUFACTURER.equalsIgnoreCase("motorola") &&
-                    (model.startsWith("xt") ||
-                     model.contains("razr") ||
-                     model.contains("moto")) &&
-                     !isGpeDevice();
-        }
-        return (mIsMotoXtDevice && !isAospForced());
+        return DeviceProfile.get().isMotoXtDevice;
     }
 
     public static boolean isGpeDevice() {
-        if (mIsGpeDevice != null) return mIsGpeDevice;
-
-        String productName = Build.PRODUCT.toLowerCase(Locale.US);
-        mIsGpeDevice = Build.DEVICE.toLowerCase(Locale.US).contains("gpe") || productName.contains("google")
-                || productName.contains("ged") || productName.contains("gpe") ||
-                productName.contains("aosp");
-        return mIsGpeDevice;
+        return DeviceProfile.get().isGpeDevice;
     }
 
     /**
      * NOTE: Always returns false when called from Zygote!
      */
     public static boolean isAospForced() {
-        return (new File(AOSP_FORCED_FILE_PATH).exists());
+        return DeviceProfile.get().isAospForced;
     }
 
     public static boolean isExynosDevice() {
-        if (mIsExynosDevice != null) return mIsExynosDevice;
-
-        mIsExynosDevice = Build.HARDWARE.toLowerCase(Locale.US).contains("smdk");
-        return mIsExynosDevice;
+        return DeviceProfile.get().isExynosDevice;
     }
 
     public static boolean isSamsungRom() {
-        if (mIsSamsumgRom != null) return mIsSamsumgRom;
-
-        mIsSamsumgRom = new File("/system/framework/com.samsung.device.jar").isFile();
-        return mIsSamsumgRom;
+        return DeviceProfile.get().isSamsungRom;
     }
 
     public static boolean isOxygenOsRom() {
-        if (mIsOxygenOsRom == null) {
-            String version = SystemPropertyProvider.get("ro.oxygen.version", "0");
-            mIsOxygenOsRom = version != null && !version.isEmpty() &&  !"0".equals(version);
-            mIsOxygenOsRom |= isOxygenOs7Rom() || isOxygenOs7ProRom();
-        }
-        return mIsOxygenOsRom;
+        return DeviceProfile.get().isOxygenOsRom;
     }
 
     public static boolean isOxygenOs7Rom() {
-        if (mIsOxygenOs7Rom == null) {
-            mIsOxygenOs7Rom = "OnePlus".equals(Build.MANUFACTURER) &&
-                    Build.DISPLAY != null && Build.DISPLAY.startsWith("GM190");
-        }
-        return mIsOxygenOs7Rom;
+        return DeviceProfile.get().isOxygenOs7Rom;
     }
 
     public static boolean isOxygenOs7ProRom() {
-        if (mIsOxygenOs7ProRom == null) {
-            mIsOxygenOs7ProRom = "OnePlus".equals(Build.MANUFACTURER) &&
-                    Build.DISPLAY != null && Build.DISPLAY.startsWith("GM191");
-        }
-        return mIsOxygenOs7ProRom;
+        return DeviceProfile.get().isOxygenOs7ProRom;
     }
 
     public static boolean isFileBasedEncrypted(Context con) {
@@ -299,7 +246,7 @@ public class Utils {
     }
 
     public static boolean isParanoidRom() {
-        return (Build.DISPLAY != null && Build.DISPLAY.startsWith("pa_"));
+        return DeviceProfile.get().isParanoidRom;
     }
 
     public static boolean hasGeminiSupport() {
@@ -441,10 +388,7 @@ public class Utils {
     }
 
     public static String getDeviceCharacteristics() {
-        if (mDeviceCharacteristics != null) return mDeviceCharacteristics;
-
-        mDeviceCharacteristics = SystemPropertyProvider.get("ro.build.characteristics");
-        return mDeviceCharacteristics;
+        return DeviceProfile.get().deviceCharacteristics;
     }
 
     public static boolean shouldAllowMoreVolumeSteps() {
@@ -0,0 +1,138 @@
+/*
+ * Copyright (C) 2019 Peter Gregus for GravityBox Project (C3C076@xda)
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ceco.q.gravitybox.ledcontrol;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Case-insensitive multi-keyword matcher (Aho-Corasick automaton).
+ * Scans text once regardless of number of keywords and without allocations.
+ */
+public class KeywordMatcher {
+    private final char[][] mKeys;
+    private final int[][] mTargets;
+    private final int[] mFail;
+    private final boolean[] mOutput;
+    private final boolean mMatchesAll;
+
+    /**
+     * @param keywords - comma separated list of keywords
+     */
+    public static KeywordMatcher compile(String keywords) {
+        return new KeywordMatcher(keywords.trim().split(","));
+    }
+
+    public KeywordMatcher(String[] keywords) {
+        List<TreeMap<Character, Integer>> trie = new ArrayList<>();
+        List<Boolean> output = new ArrayList<>();
+        trie.add(new TreeMap<>());
+        output.add(false);
+        boolean matchesAll = false;
+
+        for (String kw : keywords) {
+            if (kw.isEmpty()) {
+                // empty keyword is contained in any text
+                matchesAll = true;
+                continue;
+            }
+            int state = 0;
+            for (int i = 0; i < kw.length(); i++) {
+                char c = Character.toLowerCase(kw.charAt(i));
+                Integer next = trie.get(state).get(c);
+                if (next == null) {
+                    next = trie.size();
+                    trie.add(new TreeMap<>());
+                    output.add(false);
+                    trie.get(state).put(c, next);
+                }
+                state = next;
+            }
+            output.set(state, true);
+        }
+
+        final int count = trie.size();
+        mKeys = new char[count][];
+        mTargets = new int[count][];
+        mFail = new int[count];
+        mOutput = new boolean[count];
+        mMatchesAll = matchesAll;
+        for (int s = 0; s < count; s++) {
+            TreeMap<Character, Integer> edges = trie.get(s);
+            mKeys[s] = new char[edges.size()];
+            mTargets[s] = new int[edges.size()];
+            int i = 0;
+            for (Map.Entry<Character, Integer> e : edges.entrySet()) {
+                mKeys[s][i] = e.getKey();
+                mTargets[s][i] = e.getValue();
+                i++;
+            }
+            mOutput[s] = output.get(s);
+        }
+
+        // failure links in breadth-first order
+        int[] queue = new int[count];
+        int head = 0, tail = 0;
+        for (int t : mTargets[0]) {
+            mFail[t] = 0;
+            queue[tail++] = t;
+        }
+        while (head < tail) {
+            final int s = queue[head++];
+            for (int i = 0; i < mKeys[s].length; i++) {
+                final char c = mKeys[s][i];
+                final int t = mTargets[s][i];
+                int f = mFail[s];
+                int next;
+                while ((next = transition(f, c)) < 0 && f != 0) {
+                    f = mFail[f];
+                }
+                mFail[t] = (next >= 0 && next != t) ? next : 0;
+                mOutput[t] |= mOutput[mFail[t]];
+                queue[tail++] = t;
+            }
+        }
+    }
+
+    private int transition(int state, char c) {
+        int i = Arrays.binarySearch(mKeys[state], c);
+        return (i >= 0 ? mTargets[state][i] : -1);
+    }
+
+    /**
+     * @return true if text contains any of the keywords ignoring case
+     */
+    public boolean matches(CharSequence text) {
+        if (text == null) return false;
+        if (mMatchesAll) return true;
+        int state = 0;
+        final int len = text.length();
+        for (int i = 0; i < len; i++) {
+            final char c = Character.toLowerCase(text.charAt(i));
+            int next;
+            while ((next = transition(state, c)) < 0 && state != 0) {
+                state = mFail[state];
+            }
+            state = (next >= 0 ? next : 0);
+            if (mOutput[state]) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -16,16 +16,13 @@ package com.ceco.q.gravitybox.ledcontrol;
 
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Calendar;
-import java.util.GregorianCalendar;
 import java.util.HashSet;
 import java.util.List;
-import java.util.Locale;
 import java.util.Set;
+import java.util.TimeZone;
 import java.util.UUID;
 
 import com.ceco.q.gravitybox.ModLedControl;
-import com.ceco.q.gravitybox.Utils;
 
 import android.app.Notification;
 import android.content.SharedPreferences;
@@ -160,6 +157,30 @@ public class QuietHours {
     private Set<String> ringerWhitelist;
     private Set<Range> ranges;
 
+    private static final int MINUTES_PER_DAY = 1440;
+    private static final int MINUTES_PER_WEEK = 7 * MINUTES_PER_DAY;
+    private static final long MS_PER_MINUTE = 60000;
+    private static final long MS_PER_DAY = MINUTES_PER_DAY * MS_PER_MINUTE;
+    // lookup result is re-evaluated at least at every quarter of an hour
+    // to catch up with time zone and DST changes
+    private static final long MAX_CACHE_VALIDITY = 15 * MS_PER_MINUTE;
+
+    // ranges compiled into table of range indices for every minute of week starting Sunday
+    private Range[] mRangeArray;
+    private short[] mWeekSchedule;
+    private volatile ActiveRangeCache mActiveRangeCache;
+
+    private static final class ActiveRangeCache {
+        final Range range;
+        final long validFrom;
+        final long validUntil;
+        ActiveRangeCache(Range range, long validFrom, long validUntil) {
+            this.range = range;
+            this.validFrom = validFrom;
+            this.validUntil = validUntil;
+        }
+    }
+
     public QuietHours(Bundle prefs) {
         uncLocked = prefs.getBoolean(QuietHoursActivity.EXTRA_QH_LOCKED);
         enabled = prefs.getBoolean(QuietHoursActivity.EXTRA_QH_ENABLED);
@@ -177,6 +198,7 @@ public class QuietHours {
                 ranges.add(Range.parse(new HashSet<>(prefs.getStringArrayList(key))));
             }
         }
+        compileSchedule();
     }
 
     public QuietHours(SharedPreferences prefs) {
@@ -198,6 +220,36 @@ public class QuietHours {
                 ranges.add(Range.parse(new HashSet<>(prefs.getStringSet(key, null))));
             }
         }
+        compileSchedule();
+    }
+
+    private void compileSchedule() {
+        mRangeArray = ranges.toArray(new Range[0]);
+        mWeekSchedule = new short[MINUTES_PER_WEEK];
+        Arrays.fill(mWeekSchedule, (short) -1);
+        for (int i = 0; i < mRangeArray.length; i++) {
+            final Range range = mRangeArray[i];
+            if (range.startTime == range.endTime) continue;
+            for (int day = 1; day <= 7; day++) {
+                final int prevDay = (day == 1 ? 7 : day - 1);
+                final boolean dayActive = range.days.contains(String.valueOf(day));
+                final boolean prevDayActive = range.days.contains(String.valueOf(prevDay));
+                final int base = (day - 1) * MINUTES_PER_DAY;
+                for (int min = 0; min < MINUTES_PER_DAY; min++) {
+                    final boolean active;
+                    if (range.endsNextDay()) {
+                        active = (min >= range.startTime && dayActive) ||
+                                (min < range.endTime && prevDayActive);
+                    } else {
+                        active = dayActive && min >= range.startTime && min < range.endTime;
+                    }
+                    // first matching range wins
+                    if (active && mWeekSchedule[base + min] < 0) {
+                        mWeekSchedule[base + min] = (short) i;
+                    }
+                }
+            }
+        }
     }
 
     public boolean quietHoursActive(LedSettings ls, Notification n, boolean userPresent) {
@@ -213,16 +265,12 @@ public class QuietHours {
                 if (ModLedControl.DEBUG) ModLedControl.log("QH ignored for all notifications");
                 return defaultIgnoreResult;
             } else {
-                List<CharSequence> notifTexts = getNotificationTexts(n);
-                String[] keywords = ls.getQhIgnoreList().trim().split(",");
-                boolean ignore = false;
-                for (String kw : keywords) {
-                    kw = kw.toLowerCase(Locale.getDefault());
-                    ignore |= n.tickerText != null && n.tickerText.toString()
-                            .toLowerCase(Locale.getDefault()).contains(kw);
-                    for (CharSequence notifText : notifTexts) {
-                        ignore |= notifText.toString().toLowerCase(Locale.getDefault()).contains(kw);
-                    }
+                KeywordMatcher matcher = ls.getQhIgnoreMatcher();
+                boolean ignore = matcher.matches(n.tickerText);
+                for (int i = 0; i < NOTIF_TEXT_FIELDS.size() && !ignore; i++) {
+                    CharSequence notifText = n.extras.getCharSequence(NOTIF_TEXT_FIELDS.get(i));
+                    if (ModLedControl.DEBUG && notifText != null) ModLedControl.log("Notif text: " + notifText);
+                    ignore = matcher.matches(notifText);
                 }
                 if (ModLedControl.DEBUG) ModLedControl.log("QH ignore list contains keyword?: " + ignore);
                 return (ignore ? defaultIgnoreResult : (quietHoursActive() || (interactive && userPresent)));
@@ -245,26 +293,37 @@ public class QuietHours {
     public Range getActiveRange() {
         if (uncLocked || !enabled || mode != Mode.AUTO) return null;
 
-        Calendar c = new GregorianCalendar();
-        c.setTimeInMillis(System.currentTimeMillis());
-        int curMin = c.get(Calendar.HOUR_OF_DAY) * 60 + c.get(Calendar.MINUTE);
-        int curDay = c.get(Calendar.DAY_OF_WEEK);
-        int prevDay = (curDay == 1 ? 7 : curDay - 1);
-
-        for (Range range : ranges) {
-            boolean active = false;
-            if (range.endsNextDay()) {
-                active = (curMin >= range.startTime && range.days.contains(String.valueOf(curDay)) ||
-                    (curMin < range.endTime && range.days.contains(String.valueOf(prevDay))));
-            } else {
-                active = range.days.contains(String.valueOf(curDay));
-            }
-            if (active && Utils.isTimeOfDayInRange(c.getTimeInMillis(), range.startTime, range.endTime)) {
-                return range;
-            }
+        final long now = System.currentTimeMillis();
+        ActiveRangeCache cache = mActiveRangeCache;
+        if (cache == null || now < cache.validFrom || now >= cache.validUntil) {
+            cache = lookupActiveRange(now);
+            mActiveRangeCache = cache;
         }
+        return cache.range;
+    }
 
-        return null;
+    private ActiveRangeCache lookupActiveRange(long now) {
+        final long localTime = now + TimeZone.getDefault().getOffset(now);
+        final long localDay = Math.floorDiv(localTime, MS_PER_DAY);
+        final long msOfDay = Math.floorMod(localTime, MS_PER_DAY);
+        // epoch day 0 was Thursday
+        final int dayOfWeek = (int) Math.floorMod(localDay + 4, 7);
+        final int index = dayOfWeek * MINUTES_PER_DAY + (int) (msOfDay / MS_PER_MINUTE);
+        final short rangeIndex = mWeekSchedule[index];
+
+        int minutes = 1;
+        while (minutes < MINUTES_PER_WEEK &&
+                mWeekSchedule[(index + minutes) % MINUTES_PER_WEEK] == rangeIndex) {
+            minutes++;
+        }
+        final long minuteStart = now - (msOfDay % MS_PER_MINUTE);
+        final long validUntil = Math.min(minuteStart + minutes * MS_PER_MINUTE,
+                now - (msOfDay % MAX_CACHE_VALIDITY) + MAX_CACHE_VALIDITY);
+
+        if (ModLedControl.DEBUG) ModLedControl.log("QH active range lookup: index=" +
+                index + "; range=" + rangeIndex + "; validFor=" + (validUntil - now) + "ms");
+        return new ActiveRangeCache(rangeIndex < 0 ? null : mRangeArray[rangeIndex],
+                minuteStart, validUntil);
     }
 
     public boolean shouldMuteLed() {
@@ -316,21 +375,4 @@ public class QuietHours {
         }
         return ringerWhitelist;
     }
-
-    private List<CharSequence> getNotificationTexts(Notification notification) {
-        List<CharSequence> texts = new ArrayList<>();
-
-        for (String extra : NOTIF_TEXT_FIELDS) {
-            CharSequence cs = notification.extras.getCharSequence(extra);
-            if (cs != null) texts.add(cs);
-        }
-
-        if (ModLedControl.DEBUG) {
-            for (CharSequence text : texts) {
-                ModLedControl.log("Notif text: " + text);
-            }
-        }
-
-        return texts;
-    }
 }
@@ -18,11 +18,16 @@ import android.content.BroadcastReceiver;
 import android.content.Context;
 import android.content.Intent;
 import android.content.IntentFilter;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Process;
 
-import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.HashSet;
 import java.util.List;
-import java.util.stream.Collectors;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 import de.robv.android.xposed.XposedBridge;
 
@@ -38,74 +43,116 @@ public class BroadcastMediator {
         void onBroadcastReceived(Context context, Intent intent);
     }
 
-    private static class Subscriber {
-        Receiver receiver;
-        List<String> actions;
-        Subscriber(Receiver receiver, List<String> actions) {
+    /**
+     * Thread receiver is notified on
+     * IMMEDIATE - synchronously on thread delivering the broadcast
+     * MAIN - posted to main thread of the process
+     * BACKGROUND - posted to shared background thread; suitable for slow work
+     * Each lane preserves the order in which broadcasts are delivered to a receiver.
+     */
+    public enum Lane { IMMEDIATE, MAIN, BACKGROUND }
+
+    private static class Subscription {
+        final Receiver receiver;
+        final Lane lane;
+        Subscription(Receiver receiver, Lane lane) {
             this.receiver = receiver;
-            this.actions = actions;
+            this.lane = lane;
         }
     }
 
+    private static final Subscription[] EMPTY = new Subscription[0];
+
     private Context mContext;
-    private final List<Subscriber> mSubscribers;
-    private final IntentFilter mIntentFilter;
+    private Handler mHandler;
+    private volatile Handler mBackgroundHandler;
+    // action -> subscriptions; arrays are never modified once published
+    private final Map<String, Subscription[]> mActionIndex;
+    private final Object mLock = new Object();
+    private final Set<String> mRegisteredActions;
     private boolean mInternalReceiverRegistered;
+    private boolean mRegistrationPending;
 
     BroadcastMediator() {
-        mSubscribers = new ArrayList<>();
-        mIntentFilter = new IntentFilter();
+        mActionIndex = new ConcurrentHashMap<>();
+        mRegisteredActions = new HashSet<>();
         if (DEBUG) log("BroadcastMediator created");
     }
 
     void setContext(Context context) {
         if (DEBUG) log("Received context");
-        mContext = context;
-        if (mIntentFilter.countActions() > 0) {
-            registerReceiverInternal();
+        synchronized (mLock) {
+            mContext = context;
+            mHandler = new Handler(context.getMainLooper());
+            if (!mActionIndex.isEmpty()) {
+                scheduleRegistration();
+            }
         }
     }
 
     /**
      * Subscribes receiver to receive broadcasts represented by actions of interest
      * @param receiver - listener for receiving broadcast
+     * @param lane - thread receiver is notified on; applies to all actions of the receiver
      * @param actions - actions of interest
      */
-    public void subscribe(Receiver receiver, List<String> actions) {
-        synchronized (mSubscribers) {
-            final int oldActionCount = mIntentFilter.countActions();
-            for (String action : actions) {
-                if (!mIntentFilter.hasAction(action)) {
-                    mIntentFilter.addAction(action);
+    public void subscribe(Receiver receiver, Lane lane, List<String> actions) {
+        synchronized (mLock) {
+            boolean newAction = false;
+            Subscription subscription = new Subscription(receiver, lane);
+            for (Map.Entry<String, Subscription[]> entry : mActionIndex.entrySet()) {
+                Subscription[] subscriptions = entry.getValue();
+                int index = indexOf(subscriptions, receiver);
+                if (index >= 0 && subscriptions[index].lane != lane) {
+                    // keep single lane per receiver so that ordering is preserved
+                    Subscription[] newSubscriptions = subscriptions.clone();
+                    newSubscriptions[index] = subscription;
+                    mActionIndex.put(entry.getKey(), newSubscriptions);
                 }
             }
-            mSubscribers.add(new Subscriber(receiver, actions));
-            if (DEBUG) log("subscribing receiver: " + receiver);
-            if (oldActionCount != mIntentFilter.countActions()) {
-                registerReceiverInternal();
+            for (String action : actions) {
+                Subscription[] subscriptions = mActionIndex.getOrDefault(action, EMPTY);
+                if (indexOf(subscriptions, receiver) >= 0) continue;
+                Subscription[] newSubscriptions = Arrays.copyOf(subscriptions, subscriptions.length + 1);
+                newSubscriptions[subscriptions.length] = subscription;
+                mActionIndex.put(action, newSubscriptions);
+                newAction |= !mRegisteredActions.contains(action);
+            }
+            if (DEBUG) log("subscribing receiver: " + receiver + "; lane=" + lane);
+            if (newAction) {
+                scheduleRegistration();
             }
         }
     }
 
-    private void registerReceiverInternal() {
-        if (mContext == null) return;
-        if (mInternalReceiverRegistered) {
-            mContext.unregisterReceiver(mReceiverInternal);
-            mInternalReceiverRegistered = false;
-            if (DEBUG) log("reisterReceiverInternal: old internal receiver unregistered");
-        }
-        mContext.registerReceiver(mReceiverInternal, mIntentFilter);
-        mInternalReceiverRegistered = true;
-        if (DEBUG) log("reisterReceiverInternal: new internal receiver registered");
+    /**
+     * Subscribes receiver to receive broadcasts represented by actions of interest
+     * @param receiver - to receive broadcast
+     * @param lane - thread receiver is notified on; applies to all actions of the receiver
+     * @param actions - actions of interest
+     */
+    public void subscribe(Receiver receiver, Lane lane, String... actions) {
+        subscribe(receiver, lane, Arrays.asList(actions));
     }
 
     /**
      * Subscribes receiver to receive broadcasts represented by actions of interest
+     * on the thread delivering the broadcast
+     * @param receiver - listener for receiving broadcast
+     * @param actions - actions of interest
+     */
+    public void subscribe(Receiver receiver, List<String> actions) {
+        subscribe(receiver, Lane.IMMEDIATE, actions);
+    }
+
+    /**
+     * Subscribes receiver to receive broadcasts represented by actions of interest
+     * on the thread delivering the broadcast
      * @param receiver - to receive broadcast
      * @param actions - actions of interest
      */
     public void subscribe(Receiver receiver, String... actions) {
-        subscribe(receiver, Arrays.asList(actions));
+        subscribe(receiver, Lane.IMMEDIATE, Arrays.asList(actions));
     }
 
     /**
@@ -114,29 +161,95 @@ public class BroadcastMediator {
      */
     public void unsubscribe(Receiver receiver) {
         if (DEBUG) log("unsubscribing receiver: " + receiver);
-        synchronized (mSubscribers) {
-            List<Subscriber> toRemove = mSubscribers.stream()
-                    .filter(s -> s.receiver == receiver)
-                    .collect(Collectors.toList());
-            if (!toRemove.isEmpty()) {
-                mSubscribers.removeAll(toRemove);
+        synchronized (mLock) {
+            for (Map.Entry<String, Subscription[]> entry : mActionIndex.entrySet()) {
+                Subscription[] subscriptions = entry.getValue();
+                int index = indexOf(subscriptions, receiver);
+                if (index < 0) continue;
+                if (subscriptions.length == 1) {
+                    mActionIndex.remove(entry.getKey());
+                } else {
+                    Subscription[] newSubscriptions = new Subscription[subscriptions.length - 1];
+                    System.arraycopy(subscriptions, 0, newSubscriptions, 0, index);
+                    System.arraycopy(subscriptions, index + 1, newSubscriptions, index,
+                            subscriptions.length - index - 1);
+                    mActionIndex.put(entry.getKey(), newSubscriptions);
+                }
+            }
+        }
+    }
+
+    private static int indexOf(Subscription[] subscriptions, Receiver receiver) {
+        for (int i = 0; i < subscriptions.length; i++) {
+            if (subscriptions[i].receiver == receiver) return i;
+        }
+        return -1;
+    }
+
+    private Handler getBackgroundHandler() {
+        if (mBackgroundHandler != null) {
+            return mBackgroundHandler;
+        }
+        synchronized (mLock) {
+            if (mBackgroundHandler == null) {
+                HandlerThread thread = new HandlerThread(TAG, Process.THREAD_PRIORITY_BACKGROUND);
+                thread.start();
+                mBackgroundHandler = new Handler(thread.getLooper());
+            }
+            return mBackgroundHandler;
+        }
+    }
+
+    // coalesces bursts of subscriptions into single receiver registration
+    private void scheduleRegistration() {
+        if (mHandler == null || mRegistrationPending) return;
+        mRegistrationPending = true;
+        mHandler.post(mRegisterRunnable);
+    }
+
+    private final Runnable mRegisterRunnable = this::registerReceiverInternal;
+
+    private void registerReceiverInternal() {
+        final IntentFilter filter = new IntentFilter();
+        synchronized (mLock) {
+            mRegistrationPending = false;
+            mRegisteredActions.addAll(mActionIndex.keySet());
+            for (String action : mRegisteredActions) {
+                filter.addAction(action);
             }
         }
+        if (mInternalReceiverRegistered) {
+            mContext.unregisterReceiver(mReceiverInternal);
+            mInternalReceiverRegistered = false;
+            if (DEBUG) log("reisterReceiverInternal: old internal receiver unregistered");
+        }
+        mContext.registerReceiver(mReceiverInternal, filter);
+        mInternalReceiverRegistered = true;
+        if (DEBUG) log("reisterReceiverInternal: new internal receiver registered; actions=" +
+                filter.countActions());
     }
 
     private BroadcastReceiver mReceiverInternal = new BroadcastReceiver() {
         @Override
         public void onReceive(Context context, Intent intent) {
-            synchronized (mSubscribers) {
-                List<Receiver> toNotify = mSubscribers.stream()
-                        .filter(s -> s.actions.contains(intent.getAction()))
-                        .map(s -> s.receiver)
-                        .collect(Collectors.toList());
-                toNotify.forEach(r -> {
-                    if (DEBUG) log("Notifying listener: " + r +
-                            "; action=" + intent.getAction());
-                    r.onBroadcastReceived(context, intent);
-                });
+            final String action = intent.getAction();
+            if (action == null) return;
+            final Subscription[] subscriptions = mActionIndex.get(action);
+            if (subscriptions == null) return;
+            for (Subscription s : subscriptions) {
+                if (DEBUG) log("Notifying listener: " + s.receiver +
+                        "; action=" + action + "; lane=" + s.lane);
+                switch (s.lane) {
+                    case IMMEDIATE:
+                        s.receiver.onBroadcastReceived(context, intent);
+                        break;
+                    case MAIN:
+                        mHandler.post(() -> s.receiver.onBroadcastReceived(context, intent));
+                        break;
+                    case BACKGROUND:
+                        getBackgroundHandler().post(() -> s.receiver.onBroadcastReceived(context, intent));
+                        break;
+                }
             }
         }
     };
@@ -14,9 +14,9 @@
  */
 package com.ceco.q.gravitybox.managers;
 
-import java.util.ArrayList;
-import java.util.List;
+import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 import com.ceco.q.gravitybox.GravityBox;
 
@@ -41,11 +41,30 @@ public class SysUiNotificationDataMonitor {
 
     public interface Listener {
         void onNotificationDataChanged(final StatusBarNotification sbn);
+        /**
+         * Called when number of notifications of a package changes
+         * @param pkg - package name
+         * @param count - new notification count of the package
+         * @param delta - difference from previous count
+         */
+        void onNotificationCountChanged(String pkg, int count, int delta);
+    }
+
+    private static class IndexEntry {
+        final String pkg;
+        final int count;
+        IndexEntry(String pkg, int count) {
+            this.pkg = pkg;
+            this.count = count;
+        }
     }
 
     private Context mContext;
     private Object mNotifData;
-    private final List<Listener> mListeners = new ArrayList<>();
+    private final CopyOnWriteArrayList<Listener> mListeners = new CopyOnWriteArrayList<>();
+    // notification key -> contribution to package count; guarded by mPkgCounts
+    private final Map<String, IndexEntry> mIndexEntries = new HashMap<>();
+    private final Map<String, Integer> mPkgCounts = new HashMap<>();
 
     protected SysUiNotificationDataMonitor(Context context) {
         if (context == null)
@@ -66,6 +85,10 @@ public class SysUiNotificationDataMonitor {
                 @Override
                 protected void afterHookedMethod(final MethodHookParam param) {
                     mNotifData = param.thisObject;
+                    synchronized (mPkgCounts) {
+                        mIndexEntries.clear();
+                        mPkgCounts.clear();
+                    }
                     if (DEBUG) log("NotificatioData object constructed");
                 }
             });
@@ -75,6 +98,9 @@ public class SysUiNotificationDataMonitor {
                 protected void afterHookedMethod(final MethodHookParam param) {
                     if (DEBUG) log("Notification entry added");
                     StatusBarNotification sbn = getSbNotificationFromArgs(param.args);
+                    if (sbn != null) {
+                        updateIndex(sbn.getKey(), sbn, false);
+                    }
                     notifyDataChanged(sbn);
                 }
             });
@@ -88,6 +114,9 @@ public class SysUiNotificationDataMonitor {
                         sbn = (StatusBarNotification) XposedHelpers.getObjectField(
                                 param.getResult(), "notification");
                     }
+                    if (sbn != null) {
+                        updateIndex(sbn.getKey(), null, false);
+                    }
                     notifyDataChanged(sbn);
                 }
             });
@@ -97,7 +126,11 @@ public class SysUiNotificationDataMonitor {
                 @Override
                 protected void afterHookedMethod(MethodHookParam param) {
                     if (DEBUG) log("Notification entry updated");
-                    notifyDataChanged((StatusBarNotification) param.args[0]);
+                    StatusBarNotification sbn = (StatusBarNotification) param.args[0];
+                    if (param.getThrowable() == null && sbn != null) {
+                        updateIndex(sbn.getKey(), sbn, true);
+                    }
+                    notifyDataChanged(sbn);
                 }
             });
         } catch (Throwable t) {
@@ -125,47 +158,98 @@ public class SysUiNotificationDataMonitor {
         }
     }
 
-    private void notifyDataChanged(StatusBarNotification sbn) {
-        synchronized (mListeners) {
-            for (Listener l : mListeners) {
-                l.onNotificationDataChanged(sbn);
+    private static int getCountContribution(StatusBarNotification sbn) {
+        final Notification n = sbn.getNotification();
+        return (n != null && n.number > 0 ? n.number : 1);
+    }
+
+    /**
+     * Replaces contribution of notification identified by key in package count index
+     * @param key - notification key
+     * @param sbn - new notification or null if notification was removed
+     * @param existingOnly - true to ignore notifications not yet indexed
+     */
+    private void updateIndex(String key, StatusBarNotification sbn, boolean existingOnly) {
+        if (key == null) return;
+
+        final IndexEntry oldEntry, newEntry;
+        final boolean samePkg;
+        int oldPkgCount = 0, newPkgCount = 0;
+        synchronized (mPkgCounts) {
+            if (existingOnly && !mIndexEntries.containsKey(key)) return;
+            newEntry = (sbn == null || sbn.getPackageName() == null) ? null :
+                    new IndexEntry(sbn.getPackageName(), getCountContribution(sbn));
+            oldEntry = (newEntry == null ? mIndexEntries.remove(key) :
+                    mIndexEntries.put(key, newEntry));
+            samePkg = (oldEntry != null && newEntry != null && oldEntry.pkg.equals(newEntry.pkg));
+            if (samePkg) {
+                newPkgCount = adjustPkgCount(newEntry.pkg, newEntry.count - oldEntry.count);
+            } else {
+                if (oldEntry != null) {
+                    oldPkgCount = adjustPkgCount(oldEntry.pkg, -oldEntry.count);
+                }
+                if (newEntry != null) {
+                    newPkgCount = adjustPkgCount(newEntry.pkg, newEntry.count);
+                }
+            }
+        }
+
+        if (samePkg) {
+            notifyCountChanged(newEntry.pkg, newPkgCount, newEntry.count - oldEntry.count);
+        } else {
+            if (oldEntry != null) {
+                notifyCountChanged(oldEntry.pkg, oldPkgCount, -oldEntry.count);
+            }
+            if (newEntry != null) {
+                notifyCountChanged(newEntry.pkg, newPkgCount, newEntry.count);
             }
         }
     }
 
+    // must be called with mPkgCounts lock held
+    private int adjustPkgCount(String pkg, int delta) {
+        Integer count = mPkgCounts.get(pkg);
+        int newCount = (count == null ? 0 : count) + delta;
+        if (newCount > 0) {
+            mPkgCounts.put(pkg, newCount);
+        } else {
+            newCount = 0;
+            mPkgCounts.remove(pkg);
+        }
+        return newCount;
+    }
+
+    private void notifyDataChanged(StatusBarNotification sbn) {
+        for (Listener l : mListeners) {
+            l.onNotificationDataChanged(sbn);
+        }
+    }
+
+    private void notifyCountChanged(String pkg, int count, int delta) {
+        if (delta == 0) return;
+        if (DEBUG) log("Notification count changed: " + pkg + "=" + count + " (" + delta + ")");
+        for (Listener l : mListeners) {
+            l.onNotificationCountChanged(pkg, count, delta);
+        }
+    }
+
     public void registerListener(Listener l) {
         if (l == null) return;
-        synchronized (mListeners) {
-            if (!mListeners.contains(l)) {
-                mListeners.add(l);
-            }
-        }
+        mListeners.addIfAbsent(l);
     }
 
     public void unregisterListener(Listener l) {
         if (l == null) return;
-        synchronized (mListeners) {
-            mListeners.remove(l);
-        }
+        mListeners.remove(l);
     }
 
     public int getNotifCountFor(String pkg) {
-        if (pkg == null || mNotifData == null) return 0;
+        if (pkg == null) return 0;
 
-        int count = 0;
-
-        try {
-            Map<?,?> entries = (Map<?,?>) XposedHelpers.getObjectField(mNotifData, "mEntries");
-            for (Object entry : entries.values()) {
-                StatusBarNotification sbn = (StatusBarNotification)
-                        XposedHelpers.getObjectField(entry, "notification");
-                if (pkg.equals(sbn.getPackageName())) {
-                    final Notification n = sbn.getNotification();
-                    count += (n.number > 0 ? n.number : 1);
-                }
-            }
-        } catch (Throwable t) {
-            GravityBox.log(TAG, t);
+        final int count;
+        synchronized (mPkgCounts) {
+            Integer c = mPkgCounts.get(pkg);
+            count = (c == null ? 0 : c);
         }
 
         if (DEBUG) log("getNotifCountFor: " + pkg + "=" + count);
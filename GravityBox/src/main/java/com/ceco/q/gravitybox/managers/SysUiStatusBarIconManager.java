@@ -21,13 +21,17 @@ import de.robv.android.xposed.XposedBridge;
 import de.robv.android.xposed.XposedHelpers;
 
 import android.content.Context;
+import android.content.Intent;
+import android.database.ContentObserver;
 import android.graphics.Color;
+import android.os.Handler;
 import android.provider.Settings;
+import android.view.Choreographer;
 
 import com.ceco.q.gravitybox.GravityBox;
 import com.ceco.q.gravitybox.Utils;
 
-public class SysUiStatusBarIconManager {
+public class SysUiStatusBarIconManager implements BroadcastMediator.Receiver {
     private static final String TAG = "GB:StatusBarIconManager";
     private static final boolean DEBUG = false;
 
@@ -37,10 +41,16 @@ public class SysUiStatusBarIconManager {
     private static final int FLAG_ALL = 0x7;
 
     private static final String OOS_SETTING_NOTCH_HIDDEN = "op_camera_notch_ignore";
+    private static final String ACTION_USER_SWITCHED = "android.intent.action.USER_SWITCHED";
+    private static final int USER_ALL = -1;
 
     private ColorInfo mColorInfo;
     private List<IconManagerListener> mListeners;
     private Context mContext;
+    private int mOriginalIconTint = Color.WHITE;
+    private boolean mOosNotchHidden;
+    private int mPendingFlags;
+    private boolean mFrameCallbackPosted;
 
     public interface IconManagerListener {
         void onIconManagerStatusChanged(int flags, ColorInfo colorInfo);
@@ -61,6 +71,32 @@ public class SysUiStatusBarIconManager {
         mContext = context;
         initColorInfo();
         mListeners = new ArrayList<>();
+
+        if (Utils.isOxygenOsRom()) {
+            mOosNotchHidden = isOxygenOsNotchHidden();
+            // observe all users as value is read for the current one
+            XposedHelpers.callMethod(mContext.getContentResolver(), "registerContentObserver",
+                    Settings.System.getUriFor(OOS_SETTING_NOTCH_HIDDEN), false,
+                    new ContentObserver(new Handler()) {
+                        @Override
+                        public void onChange(boolean selfChange) {
+                            updateOxygenOsNotchHidden();
+                        }
+                    }, USER_ALL);
+            SysUiManagers.BroadcastMediator.subscribe(this, ACTION_USER_SWITCHED);
+        }
+    }
+
+    @Override
+    public void onBroadcastReceived(Context context, Intent intent) {
+        if (ACTION_USER_SWITCHED.equals(intent.getAction())) {
+            updateOxygenOsNotchHidden();
+        }
+    }
+
+    private void updateOxygenOsNotchHidden() {
+        mOosNotchHidden = isOxygenOsNotchHidden();
+        setIconTint(mOriginalIconTint);
     }
 
     private void initColorInfo() {
@@ -81,12 +117,33 @@ public class SysUiStatusBarIconManager {
         mListeners.remove(listener);
     }
 
+    // delivers flags together with any still pending ones so that no older change arrives later
     private void notifyListeners(int flags) {
+        flags |= mPendingFlags;
+        mPendingFlags = 0;
         for (IconManagerListener listener : mListeners) {
             listener.onIconManagerStatusChanged(flags, mColorInfo);
         }
     }
 
+    // coalesces alpha and tint changes so that listeners get at most one update per frame
+    private void scheduleNotifyListeners(int flags) {
+        mPendingFlags |= flags;
+        if (!mFrameCallbackPosted) {
+            mFrameCallbackPosted = true;
+            Choreographer.getInstance().postFrameCallback(mFrameCallback);
+        }
+    }
+
+    private final Choreographer.FrameCallback mFrameCallback = frameTimeNanos -> {
+        mFrameCallbackPosted = false;
+        final int flags = mPendingFlags;
+        mPendingFlags = 0;
+        if (flags != 0) {
+            notifyListeners(flags);
+        }
+    };
+
     public void refreshState() {
         notifyListeners(FLAG_ALL);
     }
@@ -98,17 +155,18 @@ public class SysUiStatusBarIconManager {
                 mColorInfo.alphaTextAndBattery != alphaTextAndBattery) {
             mColorInfo.alphaSignalCluster = alphaSignalCluster;
             mColorInfo.alphaTextAndBattery = alphaTextAndBattery;
-            notifyListeners(FLAG_ICON_ALPHA_CHANGED);
+            scheduleNotifyListeners(FLAG_ICON_ALPHA_CHANGED);
         }
     }
 
     public void setIconTint(int iconTint) {
         if (DEBUG) log("setIconTint: original iconTint=" + Integer.toHexString(iconTint));
-        iconTint = isOxygenOsNotchHidden() ? Color.WHITE : iconTint;
+        mOriginalIconTint = iconTint;
+        iconTint = mOosNotchHidden ? Color.WHITE : iconTint;
         if (DEBUG) log("setIconTint: effective iconTint=" + Integer.toHexString(iconTint));
         if (mColorInfo.iconTint != iconTint) {
             mColorInfo.iconTint = iconTint;
-            notifyListeners(FLAG_ICON_TINT_CHANGED);
+            scheduleNotifyListeners(FLAG_ICON_TINT_CHANGED);
         }
     }
 
@@ -120,9 +178,6 @@ public class SysUiStatusBarIconManager {
     }
 
     private boolean isOxygenOsNotchHidden() {
-        if (!Utils.isOxygenOsRom())
-            return false;
-
         try {
             boolean notchHidden = (int)XposedHelpers.callStaticMethod(Settings.System.class, "getIntForUser",
                     mContext.getContentResolver(), OOS_SETTING_NOTCH_HIDDEN, 0,
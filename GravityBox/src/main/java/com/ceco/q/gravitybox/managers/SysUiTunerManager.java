@@ -18,21 +18,37 @@ import android.content.ContentResolver;
 import android.content.Context;
 import android.content.Intent;
 import android.content.res.Resources;
+import android.os.Build;
 import android.os.Bundle;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Process;
 import android.os.ResultReceiver;
 import android.provider.Settings;
+import android.util.AtomicFile;
 
 import com.ceco.q.gravitybox.GravityBox;
 import com.ceco.q.gravitybox.ResourceProxy;
 import com.ceco.q.gravitybox.tuner.TuneableItem;
 import com.ceco.q.gravitybox.tuner.TunerBlacklist;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
 import java.lang.reflect.Field;
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.HashMap;
+import java.util.EnumMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Locale;
 import java.util.Map;
+import java.util.Set;
 
 import de.robv.android.xposed.XSharedPreferences;
 import de.robv.android.xposed.XposedBridge;
@@ -46,6 +62,12 @@ public class SysUiTunerManager implements BroadcastMediator.Receiver {
     public static final String ACTION_GET_TUNEABLES = "gravitybox.intent.action.TUNER_GET_TUNABLES";
     public static final String EXTRA_TUNER_CATEGORY = "tunerCategory";
     public static final String EXTRA_TUNEABLES = "tunerTuneables";
+    // tuneables are delivered in pages; last page is sent with RESULT_TUNEABLES_DONE
+    public static final int RESULT_TUNEABLES_DONE = 0;
+    public static final int RESULT_TUNEABLES_PAGE = 1;
+
+    private static final int PAGE_SIZE = 100;
+    private static final int CATALOGUE_VERSION = 1;
 
     public enum Category { FRAMEWORK, SYSTEMUI }
 
@@ -53,9 +75,25 @@ public class SysUiTunerManager implements BroadcastMediator.Receiver {
         XposedBridge.log(TAG + ": " + msg);
     }
 
-    private static Map<Category,List<TuneableItem>> sUserItemsCache = new HashMap<>();
+    // user overridden items per category keyed by resource name
+    private static Map<Category,Map<String,TuneableItem>> sUserItemsCache = new EnumMap<>(Category.class);
+
+    private static class CatalogueEntry {
+        final boolean isBool;
+        final String key;
+        final int resId;
+
+        CatalogueEntry(boolean isBool, String key, int resId) {
+            this.isBool = isBool;
+            this.key = key;
+            this.resId = resId;
+        }
+    }
 
     private Context mContext;
+    private Handler mWorkerHandler;
+    // accessed from worker thread only
+    private final Map<Category,List<CatalogueEntry>> mCatalogue = new EnumMap<>(Category.class);
 
     SysUiTunerManager(Context context) {
         mContext = context;
@@ -95,60 +133,175 @@ public class SysUiTunerManager implements BroadcastMediator.Receiver {
             if (DEBUG) log("Request for tuneables received");
             ResultReceiver receiver = intent.getParcelableExtra("receiver");
             Category category = Category.valueOf(intent.getStringExtra(EXTRA_TUNER_CATEGORY));
-            sendTuneables(category, receiver);
+            // building the catalogue might take a while; keep it off the main thread
+            // and off the shared background broadcast lane
+            getWorkerHandler().post(() -> sendTuneables(category, receiver));
         }
     }
 
+    private Handler getWorkerHandler() {
+        if (mWorkerHandler == null) {
+            HandlerThread thread = new HandlerThread(TAG, Process.THREAD_PRIORITY_BACKGROUND);
+            thread.start();
+            mWorkerHandler = new Handler(thread.getLooper());
+        }
+        return mWorkerHandler;
+    }
+
     private void sendTuneables(Category category, ResultReceiver receiver) {
+        TuneablePager pager = new TuneablePager(category, getResourcesFor(category), receiver);
+        List<CatalogueEntry> catalogue = mCatalogue.get(category);
+        if (catalogue == null) {
+            catalogue = loadCatalogue(category);
+        }
+        if (catalogue == null) {
+            // pages are sent while building so that the list starts filling immediately
+            catalogue = buildCatalogue(category, pager);
+            saveCatalogue(category, catalogue);
+        } else {
+            for (CatalogueEntry entry : catalogue) {
+                pager.add(entry);
+            }
+        }
+        mCatalogue.put(category, catalogue);
+        pager.finish();
+        if (DEBUG) log("Tuneables sent to receiver");
+    }
+
+    private class TuneablePager {
+        private final Category mCategory;
+        private final Resources mRes;
+        private final ResultReceiver mReceiver;
+        private ArrayList<TuneableItem> mPage = new ArrayList<>();
+        private int mCount;
+
+        TuneablePager(Category category, Resources res, ResultReceiver receiver) {
+            mCategory = category;
+            mRes = res;
+            mReceiver = receiver;
+        }
+
+        void add(CatalogueEntry entry) {
+            if (TunerBlacklist.isBlacklisted(mCategory, entry.key))
+                return;
+            try {
+                mPage.add(entry.isBool ?
+                        new TuneableItem(Boolean.class, mCategory, entry.key,
+                                mRes.getBoolean(entry.resId)) :
+                        new TuneableItem(Integer.class, mCategory, entry.key,
+                                mRes.getInteger(entry.resId)));
+            } catch (Resources.NotFoundException ignore) {
+                return;
+            }
+            if (mPage.size() >= PAGE_SIZE) {
+                send(RESULT_TUNEABLES_PAGE);
+            }
+        }
+
+        void finish() {
+            if (mCount == 0 && mPage.isEmpty()) {
+                GravityBox.log(TAG, "Didn't find any tuneables in " + mCategory);
+            }
+            send(RESULT_TUNEABLES_DONE);
+        }
+
+        private void send(int resultCode) {
+            Bundle data = new Bundle();
+            data.putParcelableArrayList(EXTRA_TUNEABLES, mPage);
+            mReceiver.send(resultCode, data);
+            mCount += mPage.size();
+            mPage = new ArrayList<>();
+        }
+    }
+
+    private List<CatalogueEntry> buildCatalogue(Category category, TuneablePager pager) {
         String pkgName = getPackageNameFor(category);
         Resources res = getResourcesFor(category);
-        List<String> classNameList = getResourceClassNamesFor(category);
-        ArrayList<TuneableItem> tiList = new ArrayList<>();
-        Bundle data = new Bundle();
+        List<CatalogueEntry> catalogue = new ArrayList<>();
         Class<?> clazz;
 
-        for (String className : classNameList) {
-            // bools
-            clazz = XposedHelpers.findClassIfExists(className + ".bool",
-                    mContext.getClassLoader());
-            if (clazz != null) {
+        for (String className : getResourceClassNamesFor(category)) {
+            for (boolean isBool : new boolean[] { true, false }) {
+                clazz = XposedHelpers.findClassIfExists(className +
+                        (isBool ? ".bool" : ".integer"), mContext.getClassLoader());
+                if (clazz == null) continue;
                 for (Field f : clazz.getDeclaredFields()) {
-                    if (TunerBlacklist.isBlacklisted(category, f.getName()))
-                        continue;
-                    try {
-                        TuneableItem ti = new TuneableItem(Boolean.class, category, f.getName(),
-                                res.getBoolean(res.getIdentifier(f.getName(), "bool", pkgName)));
-                        tiList.add(ti);
-                    } catch (Resources.NotFoundException ignore) {
-                    }
+                    int resId = res.getIdentifier(f.getName(),
+                            isBool ? "bool" : "integer", pkgName);
+                    if (resId == 0) continue;
+                    CatalogueEntry entry = new CatalogueEntry(isBool, f.getName(), resId);
+                    catalogue.add(entry);
+                    pager.add(entry);
                 }
             }
+        }
 
-            // integers
-            clazz = XposedHelpers.findClassIfExists(className + ".integer",
-                    mContext.getClassLoader());
-            if (clazz != null) {
-                for (Field f : clazz.getDeclaredFields()) {
-                    if (TunerBlacklist.isBlacklisted(category, f.getName()))
-                        continue;
-                    try {
-                        TuneableItem ti = new TuneableItem(Integer.class, category, f.getName(),
-                                res.getInteger(res.getIdentifier(
-                                        f.getName(), "integer", pkgName)));
-                        tiList.add(ti);
-                    } catch (Resources.NotFoundException ignore) {
-                    }
-                }
-            }
+        if (DEBUG) log("Catalogue for " + category + " built: " + catalogue.size() + " entries");
+        return catalogue;
+    }
+
+    private AtomicFile getCatalogueFile(Category category) {
+        return new AtomicFile(new File(mContext.getFilesDir(),
+                "gb_tuneables_" + category.toString().toLowerCase(Locale.US) + ".dat"));
+    }
+
+    // resource IDs are stable as long as system image and package stay the same
+    private String getCatalogueFingerprint(Category category) {
+        long lastUpdateTime = 0;
+        try {
+            lastUpdateTime = mContext.getPackageManager().getPackageInfo(
+                    getPackageNameFor(category), 0).lastUpdateTime;
+        } catch (Throwable t) {
+            GravityBox.log(TAG, t);
         }
+        return Build.FINGERPRINT + ":" + lastUpdateTime;
+    }
 
-        if (tiList.isEmpty()) {
-            GravityBox.log(TAG, "Didn't find any tuneables in " + category);
+    private List<CatalogueEntry> loadCatalogue(Category category) {
+        AtomicFile file = getCatalogueFile(category);
+        if (!file.getBaseFile().exists()) return null;
+        try (DataInputStream in = new DataInputStream(
+                new BufferedInputStream(file.openRead()))) {
+            if (in.readInt() != CATALOGUE_VERSION ||
+                    !getCatalogueFingerprint(category).equals(in.readUTF())) {
+                if (DEBUG) log("Stored catalogue for " + category + " is outdated");
+                return null;
+            }
+            int count = in.readInt();
+            List<CatalogueEntry> catalogue = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                catalogue.add(new CatalogueEntry(in.readBoolean(), in.readUTF(), in.readInt()));
+            }
+            if (DEBUG) log("Catalogue for " + category + " loaded: " + count + " entries");
+            return catalogue;
+        } catch (IOException e) {
+            GravityBox.log(TAG, "Error loading catalogue for " + category, e);
+            return null;
         }
+    }
 
-        data.putParcelableArrayList(EXTRA_TUNEABLES, tiList);
-        receiver.send(0, data);
-        if (DEBUG) log("Tuneables sent to receiver");
+    private void saveCatalogue(Category category, List<CatalogueEntry> catalogue) {
+        AtomicFile file = getCatalogueFile(category);
+        FileOutputStream fos = null;
+        try {
+            fos = file.startWrite();
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fos));
+            out.writeInt(CATALOGUE_VERSION);
+            out.writeUTF(getCatalogueFingerprint(category));
+            out.writeInt(catalogue.size());
+            for (CatalogueEntry entry : catalogue) {
+                out.writeBoolean(entry.isBool);
+                out.writeUTF(entry.key);
+                out.writeInt(entry.resId);
+            }
+            out.flush();
+            file.finishWrite(fos);
+        } catch (IOException e) {
+            GravityBox.log(TAG, "Error saving catalogue for " + category, e);
+            if (fos != null) {
+                file.failWrite(fos);
+            }
+        }
     }
 
     private String getPackageNameFor(Category category) {
@@ -188,9 +341,9 @@ public class SysUiTunerManager implements BroadcastMediator.Receiver {
 
     // Must be called from Zygote
     public static void initUserItemsCache(final XSharedPreferences prefs) {
+        Map<String, ?> prefMap = prefs.getAll();
         for (Category category : new Category[] { Category.FRAMEWORK, Category.SYSTEMUI}) {
-            List<TuneableItem> list = new ArrayList<>();
-            Map<String, ?> prefMap = prefs.getAll();
+            Map<String, TuneableItem> items = new LinkedHashMap<>();
             for (Map.Entry<String, ?> pref : prefMap.entrySet()) {
                 if (pref.getKey().startsWith(category.toString() + ":") ||
                         pref.getKey().startsWith("tuneable:")) {
@@ -201,33 +354,29 @@ public class SysUiTunerManager implements BroadcastMediator.Receiver {
                                 "; key=" + item.getKey() +
                                 "; overridden=" + item.isOverridden() +
                                 "; userValue=" + item.getUserValue());
-                        list.add(item);
+                        items.putIfAbsent(item.getKey(), item);
                     }
                 }
             }
-            sUserItemsCache.put(category, list);
+            sUserItemsCache.put(category, items);
         }
     }
 
     public static void addUserItemKeysToList(Category category, List<String> list) {
-        if (sUserItemsCache.containsKey(category) && sUserItemsCache.get(category) != null) {
-            for (TuneableItem item : sUserItemsCache.get(category)) {
-                if (!list.contains(item.getKey())) {
-                    list.add(item.getKey());
+        Map<String, TuneableItem> items = sUserItemsCache.get(category);
+        if (items != null) {
+            Set<String> keys = new HashSet<>(list);
+            for (String key : items.keySet()) {
+                if (keys.add(key)) {
+                    list.add(key);
                 }
             }
         }
     }
 
     private static TuneableItem findUserItemByKey(Category category, String key) {
-        if (sUserItemsCache.containsKey(category) && sUserItemsCache.get(category) != null) {
-            for (TuneableItem item : sUserItemsCache.get(category)) {
-                if (item.getKey().equals(key)) {
-                    return item;
-                }
-            }
-        }
-        return null;
+        Map<String, TuneableItem> items = sUserItemsCache.get(category);
+        return (items != null ? items.get(key) : null);
     }
 
     public static boolean onIntercept(ResourceProxy.ResourceSpec spec) {
@@ -27,6 +27,7 @@ import com.ceco.q.gravitybox.adapters.BaseListAdapterFilter;
 import com.ceco.q.gravitybox.adapters.BaseListAdapterFilter.IBaseListAdapterFilterable;
 
 import java.util.ArrayList;
+import java.util.Comparator;
 import java.util.List;
 
 public class TuneableListAdapter extends ArrayAdapter<TuneableListItem>
@@ -89,6 +90,31 @@ public class TuneableListAdapter extends ArrayAdapter<TuneableListItem>
         return row;
     }
 
+    /**
+     * Merges items sorted by key into the list keeping it sorted
+     * @param items - items sorted by key
+     * @param filterQuery - current search query or null
+     */
+    void mergeSorted(List<TuneableListItem> items, String filterQuery) {
+        mData = mergeSorted(mData, items, Comparator.comparing(TuneableListItem::getText));
+        if (filterQuery != null && !filterQuery.isEmpty()) {
+            getFilter().filter(filterQuery);
+        } else {
+            onFilterPublishResults(new ArrayList<>(mData));
+        }
+    }
+
+    static <T> List<T> mergeSorted(List<T> a, List<T> b, Comparator<? super T> comparator) {
+        List<T> merged = new ArrayList<>(a.size() + b.size());
+        int i = 0, j = 0;
+        while (i < a.size() && j < b.size()) {
+            merged.add(comparator.compare(a.get(i), b.get(j)) <= 0 ? a.get(i++) : b.get(j++));
+        }
+        merged.addAll(a.subList(i, a.size()));
+        merged.addAll(b.subList(j, b.size()));
+        return merged;
+    }
+
     @Override
     public android.widget.Filter getFilter() {
         if(mFilter == null) {
@@ -111,10 +137,9 @@ public class TuneableListAdapter extends ArrayAdapter<TuneableListItem>
     @Override
     public void onFilterPublishResults(List<TuneableListItem> results) {
         mFilteredData = results;
+        setNotifyOnChange(false);
         clear();
-        for (int i = 0; i < mFilteredData.size(); i++) {
-            TuneableListItem item = mFilteredData.get(i);
-            add(item);
-        }
+        addAll(mFilteredData);
+        notifyDataSetChanged();
     }
 }
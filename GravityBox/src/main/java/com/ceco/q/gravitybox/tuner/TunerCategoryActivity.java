@@ -53,7 +53,7 @@ public class TunerCategoryActivity extends GravityBoxListActivity implements
     private boolean mShowActiveOnly;
     private String mSearchQuery;
     private SearchView mSearchView;
-    private List<TuneableItem> mItems;
+    private List<TuneableItem> mItems = new ArrayList<>();
     private Handler mHandler;
 
     @Override
@@ -166,24 +166,39 @@ public class TunerCategoryActivity extends GravityBoxListActivity implements
         mHandler.removeCallbacks(mNoResponseRunnable);
         if (!isDestroyed() && resultData != null) {
             resultData.setClassLoader(getClassLoader());
-            mItems = resultData.getParcelableArrayList(SysUiTunerManager.EXTRA_TUNEABLES);
-            mItems.sort(Comparator.comparing(TuneableItem::getKey));
-            setData();
+            List<TuneableItem> items = resultData.getParcelableArrayList(SysUiTunerManager.EXTRA_TUNEABLES);
+            if (items == null || (items.isEmpty() && !mItems.isEmpty()))
+                return;
+            // items arrive in pages; merge each page into the sorted list
+            SharedPreferences prefs = SettingsManager.getInstance(this).getTunerPrefs();
+            for (TuneableItem item : items) {
+                item.loadUserSettings(prefs);
+            }
+            items.sort(Comparator.comparing(TuneableItem::getKey));
+            mItems = TuneableListAdapter.mergeSorted(mItems, items,
+                    Comparator.comparing(TuneableItem::getKey));
+            TuneableListAdapter adapter = (TuneableListAdapter) mList.getAdapter();
+            if (adapter == null) {
+                setData();
+            } else {
+                adapter.mergeSorted(createListItems(items), mSearchQuery);
+            }
         }
     }
 
-    private void setData() {
+    private List<TuneableListItem> createListItems(List<TuneableItem> items) {
         ArrayList<TuneableListItem> listItems = new ArrayList<>();
-        SharedPreferences prefs = SettingsManager.getInstance(this).getTunerPrefs();
-        for(TuneableItem item : mItems) {
-            item.loadUserSettings(prefs);
+        for(TuneableItem item : items) {
             if (mShowActiveOnly && !item.isOverridden())
                 continue;
             TuneableListItem listItem = new TuneableListItem(this, item);
             listItems.add(listItem);
         }
+        return listItems;
+    }
 
-        TuneableListAdapter adapter = new TuneableListAdapter(this, listItems);
+    private void setData() {
+        TuneableListAdapter adapter = new TuneableListAdapter(this, createListItems(mItems));
         if (mSearchQuery != null) {
             adapter.getFilter().filter(mSearchQuery);
         }
@@ -0,0 +1,139 @@
+/*
+ * Copyright (C) 2019 Peter Gregus for GravityBox Project (C3C076@xda)
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ceco.q.gravitybox;
+
+import java.text.DateFormatSymbols;
+import java.text.SimpleDateFormat;
+import java.util.Calendar;
+import java.util.Locale;
+import java.util.TimeZone;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class ClockTextBuilderTest {
+    private static final TimeZone UTC = TimeZone.getTimeZone("UTC");
+    private static final String PATTERN_12H = "h:mm:ss a";
+
+    // Monday, 14 October 2019 10:15:00 UTC
+    private static long baseTime() {
+        Calendar c = Calendar.getInstance(UTC, Locale.US);
+        c.clear();
+        c.set(2019, Calendar.OCTOBER, 14, 10, 15, 0);
+        return c.getTimeInMillis();
+    }
+
+    private static ClockTextBuilder builder(Locale locale, boolean is24, String dateMode,
+                                            int dowMode, boolean amPmHide) {
+        return new ClockTextBuilder(locale, UTC, is24, PATTERN_12H, dateMode, dowMode, amPmHide);
+    }
+
+    @Test
+    public void timeWithSecondsMatchesFullFormat() {
+        ClockTextBuilder b = builder(Locale.US, false, "disabled",
+                GravityBoxSettings.DOW_DISABLED, false);
+        SimpleDateFormat expected = new SimpleDateFormat(PATTERN_12H, Locale.US);
+        expected.setTimeZone(UTC);
+        final long base = baseTime();
+        // ticks across several minutes plus a jump back in time
+        long[] times = new long[200];
+        for (int i = 0; i < 190; i++) {
+            times[i] = base - 30000 + i * 1000L;
+        }
+        for (int i = 190; i < times.length; i++) {
+            times[i] = base - 3600000 + (i - 190) * 1000L;
+        }
+        for (long t : times) {
+            String text = b.build(t, "", false, true).toString();
+            assertEquals(expected.format(t), text);
+            assertEquals(0, b.getPrefixEnd());
+            assertEquals(text.length() - 3, b.getAmPmStart());
+            assertEquals(text.length(), b.getAmPmEnd());
+        }
+    }
+
+    @Test
+    public void prefixRangeCoversOnlyDayOfWeekAndDate() {
+        ClockTextBuilder b = builder(Locale.US, false, "dd.MM",
+                GravityBoxSettings.DOW_UPPERCASE, false);
+        String text = b.build(baseTime(), "10:15 AM", true, false).toString();
+        assertEquals("MON 14.10 10:15 AM", text);
+        assertEquals("MON 14.10 ".length(), b.getPrefixEnd());
+        assertEquals("MON 14.10 10:15".length(), b.getAmPmStart());
+        assertEquals(text.length(), b.getAmPmEnd());
+
+        // seconds are patched after the prefix
+        text = b.build(baseTime() + 7000, "", true, true).toString();
+        assertEquals("MON 14.10 10:15:07 AM", text);
+        assertEquals("MON 14.10 ".length(), b.getPrefixEnd());
+        assertEquals("MON 14.10 10:15:07".length(), b.getAmPmStart());
+    }
+
+    @Test
+    public void noPrefixForPanelClock() {
+        ClockTextBuilder b = builder(Locale.US, false, "dd.MM",
+                GravityBoxSettings.DOW_STANDARD, false);
+        String text = b.build(baseTime(), "10:15 AM", false, false).toString();
+        assertEquals("10:15 AM", text);
+        assertEquals(0, b.getPrefixEnd());
+        assertEquals(5, b.getAmPmStart());
+        assertEquals(8, b.getAmPmEnd());
+    }
+
+    @Test
+    public void amPmAppendedWhenMissing() {
+        ClockTextBuilder b = builder(Locale.US, false, "disabled",
+                GravityBoxSettings.DOW_LOWERCASE, false);
+        String text = b.build(baseTime(), "10:15", true, false).toString();
+        assertEquals("mon 10:15 AM", text);
+        assertEquals(4, b.getPrefixEnd());
+        assertEquals(9, b.getAmPmStart());
+        assertEquals(12, b.getAmPmEnd());
+    }
+
+    @Test
+    public void amPmInsertedAfterPrefixForChina() {
+        ClockTextBuilder b = builder(Locale.CHINA, false, "disabled",
+                GravityBoxSettings.DOW_STANDARD, false);
+        DateFormatSymbols symbols = DateFormatSymbols.getInstance(Locale.CHINA);
+        String dow = symbols.getShortWeekdays()[Calendar.MONDAY] + " ";
+        String amPm = symbols.getAmPmStrings()[Calendar.AM];
+
+        String text = b.build(baseTime(), "10:15", true, false).toString();
+        assertEquals(dow + amPm + " 10:15", text);
+        assertEquals(dow.length(), b.getPrefixEnd());
+        assertEquals(dow.length(), b.getAmPmStart());
+        assertEquals(dow.length() + amPm.length(), b.getAmPmEnd());
+    }
+
+    @Test
+    public void amPmRemovedWhenHidden() {
+        ClockTextBuilder b = builder(Locale.US, false, "disabled",
+                GravityBoxSettings.DOW_DISABLED, true);
+        assertEquals("10:15", b.build(baseTime(), "10:15 AM", true, false).toString());
+        assertEquals(-1, b.getAmPmStart());
+        assertEquals("10:15:00", b.build(baseTime(), "", true, true).toString());
+        assertEquals(-1, b.getAmPmStart());
+    }
+
+    @Test
+    public void noAmPmIn24HourMode() {
+        ClockTextBuilder b = builder(Locale.US, true, "disabled",
+                GravityBoxSettings.DOW_DISABLED, false);
+        assertEquals("10:15", b.build(baseTime(), "10:15", false, false).toString());
+        assertEquals(-1, b.getAmPmStart());
+    }
+}
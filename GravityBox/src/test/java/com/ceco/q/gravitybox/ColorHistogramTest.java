@@ -0,0 +1,133 @@
+/*
+ * Copyright (C) 2019 Peter Gregus for GravityBox Project (C3C076@xda)
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ceco.q.gravitybox;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class ColorHistogramTest {
+
+    // boxed counting as done by the original implementation
+    private static int naivePredominantColor(int[] pixels, int step, int width) {
+        Map<Integer, Integer> counts = new HashMap<>();
+        for (int i = 0; i < pixels.length; i++) {
+            if ((i % width) % step != 0 || (i / width) % step != 0) continue;
+            Integer counter = counts.get(pixels[i]);
+            counts.put(pixels[i], counter == null ? 1 : counter + 1);
+        }
+        Map.Entry<Integer, Integer> maxEntry = null;
+        for (Map.Entry<Integer, Integer> entry : counts.entrySet()) {
+            if (entry.getKey() == 0) continue;
+            if (maxEntry == null || entry.getValue() > maxEntry.getValue()) {
+                maxEntry = entry;
+            }
+        }
+        return (maxEntry == null ? 0 : maxEntry.getKey());
+    }
+
+    private static int histogramPredominantColor(ColorHistogram histogram, int[] pixels,
+                                                 int step, int width, int quantizeBits) {
+        histogram.reset(quantizeBits);
+        final int height = pixels.length / width;
+        for (int y = 0; y < height; y += step) {
+            for (int x = 0; x < width; x += step) {
+                final int color = pixels[y * width + x];
+                if (color != 0) {
+                    histogram.add(color);
+                }
+            }
+        }
+        return histogram.getPredominantColor();
+    }
+
+    // image made of random palette colors with one clearly dominant color
+    private static int[] syntheticImage(int width, int height, int paletteSize, long seed) {
+        Random random = new Random(seed);
+        int[] palette = new int[paletteSize];
+        for (int i = 0; i < paletteSize; i++) {
+            palette[i] = random.nextInt() | 0xFF000000;
+        }
+        int[] pixels = new int[width * height];
+        for (int i = 0; i < pixels.length; i++) {
+            pixels[i] = random.nextInt(4) == 0 ? palette[0] : palette[random.nextInt(paletteSize)];
+        }
+        return pixels;
+    }
+
+    @Test
+    public void exactResultMatchesNaiveCount() {
+        ColorHistogram histogram = new ColorHistogram();
+        for (int seed = 0; seed < 5; seed++) {
+            int[] pixels = syntheticImage(97, 61, 50 + seed * 500, seed);
+            pixels[0] = 0;
+            pixels[1] = 0;
+            assertEquals(naivePredominantColor(pixels, 1, 97),
+                    histogramPredominantColor(histogram, pixels, 1, 97, 8));
+        }
+    }
+
+    @Test
+    public void sampledResultMatchesNaiveCountOfSamples() {
+        ColorHistogram histogram = new ColorHistogram();
+        int[] pixels = syntheticImage(300, 200, 1000, 7);
+        assertEquals(naivePredominantColor(pixels, 3, 300),
+                histogramPredominantColor(histogram, pixels, 3, 300, 8));
+    }
+
+    @Test
+    public void quantizedResultIsAverageOfBucket() {
+        ColorHistogram histogram = new ColorHistogram();
+        int[] pixels = {
+                0xFF102030, 0xFF102030, 0xFF172737, 0xFF172737,
+                0xFF808080, 0xFF808080, 0xFF808080, 0
+        };
+        assertEquals(0xFF132333, histogramPredominantColor(histogram, pixels, 1, 8, 5));
+        assertEquals(2, histogram.size());
+        // unquantized the most frequent exact color wins
+        assertEquals(0xFF808080, histogramPredominantColor(histogram, pixels, 1, 8, 8));
+        assertEquals(3, histogram.size());
+    }
+
+    @Test
+    public void emptyHistogramGivesTransparent() {
+        ColorHistogram histogram = new ColorHistogram();
+        assertEquals(0, histogramPredominantColor(histogram, new int[16], 1, 4, 5));
+        assertEquals(0, histogram.size());
+    }
+
+    @Test
+    public void tableGrowsWithDistinctColors() {
+        ColorHistogram histogram = new ColorHistogram().reset(8);
+        for (int i = 1; i <= 100000; i++) {
+            histogram.add(i * 31);
+        }
+        for (int i = 0; i < 5; i++) {
+            histogram.add(0xFF123456);
+        }
+        assertEquals(100001, histogram.size());
+        assertEquals(0xFF123456, histogram.getPredominantColor());
+
+        // reset drops the large table and starts over
+        histogram.reset(8);
+        assertEquals(0, histogram.size());
+        histogram.add(0xFF000001);
+        assertEquals(0xFF000001, histogram.getPredominantColor());
+    }
+}
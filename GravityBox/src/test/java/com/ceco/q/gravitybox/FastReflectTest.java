@@ -0,0 +1,127 @@
+/*
+ * Copyright (C) 2019 Peter Gregus for GravityBox Project (C3C076@xda)
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ceco.q.gravitybox;
+
+import org.junit.Test;
+
+import de.robv.android.xposed.XposedHelpers;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class FastReflectTest {
+
+    @SuppressWarnings("unused")
+    static class Base {
+        private Object mObject = "base";
+        private boolean mFlag = true;
+        private int mCount = 3;
+        private long mTime = 1234567890123L;
+        private float mAlpha = 0.5f;
+
+        private int add(int a, int b) {
+            return a + b;
+        }
+
+        private String describe(Object o) {
+            return "base:" + o;
+        }
+
+        private void fail(String message) {
+            throw new IllegalStateException(message);
+        }
+    }
+
+    @SuppressWarnings("unused")
+    static class Derived extends Base {
+        private int mCount = 7;
+    }
+
+    @Test
+    public void fieldAccessorReadsAndWritesInheritedFields() {
+        Derived d = new Derived();
+        FastReflect.FieldAccessor object = FastReflect.field("mObject");
+        FastReflect.FieldAccessor flag = FastReflect.field("mFlag");
+        FastReflect.FieldAccessor time = FastReflect.field("mTime");
+        FastReflect.FieldAccessor alpha = FastReflect.field("mAlpha");
+
+        assertEquals("base", object.get(d));
+        object.set(d, "changed");
+        assertEquals("changed", object.get(d));
+
+        assertTrue(flag.getBoolean(d));
+        flag.setBoolean(d, false);
+        assertFalse(flag.getBoolean(d));
+
+        assertEquals(1234567890123L, time.getLong(d));
+        assertEquals(0.5f, alpha.getFloat(d), 0f);
+    }
+
+    @Test
+    public void fieldAccessorResolvesPerReceiverClass() {
+        FastReflect.FieldAccessor count = FastReflect.field("mCount");
+        Base base = new Base();
+        Derived derived = new Derived();
+        // same accessor alternating receivers re-resolves each time; correct but not fast
+        assertEquals(3, count.getInt(base));
+        assertEquals(7, count.getInt(derived));
+        count.setInt(derived, 8);
+        assertEquals(8, count.getInt(derived));
+        assertEquals(3, count.getInt(base));
+    }
+
+    @Test(expected = NoSuchFieldError.class)
+    public void missingFieldFailsLikeXposedHelpers() {
+        FastReflect.field("mMissing").get(new Base());
+    }
+
+    @Test
+    public void methodAccessorWithParameterTypes() {
+        FastReflect.MethodAccessor add = FastReflect.method("add", int.class, int.class);
+        assertEquals(5, add.invoke(new Derived(), 2, 3));
+        assertEquals(9, add.invoke(new Derived(), 4, 5));
+    }
+
+    @Test
+    public void methodAccessorResolvedFromFirstCallArguments() {
+        FastReflect.MethodAccessor describe = FastReflect.method("describe");
+        Base b = new Base();
+        assertEquals("base:x", describe.invoke(b, "x"));
+        assertEquals("base:1", describe.invoke(b, 1));
+    }
+
+    @Test
+    public void methodExceptionIsWrappedLikeXposedHelpers() {
+        IllegalStateException cause = null;
+        try {
+            FastReflect.method("fail", String.class).invoke(new Base(), "boom");
+            fail("exception expected");
+        } catch (XposedHelpers.InvocationTargetError e) {
+            cause = (IllegalStateException) e.getCause();
+        }
+        assertEquals("boom", cause.getMessage());
+    }
+
+    @Test
+    public void accessorReturnsSameValueAsXposedHelpers() {
+        Derived d = new Derived();
+        assertSame(XposedHelpers.getObjectField(d, "mObject"), FastReflect.field("mObject").get(d));
+        assertEquals(XposedHelpers.callMethod(d, "add", 1, 2),
+                FastReflect.method("add", int.class, int.class).invoke(d, 1, 2));
+    }
+}
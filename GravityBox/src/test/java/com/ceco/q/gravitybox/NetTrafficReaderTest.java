@@ -0,0 +1,153 @@
+/*
+ * Copyright (C) 2019 Peter Gregus for GravityBox Project (C3C076@xda)
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ceco.q.gravitybox;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class NetTrafficReaderTest {
+    private static final String NET_DEV =
+            "Inter-|   Receive                                                |  Transmit\n" +
+            " face |bytes    packets errs drop fifo frame compressed multicast|bytes    packets errs drop fifo colls carrier compressed\n" +
+            "    lo:  524288     100    0    0    0     0          0         0   524288     100    0    0    0     0       0          0\n" +
+            " wlan0:    1000      10    0    0    0     0          0         0     2000      20    0    0    0     0       0          0\n" +
+            "  tun0:     777       7    0    0    0     0          0         0      888       8    0    0    0     0       0          0\n" +
+            "rmnet_data0:123456789 1000 0 0 0 0 0 0 987654321 2000 0 0 0 0 0 0\n";
+
+    private static final String QTAGUID =
+            "ifname total_skb_rx_bytes total_skb_rx_packets total_skb_tx_bytes total_skb_tx_packets\n" +
+            "lo 524288 100 524288 100\n" +
+            "wlan0 1000 10 2000 20\n" +
+            "tun0 777 7 888 8\n" +
+            "rmnet_data0 123456789 1000 987654321 2000\n";
+
+    private File mFile;
+
+    @Before
+    public void setUp() throws IOException {
+        mFile = File.createTempFile("net_traffic", null);
+    }
+
+    @After
+    public void tearDown() {
+        mFile.delete();
+    }
+
+    private void write(String content) throws IOException {
+        try (FileOutputStream out = new FileOutputStream(mFile)) {
+            out.write(content.getBytes(StandardCharsets.US_ASCII));
+        }
+    }
+
+    private static void assertCountedInterfaces(NetTrafficReader.Counters c) {
+        assertEquals(2, c.ifaceCount);
+        assertEquals(1000 + 123456789L, c.rxBytes);
+        assertEquals(2000 + 987654321L, c.txBytes);
+        assertEquals("wlan0".hashCode(), c.ifaceIds[0]);
+        assertEquals(1000, c.ifaceRxBytes[0]);
+        assertEquals(2000, c.ifaceTxBytes[0]);
+        assertEquals("rmnet_data0".hashCode(), c.ifaceIds[1]);
+        assertEquals(123456789L, c.ifaceRxBytes[1]);
+        assertEquals(987654321L, c.ifaceTxBytes[1]);
+    }
+
+    @Test
+    public void netDevSkipsHeaderLoopbackAndTun() throws IOException {
+        write(NET_DEV);
+        NetTrafficReader reader = NetTrafficReader.forNetDev(mFile.getPath());
+        NetTrafficReader.Counters c = new NetTrafficReader.Counters();
+        assertTrue(reader.read(c));
+        assertCountedInterfaces(c);
+        reader.close();
+    }
+
+    @Test
+    public void qtaguidSkipsHeaderLoopbackAndTun() throws IOException {
+        write(QTAGUID);
+        NetTrafficReader reader = NetTrafficReader.forQtaguid(mFile.getPath());
+        NetTrafficReader.Counters c = new NetTrafficReader.Counters();
+        assertTrue(reader.read(c));
+        assertCountedInterfaces(c);
+        reader.close();
+    }
+
+    @Test
+    public void openFileIsReread() throws IOException {
+        write(QTAGUID);
+        NetTrafficReader reader = NetTrafficReader.forQtaguid(mFile.getPath());
+        NetTrafficReader.Counters c = new NetTrafficReader.Counters();
+        assertTrue(reader.read(c));
+        write("ifname total_skb_rx_bytes total_skb_rx_packets total_skb_tx_bytes total_skb_tx_packets\n" +
+                "wlan0 5000 50 6000 60\n");
+        assertTrue(reader.read(c));
+        assertEquals(1, c.ifaceCount);
+        assertEquals(5000, c.rxBytes);
+        assertEquals(6000, c.txBytes);
+        reader.close();
+    }
+
+    @Test
+    public void incompleteLinesAreIgnored() throws IOException {
+        write("wlan0 1000 10\n" +
+                "wlan1 1x00 10 2000 20\n" +
+                "\n" +
+                "wlan2 100 1 200 2");
+        NetTrafficReader reader = NetTrafficReader.forQtaguid(mFile.getPath());
+        NetTrafficReader.Counters c = new NetTrafficReader.Counters();
+        assertTrue(reader.read(c));
+        assertEquals(1, c.ifaceCount);
+        assertEquals("wlan2".hashCode(), c.ifaceIds[0]);
+        assertEquals(100, c.rxBytes);
+        assertEquals(200, c.txBytes);
+        reader.close();
+    }
+
+    @Test
+    public void largeFileIsReadWholeAndExtraInterfacesAreFolded() throws IOException {
+        final int ifaces = 200;
+        StringBuilder sb = new StringBuilder(NET_DEV.substring(0, NET_DEV.indexOf("    lo:")));
+        long rxTotal = 0, txTotal = 0, rxFolded = 0;
+        for (int i = 0; i < ifaces; i++) {
+            sb.append(String.format(Locale.US,
+                    "  veth%d: %d 1 0 0 0 0 0 0 %d 1 0 0 0 0 0 0\n", i, i * 10, i * 20));
+            rxTotal += i * 10;
+            txTotal += i * 20;
+            if (i >= NetTrafficReader.Counters.MAX_INTERFACES - 1) rxFolded += i * 10;
+        }
+        assertTrue(sb.length() > 4096);
+        write(sb.toString());
+
+        NetTrafficReader reader = NetTrafficReader.forNetDev(mFile.getPath());
+        NetTrafficReader.Counters c = new NetTrafficReader.Counters();
+        assertTrue(reader.read(c));
+        final int last = NetTrafficReader.Counters.MAX_INTERFACES - 1;
+        assertEquals(NetTrafficReader.Counters.MAX_INTERFACES, c.ifaceCount);
+        assertEquals(rxTotal, c.rxBytes);
+        assertEquals(txTotal, c.txBytes);
+        assertEquals(NetTrafficReader.Counters.OVERFLOW_ID, c.ifaceIds[last]);
+        assertEquals(rxFolded, c.ifaceRxBytes[last]);
+        reader.close();
+    }
+}
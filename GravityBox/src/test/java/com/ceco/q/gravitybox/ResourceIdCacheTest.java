@@ -0,0 +1,104 @@
+/*
+ * Copyright (C) 2019 Peter Gregus for GravityBox Project (C3C076@xda)
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ceco.q.gravitybox;
+
+import java.lang.reflect.Field;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class ResourceIdCacheTest {
+
+    @Test
+    public void storesValuesPerOwnerAndId() {
+        ResourceIdCache<String> cache = new ResourceIdCache<>();
+        Object owner1 = new Object();
+        Object owner2 = new Object();
+        assertNull(cache.get(owner1, 1));
+
+        cache.put(owner1, 3, "c");
+        cache.put(owner1, 1, "a");
+        cache.put(owner1, 2, "b");
+        cache.put(owner2, 1, "x");
+        assertEquals("a", cache.get(owner1, 1));
+        assertEquals("b", cache.get(owner1, 2));
+        assertEquals("c", cache.get(owner1, 3));
+        assertEquals("x", cache.get(owner2, 1));
+        assertNull(cache.get(owner2, 2));
+        assertEquals("a", cache.get(owner1, 1));
+    }
+
+    @Test
+    public void ownersAreComparedByIdentity() {
+        ResourceIdCache<String> cache = new ResourceIdCache<>();
+        String owner1 = new String("assets");
+        String owner2 = new String("assets");
+        cache.put(owner1, 1, "a");
+        assertNull(cache.get(owner2, 1));
+    }
+
+    @Test
+    public void firstValueIsKept() {
+        ResourceIdCache<String> cache = new ResourceIdCache<>();
+        Object owner = new Object();
+        cache.put(owner, 1, "first");
+        cache.put(owner, 1, "second");
+        assertEquals("first", cache.get(owner, 1));
+    }
+
+    @Test
+    public void growsPerTypeTables() {
+        ResourceIdCache<String> cache = new ResourceIdCache<>();
+        Object owner = new Object();
+        cache.put(owner, 0x7f070001, "first");
+        cache.put(owner, 0x7f07ffff, "last");
+        cache.put(owner, 0x7f080001, "other type");
+        assertEquals("first", cache.get(owner, 0x7f070001));
+        assertEquals("last", cache.get(owner, 0x7f07ffff));
+        assertEquals("other type", cache.get(owner, 0x7f080001));
+        assertNull(cache.get(owner, 0x7f070002));
+        assertNull(cache.get(owner, 0x7f090001));
+    }
+
+    @Test
+    public void clearDropsValues() {
+        ResourceIdCache<String> cache = new ResourceIdCache<>();
+        Object owner = new Object();
+        cache.put(owner, 1, "a");
+        cache.clear();
+        assertNull(cache.get(owner, 1));
+        cache.put(owner, 1, "b");
+        assertEquals("b", cache.get(owner, 1));
+    }
+
+    @Test
+    public void staleTableRepublishedAfterClearIsIgnored() throws Exception {
+        ResourceIdCache<String> cache = new ResourceIdCache<>();
+        Object owner = new Object();
+        cache.put(owner, 1, "stale");
+        Field lastTable = ResourceIdCache.class.getDeclaredField("mLastTable");
+        lastTable.setAccessible(true);
+        Object staleTable = lastTable.get(cache);
+
+        cache.clear();
+        // lookup that started before clear publishes its table afterwards
+        lastTable.set(cache, staleTable);
+        assertNull(cache.get(owner, 1));
+        cache.put(owner, 1, "fresh");
+        assertEquals("fresh", cache.get(owner, 1));
+    }
+}
@@ -0,0 +1,126 @@
+/*
+ * Copyright (C) 2019 Peter Gregus for GravityBox Project (C3C076@xda)
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ceco.q.gravitybox;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+public class StackBlurTest {
+
+    private static int[] randomPixels(int width, int height, long seed) {
+        Random random = new Random(seed);
+        int[] pixels = new int[width * height];
+        for (int i = 0; i < pixels.length; i++) {
+            pixels[i] = random.nextInt();
+        }
+        return pixels;
+    }
+
+    /**
+     * Direct evaluation of the same tent kernel with edge pixels repeated,
+     * horizontal pass followed by vertical pass
+     */
+    private static int[] referenceBlur(int[] src, int width, int height, int radius) {
+        int[] tmp = new int[width * height];
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                tmp[y * width + x] = referencePixel(src, y * width, 1, width, x, radius);
+            }
+        }
+        int[] out = new int[width * height];
+        for (int x = 0; x < width; x++) {
+            for (int y = 0; y < height; y++) {
+                out[y * width + x] = referencePixel(tmp, x, width, height, y, radius);
+            }
+        }
+        return out;
+    }
+
+    private static int referencePixel(int[] pixels, int offset, int stride, int length, int pos, int radius) {
+        final int divSum = (radius + 1) * (radius + 1);
+        int sumA = 0, sumR = 0, sumG = 0, sumB = 0;
+        for (int i = -radius; i <= radius; i++) {
+            final int c = pixels[offset + Math.min(length - 1, Math.max(pos + i, 0)) * stride];
+            final int weight = radius + 1 - Math.abs(i);
+            sumA += (c >>> 24) * weight;
+            sumR += ((c >> 16) & 0xff) * weight;
+            sumG += ((c >> 8) & 0xff) * weight;
+            sumB += (c & 0xff) * weight;
+        }
+        return (sumA / divSum) << 24 | (sumR / divSum) << 16 | (sumG / divSum) << 8 | (sumB / divSum);
+    }
+
+    @Test
+    public void blurMatchesReferenceKernel() {
+        final int width = 67, height = 43;
+        for (int radius : new int[] { 1, 2, 5, 14, 25 }) {
+            int[] pixels = randomPixels(width, height, radius);
+            int[] expected = referenceBlur(pixels, width, height, radius);
+            StackBlur.blur(pixels, width, height, radius);
+            assertArrayEquals("radius " + radius, expected, pixels);
+        }
+    }
+
+    @Test
+    public void blurKeepsUniformImage() {
+        int[] pixels = new int[32 * 32];
+        Arrays.fill(pixels, 0x80123456);
+        StackBlur.blur(pixels, 32, 32, 10);
+        for (int p : pixels) {
+            assertEquals(0x80123456, p);
+        }
+    }
+
+    @Test
+    public void zeroRadiusLeavesPixelsUntouched() {
+        int[] pixels = randomPixels(16, 16, 1);
+        int[] expected = pixels.clone();
+        StackBlur.blur(pixels, 16, 16, 0);
+        assertArrayEquals(expected, pixels);
+    }
+
+    @Test
+    public void radiusLargerThanImage() {
+        final int width = 7, height = 3, radius = 50;
+        int[] pixels = randomPixels(width, height, 2);
+        int[] expected = referenceBlur(pixels, width, height, radius);
+        StackBlur.blur(pixels, width, height, radius);
+        assertArrayEquals(expected, pixels);
+
+        int[] single = { 0xff00ff00 };
+        StackBlur.blur(single, 1, 1, radius);
+        assertEquals(0xff00ff00, single[0]);
+    }
+
+    @Test
+    public void radiusIsClampedToMaximum() {
+        final int width = 5, height = 5;
+        int[] pixels = randomPixels(width, height, 3);
+        int[] clamped = pixels.clone();
+        StackBlur.blur(pixels, width, height, StackBlur.MAX_RADIUS * 4);
+        StackBlur.blur(clamped, width, height, StackBlur.MAX_RADIUS);
+        assertArrayEquals(clamped, pixels);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void tooSmallPixelArrayIsRejected() {
+        StackBlur.blur(new int[10], 4, 4, 2);
+    }
+}
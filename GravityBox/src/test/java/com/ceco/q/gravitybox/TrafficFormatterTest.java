@@ -0,0 +1,114 @@
+/*
+ * Copyright (C) 2019 Peter Gregus for GravityBox Project (C3C076@xda)
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ceco.q.gravitybox;
+
+import java.text.DecimalFormat;
+import java.text.DecimalFormatSymbols;
+import java.text.NumberFormat;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class TrafficFormatterTest {
+    private static final DecimalFormatSymbols SYMBOLS = DecimalFormatSymbols.getInstance();
+
+    private static String decimal(String integer, char fraction) {
+        return integer + SYMBOLS.getDecimalSeparator() + fraction;
+    }
+
+    @Test
+    public void integerMatchesNumberFormat() {
+        NumberFormat nf = NumberFormat.getIntegerInstance();
+        TrafficFormatter f = new TrafficFormatter();
+        long[] values = { 0, 7, 999, 1000, 12345, 1048576, 987654321L, Long.MAX_VALUE };
+        for (long value : values) {
+            assertEquals(nf.format(value), f.clear().appendInteger(value, true).toString());
+        }
+        assertEquals("1234567", new TrafficFormatter().appendInteger(1234567, false).toString());
+    }
+
+    @Test
+    public void decimalRoundsToOneFractionDigit() {
+        TrafficFormatter f = new TrafficFormatter();
+        assertEquals(decimal("1", '5'), f.clear().appendDecimal(1536, 1024, true, 0).toString());
+        assertEquals(decimal("2", '0'), f.clear().appendDecimal(2048, 1024, true, 0).toString());
+        // 1.96 rounds up to the next integer
+        assertEquals(decimal("2", '0'), f.clear().appendDecimal(2007, 1024, true, 0).toString());
+        assertEquals("2", f.clear().appendDecimal(2048, 1024, false, 0).toString());
+        assertEquals(decimal("9", '9'), f.clear().appendDecimal(10178, 1024, false, 0).toString());
+    }
+
+    @Test
+    public void decimalRoundsHalfEvenLikeDecimalFormat() {
+        DecimalFormat df = new DecimalFormat("##0.#");
+        TrafficFormatter f = new TrafficFormatter();
+        // x.25 and x.75 are exact ties
+        long[] numerators = { 256, 1280, 1792, 2816, 1331, 1536 };
+        for (long numerator : numerators) {
+            assertEquals(df.format(numerator / 1024.0),
+                    f.clear().appendDecimal(numerator, 1024, false, 0).toString());
+        }
+        assertEquals(decimal("1", '2'), f.clear().appendDecimal(125, 100, true, 0).toString());
+        assertEquals(decimal("1", '4'), f.clear().appendDecimal(135, 100, true, 0).toString());
+    }
+
+    @Test
+    public void decimalKeepsLimitedIntegerDigits() {
+        TrafficFormatter f = new TrafficFormatter();
+        assertEquals("3456", f.clear().appendDecimal(123456, 1, false, 4).toString());
+        assertEquals("999", f.clear().appendDecimal(999, 1, false, 4).toString());
+    }
+
+    @Test
+    public void appendsTextAndGrows() {
+        TrafficFormatter f = new TrafficFormatter();
+        StringBuilder expected = new StringBuilder();
+        for (int i = 0; i < 20; i++) {
+            f.append("KB/s").append('\n');
+            expected.append("KB/s").append('\n');
+        }
+        assertEquals(expected.toString(), f.toString());
+        assertEquals(expected.length(), f.length());
+    }
+
+    @Test
+    public void contentEqualsComparesCharacters() {
+        TrafficFormatter a = new TrafficFormatter().appendInteger(12, false).append("KB/s");
+        TrafficFormatter b = new TrafficFormatter().appendInteger(12, false).append("KB/s");
+        assertTrue(a.contentEquals(b));
+        b.clear().appendInteger(13, false).append("KB/s");
+        assertFalse(a.contentEquals(b));
+        b.clear().appendInteger(12, false).append("KB");
+        assertFalse(a.contentEquals(b));
+        assertTrue(new TrafficFormatter().contentEquals(new TrafficFormatter()));
+    }
+
+    @Test
+    public void copyToReplacesContent() {
+        TrafficFormatter small = new TrafficFormatter().append("old text");
+        TrafficFormatter large = new TrafficFormatter();
+        for (int i = 0; i < 10; i++) {
+            large.append("123 KB/s\n");
+        }
+        large.copyTo(small);
+        assertTrue(small.contentEquals(large));
+        assertEquals(large.toString(), small.toString());
+        new TrafficFormatter().append("1 B/s").copyTo(small);
+        assertEquals("1 B/s", small.toString());
+    }
+}
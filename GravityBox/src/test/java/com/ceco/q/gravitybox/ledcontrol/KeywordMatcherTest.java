@@ -0,0 +1,123 @@
+/*
+ * Copyright (C) 2019 Peter Gregus for GravityBox Project (C3C076@xda)
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ceco.q.gravitybox.ledcontrol;
+
+import java.util.Locale;
+import java.util.Random;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class KeywordMatcherTest {
+
+    // keyword check as done by quiet hours before the matcher was introduced
+    private static boolean naiveMatches(String keywords, CharSequence text) {
+        if (text == null) return false;
+        final String lowerText = text.toString().toLowerCase(Locale.ROOT);
+        for (String kw : keywords.trim().split(",")) {
+            if (lowerText.contains(kw.toLowerCase(Locale.ROOT))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static void assertSameAsNaive(String keywords, String text) {
+        assertEquals("keywords=\"" + keywords + "\" text=\"" + text + "\"",
+                naiveMatches(keywords, text), KeywordMatcher.compile(keywords).matches(text));
+    }
+
+    @Test
+    public void overlappingKeywords() {
+        final String keywords = "he,she,his,hers";
+        assertTrue(KeywordMatcher.compile(keywords).matches("ushers"));
+        assertTrue(KeywordMatcher.compile(keywords).matches("ahishe"));
+        assertFalse(KeywordMatcher.compile(keywords).matches("hxsxr"));
+
+        // match found only by following failure links
+        assertTrue(KeywordMatcher.compile("abcd,bcx").matches("abcx"));
+        assertTrue(KeywordMatcher.compile("abcd,bc").matches("abce"));
+        assertTrue(KeywordMatcher.compile("aab,ab").matches("aaab"));
+        assertFalse(KeywordMatcher.compile("abcd,bcx").matches("abcbc"));
+
+        String[] texts = { "ushers", "ahishe", "abcx", "aaab", "hhhers", "sheshe", "his hers", "" };
+        for (String text : texts) {
+            assertSameAsNaive(keywords, text);
+            assertSameAsNaive("abcd,bcx,aab,ab", text);
+        }
+    }
+
+    @Test
+    public void caseFolding() {
+        assertTrue(KeywordMatcher.compile("Hello").matches("say hELLO world"));
+        assertTrue(KeywordMatcher.compile("WhatsApp,SMS").matches("New sms message"));
+        // "privet" and "PRIVET mir" in Cyrillic
+        assertTrue(KeywordMatcher.compile("\u043F\u0440\u0438\u0432\u0435\u0442").matches("\u041F\u0420\u0418\u0412\u0415\u0422 \u043C\u0438\u0440"));
+        // "UEBER" and "ueber alles" with umlaut
+        assertTrue(KeywordMatcher.compile("\u00DCBER").matches("\u00FCber alles"));
+        assertFalse(KeywordMatcher.compile("hello").matches("help"));
+        assertSameAsNaive("Hello,WORLD", "hello");
+        assertSameAsNaive("Hello,WORLD", "The World");
+    }
+
+    @Test
+    public void emptyKeywords() {
+        // empty keyword is contained in any text
+        assertTrue(KeywordMatcher.compile("foo,,bar").matches("anything"));
+        assertTrue(KeywordMatcher.compile("foo,,bar").matches(""));
+        assertTrue(KeywordMatcher.compile("").matches("anything"));
+        assertSameAsNaive("foo,,bar", "anything");
+        assertSameAsNaive("", "anything");
+
+        // trailing separators produce no keywords at all
+        assertFalse(KeywordMatcher.compile(",").matches("anything"));
+        assertFalse(KeywordMatcher.compile("foo,").matches("bar"));
+        assertSameAsNaive(",", "anything");
+        assertSameAsNaive("foo,", "bar");
+    }
+
+    @Test
+    public void nullTextDoesNotMatch() {
+        assertFalse(KeywordMatcher.compile("foo").matches(null));
+        assertFalse(KeywordMatcher.compile("").matches(null));
+    }
+
+    @Test
+    public void randomInputsMatchNaiveImplementation() {
+        // small alphabet to provoke overlaps and shared prefixes
+        final String alphabet = "abAB ";
+        final Random random = new Random(8);
+        for (int n = 0; n < 5000; n++) {
+            StringBuilder keywords = new StringBuilder();
+            final int count = 1 + random.nextInt(5);
+            for (int k = 0; k < count; k++) {
+                if (k > 0) keywords.append(',');
+                final int len = 1 + random.nextInt(4);
+                for (int i = 0; i < len; i++) {
+                    keywords.append(alphabet.charAt(random.nextInt(alphabet.length())));
+                }
+            }
+            StringBuilder text = new StringBuilder();
+            final int len = random.nextInt(12);
+            for (int i = 0; i < len; i++) {
+                text.append(alphabet.charAt(random.nextInt(alphabet.length())));
+            }
+            assertSameAsNaive(keywords.toString(), text.toString());
+        }
+    }
+}